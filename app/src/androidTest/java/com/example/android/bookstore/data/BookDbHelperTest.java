@@ -0,0 +1,131 @@
+package com.example.android.bookstore.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the database migrations of {@link BookDbHelper}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookDbHelperTest {
+
+    private static final String TEST_DATABASE_NAME = "books_upgrade_test.db";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsExistingBooks() {
+        // Create a database exactly as version 1 of the app did
+        SQLiteDatabase v1 = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(TEST_DATABASE_NAME), null);
+        v1.execSQL("CREATE TABLE books (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "product_name TEXT NOT NULL, price REAL NOT NULL, quantity INTEGER NOT NULL, "
+                + "supplier_name TEXT, supplier_phone_number TEXT);");
+        v1.execSQL("INSERT INTO books (product_name, price, quantity, supplier_name, "
+                + "supplier_phone_number) VALUES ('Small Change', 7.99, 15, 'UNISA', '+316541')");
+        v1.setVersion(1);
+        v1.close();
+
+        BookDbHelper helper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        SQLiteDatabase db = helper.getReadableDatabase();
+
+        Cursor cursor = db.query(BookEntry.VIEW_NAME, null, null, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Small Change", cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_NAME)));
+            // The REAL price was converted to exact cents
+            assertEquals(799, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRICE_CENTS)));
+            assertEquals(15, cursor.getInt(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_QUANTITY)));
+            assertEquals("UNISA", cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_NAME)));
+            assertEquals("+316541", cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER)));
+            // The existing books start at the first version
+            assertEquals(1, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_VERSION)));
+            assertEquals(0, cursor.getInt(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_DELETED)));
+            // The existing books are numbered in the order they were added
+            assertEquals(1, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_CHANGE_SEQ)));
+            assertNotNull(cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SYNC_ID)));
+            // The sort keys were filled from the names
+            assertEquals("small change", cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_TITLE_KEY)));
+            assertEquals("unisa", cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_KEY)));
+        } finally {
+            cursor.close();
+        }
+
+        // The supplier was moved into its own table
+        cursor = db.query(SupplierEntry.TABLE_NAME, null, null, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        assertIndexExists(db, BookDbHelper.INDEX_PRODUCT_NAME);
+        assertIndexExists(db, BookDbHelper.INDEX_SUPPLIER_ID);
+        assertIndexExists(db, BookDbHelper.INDEX_QUANTITY);
+        assertIndexExists(db, BookDbHelper.INDEX_TITLE_KEY);
+        assertIndexExists(db, BookDbHelper.INDEX_PRICE);
+        assertIndexExists(db, BookDbHelper.INDEX_SUPPLIER_KEY);
+        helper.close();
+    }
+
+    @Test
+    public void freshDatabase_matchesUpgradedSchema() {
+        BookDbHelper helper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        SQLiteDatabase db = helper.getReadableDatabase();
+
+        assertIndexExists(db, BookDbHelper.INDEX_PRODUCT_NAME);
+        assertIndexExists(db, BookDbHelper.INDEX_SUPPLIER_ID);
+        assertIndexExists(db, BookDbHelper.INDEX_QUANTITY);
+        assertIndexExists(db, BookDbHelper.INDEX_TITLE_KEY);
+        assertIndexExists(db, BookDbHelper.INDEX_PRICE);
+        assertIndexExists(db, BookDbHelper.INDEX_SUPPLIER_KEY);
+        helper.close();
+    }
+
+    private static void assertIndexExists(SQLiteDatabase db, String indexName) {
+        Cursor cursor = db.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[]{indexName});
+        try {
+            assertTrue("Missing index " + indexName, cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+}
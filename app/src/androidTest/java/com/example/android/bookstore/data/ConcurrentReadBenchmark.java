@@ -0,0 +1,186 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark that measures the latency of reads while another thread keeps
+ * writing to the database, with write-ahead logging and with rollback journaling.
+ * The results are written to the log under the {@link #LOG_TAG} tag. With write-ahead
+ * logging, a read must not wait for a write transaction that is still open.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentReadBenchmark {
+
+    private static final String LOG_TAG = ConcurrentReadBenchmark.class.getSimpleName();
+
+    private static final String TEST_DATABASE_NAME = "books_concurrency_benchmark.db";
+
+    private static final int INITIAL_ROWS = 5000;
+    private static final int READS = 500;
+    private static final int ROWS_PER_WRITE_TRANSACTION = 200;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void readLatencyWithConcurrentWriter_writeAheadLogging() throws Exception {
+        long[] latencies = measureReadLatency(true);
+        logPercentiles("WAL", latencies);
+    }
+
+    @Test
+    public void readLatencyWithConcurrentWriter_rollbackJournal() throws Exception {
+        long[] latencies = measureReadLatency(false);
+        logPercentiles("rollback journal", latencies);
+    }
+
+    @Test
+    public void writeAheadLogging_readersDontWaitForTheWriter() throws Exception {
+        BookDbHelper helper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        insertBooks(db, ROWS_PER_WRITE_TRANSACTION);
+
+        // Keep a write transaction open until the read is done, or for at most 10 seconds
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                try {
+                    insertBooks(db, ROWS_PER_WRITE_TRANSACTION);
+                    writing.countDown();
+                    readDone.await(10, TimeUnit.SECONDS);
+                    db.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        });
+        writer.start();
+
+        try {
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            long count = DatabaseUtils.queryNumEntries(helper.getReadableDatabase(),
+                    BookEntry.TABLE_NAME);
+            long millis = (System.nanoTime() - start) / 1000000;
+            readDone.countDown();
+            // The read ran on its own connection while the transaction was still open:
+            // it didn't wait for the commit and doesn't see the rows being written
+            assertEquals(ROWS_PER_WRITE_TRANSACTION, count);
+            assertTrue("The read waited " + millis + " ms for the writer", millis < 5000);
+        } finally {
+            readDone.countDown();
+            writer.join();
+            helper.close();
+        }
+    }
+
+    /**
+     * Fill the database, start a writer thread and time {@link #READS} page queries.
+     *
+     * @return the latency of every read, in microseconds
+     */
+    private long[] measureReadLatency(boolean writeAheadLogging) throws Exception {
+        BookDbHelper helper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        helper.setWriteAheadLoggingEnabled(writeAheadLogging);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        insertBooks(db, INITIAL_ROWS);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    insertBooks(db, ROWS_PER_WRITE_TRANSACTION);
+                }
+            }
+        });
+        writer.start();
+
+        SQLiteDatabase readDb = helper.getReadableDatabase();
+        long[] latencies = new long[READS];
+        try {
+            for (int i = 0; i < READS; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = readDb.query(BookEntry.VIEW_NAME, null,
+                        BookEntry._ID + ">?", new String[]{String.valueOf(i * 10)},
+                        null, null, BookEntry._ID, "50");
+                try {
+                    assertTrue(cursor.getCount() > 0);
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = (System.nanoTime() - start) / 1000;
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+            helper.close();
+        }
+        return latencies;
+    }
+
+    private static void insertBooks(SQLiteDatabase db, int count) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < count; i++) {
+                values.put(BookEntry.COLUMN_PRODUCT_NAME, "Book " + i);
+                values.put(BookEntry.COLUMN_PRICE_CENTS, 999);
+                values.put(BookEntry.COLUMN_QUANTITY, i % 20);
+                db.insert(BookEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void logPercentiles(String mode, long[] latencies) {
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, mode + " read latency (us): p50=" + percentile(latencies, 50)
+                + " p90=" + percentile(latencies, 90)
+                + " p99=" + percentile(latencies, 99)
+                + " max=" + latencies[latencies.length - 1]);
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.android.bookstore;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+
+import com.example.android.bookstore.data.BookContract;
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@link BookChangeFeed} listens to the change notifications of the books and turns them
+ * into change sets. The provider notifies the URI of a single book when only that book
+ * changed, and the URI of the whole table otherwise. The notifications that arrive
+ * within {@link #BATCH_DELAY_MILLIS} are merged, so a burst of writes is delivered
+ * as one change set.
+ */
+public class BookChangeFeed extends ContentObserver {
+
+    /**
+     * Receives the change sets of the feed, on the thread of the handler.
+     */
+    public interface Listener {
+        /**
+         * Called when only the books with the given ids changed (updated, inserted or deleted).
+         */
+        void onBooksChanged(Set<Long> bookIds);
+
+        /**
+         * Called when the change can't be narrowed down to single books.
+         */
+        void onAllBooksChanged();
+    }
+
+    /**
+     * How long to wait for more notifications before delivering a change set
+     */
+    private static final long BATCH_DELAY_MILLIS = 100;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mHandler;
+    private final Listener mListener;
+
+    /* The change set that is being collected */
+    private final Set<Long> mChangedIds = new HashSet<>();
+    private boolean mAllChanged;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * This method constructs a new {@link BookChangeFeed}.
+     *
+     * @param contentResolver represents the resolver to observe
+     * @param handler         represents the handler on which the listener is called
+     * @param listener        represents the listener that receives the change sets
+     */
+    public BookChangeFeed(ContentResolver contentResolver, Handler handler, Listener listener) {
+        super(handler);
+        mContentResolver = contentResolver;
+        mHandler = handler;
+        mListener = listener;
+    }
+
+    /**
+     * Start listening to the changes of the books.
+     */
+    public void register() {
+        mContentResolver.registerContentObserver(BookEntry.CONTENT_URI, true, this);
+    }
+
+    /**
+     * Stop listening and drop the change set that wasn't delivered yet.
+     */
+    public void unregister() {
+        mContentResolver.unregisterContentObserver(this);
+        mHandler.removeCallbacks(mFlush);
+        mFlushScheduled = false;
+        mChangedIds.clear();
+        mAllChanged = false;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+        long id = getBookId(uri);
+        if (id == -1) {
+            mAllChanged = true;
+        } else {
+            mChangedIds.add(id);
+        }
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlush, BATCH_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Deliver the change set collected so far.
+     */
+    private void flush() {
+        mFlushScheduled = false;
+        if (mAllChanged) {
+            mListener.onAllBooksChanged();
+        } else if (!mChangedIds.isEmpty()) {
+            mListener.onBooksChanged(new HashSet<>(mChangedIds));
+        }
+        mChangedIds.clear();
+        mAllChanged = false;
+    }
+
+    /**
+     * Return the id of the book if the URI points to a single book
+     * (content://com.example.android.books/books/#), -1 otherwise.
+     */
+    private static long getBookId(Uri uri) {
+        if (uri == null || !BookContract.CONTENT_AUTHORITY.equals(uri.getAuthority())) {
+            return -1;
+        }
+        if (uri.getPathSegments().size() != 2
+                || !BookContract.PATH_BOOKS.equals(uri.getPathSegments().get(0))) {
+            return -1;
+        }
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
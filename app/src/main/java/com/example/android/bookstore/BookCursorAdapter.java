@@ -1,78 +1,345 @@
 package com.example.android.bookstore;
 
-import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
+import android.support.v7.widget.RecyclerView;
+import android.util.LongSparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.Button;
 import android.widget.TextView;
 
 import com.example.android.bookstore.data.BookContract.BookEntry;
 
 /**
- * {@link BookCursorAdapter} is an adapter for a list or grid view
+ * {@link BookCursorAdapter} is an adapter for a {@link RecyclerView}
  * that uses a {@link Cursor} of book data as its data source.
- * This adapter knows how to create list item views for each row of
- * book data in the {@link Cursor}.
+ * The column indexes are resolved once every time a new cursor is swapped in, and every
+ * {@link BookViewHolder} keeps its own views and text buffers, so binding a row
+ * doesn't look up views or allocate strings.
  */
-public class BookCursorAdapter extends CursorAdapter {
+public class BookCursorAdapter extends RecyclerView.Adapter<BookCursorAdapter.BookViewHolder> {
+
+    /**
+     * Callbacks for the actions the user can take on a book in the list.
+     */
+    public interface OnBookClickListener {
+        /**
+         * Called when the user clicks on the book with the given id.
+         */
+        void onBookClick(long id);
+
+        /**
+         * Called when the user presses the SALE button of the book with the given id.
+         */
+        void onSaleClick(long id);
+    }
+
+    /**
+     * Listener that is notified when the user clicks on a book
+     */
+    private final OnBookClickListener mListener;
+
+    /**
+     * The cursor from which to get the data
+     */
+    private Cursor mCursor;
+
+    /**
+     * Rows that changed after the cursor was loaded, by book id. They are shown instead
+     * of the values in the cursor until the cursor is reloaded.
+     */
+    private final LongSparseArray<PatchedBook> mPatchedBooks = new LongSparseArray<>();
+
+    /**
+     * Quantity changes that were queued but are not written yet, by book id.
+     * They are shown right away, on top of the quantity in the cursor.
+     */
+    private final LongSparseArray<Integer> mPendingQuantityDeltas = new LongSparseArray<>();
+
+    /**
+     * The position of the books of the cursor, by book id, for the rows from the top of the
+     * cursor down to {@link #mIndexedRowCount}. It is filled as the rows are bound or looked
+     * for, so swapping in a cursor doesn't scan it and a row is never read twice.
+     */
+    private final LongSparseArray<Integer> mPositions = new LongSparseArray<>();
+
+    /**
+     * The number of rows of the cursor, from the top, that are in {@link #mPositions}
+     */
+    private int mIndexedRowCount;
+
+    /* Column indexes of the current cursor */
+    private int mIdColumnIndex;
+    private int mProductNameColumnIndex;
+    private int mPriceColumnIndex;
+    private int mQuantityColumnIndex;
 
     /**
      * This method constructs a new {@link BookCursorAdapter}.
      *
-     * @param context represents the context
-     * @param cursor  represents the cursor from which to get the data
+     * @param cursor   represents the cursor from which to get the data
+     * @param listener represents the listener that is notified when a book is clicked
      */
-    public BookCursorAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0);
+    public BookCursorAdapter(Cursor cursor, OnBookClickListener listener) {
+        mListener = listener;
+        setHasStableIds(true);
+        swapCursor(cursor);
     }
 
     /**
-     * This method makes a new blank list item view.
-     * No data is set to the views yet.
+     * Swap in a new cursor, returning the old one.
+     * The old cursor is not closed, its owner (the loader) takes care of that.
+     */
+    public Cursor swapCursor(Cursor cursor) {
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+        mPositions.clear();
+        mIndexedRowCount = 0;
+        if (cursor != null) {
+            mIdColumnIndex = cursor.getColumnIndexOrThrow(BookEntry._ID);
+            mProductNameColumnIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_NAME);
+            mPriceColumnIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRICE_CENTS);
+            mQuantityColumnIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_QUANTITY);
+        }
+        notifyDataSetChanged();
+        return oldCursor;
+    }
+
+    /**
+     * Show new values for a single book without reloading the whole cursor.
+     *
+     * @return false if the book isn't in the list
+     */
+    public boolean patchBook(long id, String productName, long priceInCents, int quantity) {
+        int position = findPosition(id);
+        if (position == RecyclerView.NO_POSITION) {
+            return false;
+        }
+        mPatchedBooks.put(id, new PatchedBook(productName, priceInCents, quantity));
+        // The patched row already contains the quantity changes that were written
+        mPendingQuantityDeltas.remove(id);
+        notifyItemChanged(position);
+        return true;
+    }
+
+    /**
+     * Show a quantity change of a book before it is written to the database.
      *
-     * @param context is the app context
-     * @param cursor  is the cursor from which to get the data.
-     *                The cursor is already moved to the correct position.
-     * @param parent  is the ViewGroup
+     * @return false if the quantity shown would become negative, in which case nothing changes
+     */
+    public boolean addPendingQuantity(long id, int delta) {
+        int position = findPosition(id);
+        if (position == RecyclerView.NO_POSITION) {
+            // Let the provider decide
+            return true;
+        }
+        int pendingDelta = mPendingQuantityDeltas.get(id, 0);
+        if (getQuantity(id, position) + pendingDelta + delta < 0) {
+            return false;
+        }
+        mPendingQuantityDeltas.put(id, pendingDelta + delta);
+        notifyItemChanged(position);
+        return true;
+    }
+
+    /**
+     * Undo a quantity change shown by {@link #addPendingQuantity(long, int)},
+     * when writing it failed.
      */
+    public void revertPendingQuantity(long id, int delta) {
+        int pendingDelta = mPendingQuantityDeltas.get(id, 0) - delta;
+        if (pendingDelta == 0) {
+            mPendingQuantityDeltas.remove(id);
+        } else {
+            mPendingQuantityDeltas.put(id, pendingDelta);
+        }
+        int position = findPosition(id);
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /**
+     * Return the last known quantity of the book at the given position,
+     * without the pending changes.
+     */
+    private long getQuantity(long id, int position) {
+        PatchedBook patchedBook = mPatchedBooks.get(id);
+        if (patchedBook != null) {
+            return patchedBook.mQuantity;
+        }
+        if (!mCursor.moveToPosition(position)) {
+            throw new IllegalStateException("Couldn't move cursor to position " + position);
+        }
+        return mCursor.getLong(mQuantityColumnIndex);
+    }
+
+    /**
+     * Forget the patched rows. Call this once a freshly loaded cursor was swapped in.
+     */
+    public void clearPatches() {
+        mPatchedBooks.clear();
+        mPendingQuantityDeltas.clear();
+    }
+
+    /**
+     * Return the position of the book with the given id,
+     * or {@link RecyclerView#NO_POSITION} if it isn't in the list.
+     */
+    public int findPosition(long id) {
+        Integer position = mPositions.get(id);
+        if (position != null) {
+            return position;
+        }
+        // Index the rows that weren't read yet, until the book is found
+        while (mCursor != null && mCursor.moveToPosition(mIndexedRowCount)) {
+            if (indexRow(mIndexedRowCount) == id) {
+                return mIndexedRowCount - 1;
+            }
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Add the row at the given position, where the cursor is, to the index if it is the
+     * next row to index.
+     *
+     * @return the id of the book of the row
+     */
+    private long indexRow(int position) {
+        long id = mCursor.getLong(mIdColumnIndex);
+        if (position == mIndexedRowCount) {
+            mPositions.put(id, position);
+            mIndexedRowCount++;
+        }
+        return id;
+    }
+
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return LayoutInflater.from(context).inflate(R.layout.list_item,
+    public int getItemCount() {
+        return mCursor == null ? 0 : mCursor.getCount();
+    }
+
+    /**
+     * The _ID of the book is used as the stable id of the item,
+     * so the RecyclerView can animate the rows that moved or changed.
+     */
+    @Override
+    public long getItemId(int position) {
+        if (mCursor == null || !mCursor.moveToPosition(position)) {
+            return RecyclerView.NO_ID;
+        }
+        return mCursor.getLong(mIdColumnIndex);
+    }
+
+    /**
+     * This method makes a new blank list item view and the holder of its views.
+     * No data is set to the views yet.
+     */
+    @Override
+    public BookViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item,
                 parent, false);
+        return new BookViewHolder(view);
     }
 
     /**
-     * This method binds the book data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current book can be set on the product_name
-     * TextView in the list item layout.
-     *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * This method binds the book data (in the row of the cursor at the given position)
+     * to the views of the holder.
      */
     @Override
-    public void bindView(final View view, Context context, Cursor cursor) {
-        // Find fields to populate in inflated template
-        TextView productNameTextView = view.findViewById(R.id.product_name);
-        TextView priceTextView = view.findViewById(R.id.price);
-        final TextView quantityTextView = view.findViewById(R.id.quantity);
-
-        int productNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_NAME);
-        int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_PRICE);
-        int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_QUANTITY);
-
-        // Extract properties from cursor
-        String productName = cursor.getString(productNameColumnIndex);
-        String price = "$" + cursor.getString(priceColumnIndex);
-        String quantityString = cursor.getString(quantityColumnIndex);
-
-        // Populate fields with extracted properties
-        productNameTextView.setText(productName);
-        priceTextView.setText(price);
-        quantityTextView.setText(quantityString);
+    public void onBindViewHolder(BookViewHolder holder, int position) {
+        if (!mCursor.moveToPosition(position)) {
+            throw new IllegalStateException("Couldn't move cursor to position " + position);
+        }
+        long id = indexRow(position);
+        holder.bind(id);
+
+        long priceInCents;
+        long quantity;
+        PatchedBook patchedBook = mPatchedBooks.get(id);
+        if (patchedBook != null) {
+            holder.mProductNameTextView.setText(patchedBook.mProductName);
+            priceInCents = patchedBook.mPriceInCents;
+            quantity = patchedBook.mQuantity;
+        } else {
+            // Copy the name into the holder's buffer instead of creating a new String
+            mCursor.copyStringToBuffer(mProductNameColumnIndex, holder.mProductName);
+            holder.mProductNameTextView.setText(holder.mProductName.data, 0,
+                    holder.mProductName.sizeCopied);
+            priceInCents = mCursor.getLong(mPriceColumnIndex);
+            quantity = mCursor.getLong(mQuantityColumnIndex);
+        }
+
+        // Format the price and the quantity into the holder's character buffers
+        int priceLength = PriceFormatter.formatCents(priceInCents, holder.mPrice);
+        holder.mPriceTextView.setText(holder.mPrice, 0, priceLength);
+
+        quantity += mPendingQuantityDeltas.get(id, 0);
+        int quantityLength = PriceFormatter.formatInteger(quantity, holder.mQuantity, 0);
+        holder.mQuantityTextView.setText(holder.mQuantity, 0, quantityLength);
+    }
+
+    /**
+     * The values of a book that changed after the cursor was loaded
+     */
+    private static class PatchedBook {
+        private final String mProductName;
+        private final long mPriceInCents;
+        private final int mQuantity;
+
+        PatchedBook(String productName, long priceInCents, int quantity) {
+            mProductName = productName;
+            mPriceInCents = priceInCents;
+            mQuantity = quantity;
+        }
+    }
+
+    /**
+     * {@link BookViewHolder} keeps the views of a list item and the buffers used to fill them.
+     */
+    public class BookViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        private final TextView mProductNameTextView;
+        private final TextView mPriceTextView;
+        private final TextView mQuantityTextView;
+
+        private final CharArrayBuffer mProductName = new CharArrayBuffer(64);
+        private final char[] mPrice = new char[PriceFormatter.MAX_LENGTH];
+        private final char[] mQuantity = new char[PriceFormatter.MAX_LENGTH];
+
+        /**
+         * The _ID of the book that is currently bound to this holder
+         */
+        private long mBookId;
+
+        BookViewHolder(View itemView) {
+            super(itemView);
+            mProductNameTextView = itemView.findViewById(R.id.product_name);
+            mPriceTextView = itemView.findViewById(R.id.price);
+            mQuantityTextView = itemView.findViewById(R.id.quantity);
+            Button saleButton = itemView.findViewById(R.id.sale_button);
+
+            itemView.setOnClickListener(this);
+            saleButton.setOnClickListener(this);
+        }
+
+        void bind(long bookId) {
+            mBookId = bookId;
+        }
 
+        @Override
+        public void onClick(View view) {
+            if (mListener == null) {
+                return;
+            }
+            if (view.getId() == R.id.sale_button) {
+                mListener.onSaleClick(mBookId);
+            } else {
+                mListener.onBookClick(mBookId);
+            }
+        }
     }
 }
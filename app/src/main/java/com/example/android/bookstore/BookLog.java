@@ -0,0 +1,136 @@
+package com.example.android.bookstore;
+
+import android.util.Log;
+
+/**
+ * {@link BookLog} is the logging facade of the app. A message is only formatted when its
+ * level is logged, so a disabled call costs a comparison: no string concatenation and,
+ * with the fixed argument overloads, no varargs array.
+ * <p>
+ * The messages use "{}" placeholders that are replaced by the arguments in order.
+ * The verbose and debug levels are compiled out of release builds through {@link #DEBUG};
+ * callers that need to compute an argument can guard it with {@link #isLoggable(int)}.
+ * The other levels are logged from {@link Log#INFO} up by default.
+ */
+public final class BookLog {
+
+    /**
+     * False in release builds. As a constant, the code it guards is removed by the compiler.
+     */
+    public static final boolean DEBUG = BuildConfig.DEBUG;
+
+    /**
+     * The lowest level that is logged
+     */
+    private static volatile int sMinLevel = Log.INFO;
+
+    private BookLog() {
+    }
+
+    /**
+     * Set the lowest level that is logged, one of the {@link Log} levels.
+     * Verbose and debug messages are only logged in debug builds.
+     */
+    public static void setMinLevel(int level) {
+        sMinLevel = level;
+    }
+
+    /**
+     * Return true if messages of the given level are logged.
+     */
+    public static boolean isLoggable(int level) {
+        return (DEBUG || level > Log.DEBUG) && level >= sMinLevel;
+    }
+
+    public static void v(String tag, String message) {
+        if (DEBUG && isLoggable(Log.VERBOSE)) {
+            Log.v(tag, message);
+        }
+    }
+
+    public static void v(String tag, String message, Object arg) {
+        if (DEBUG && isLoggable(Log.VERBOSE)) {
+            Log.v(tag, format(message, 1, arg, null));
+        }
+    }
+
+    public static void v(String tag, String message, Object arg1, Object arg2) {
+        if (DEBUG && isLoggable(Log.VERBOSE)) {
+            Log.v(tag, format(message, 2, arg1, arg2));
+        }
+    }
+
+    public static void d(String tag, String message) {
+        if (DEBUG && isLoggable(Log.DEBUG)) {
+            Log.d(tag, message);
+        }
+    }
+
+    public static void d(String tag, String message, Object arg) {
+        if (DEBUG && isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(message, 1, arg, null));
+        }
+    }
+
+    public static void d(String tag, String message, Object arg1, Object arg2) {
+        if (DEBUG && isLoggable(Log.DEBUG)) {
+            Log.d(tag, format(message, 2, arg1, arg2));
+        }
+    }
+
+    public static void i(String tag, String message) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(tag, message);
+        }
+    }
+
+    public static void i(String tag, String message, Object arg) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(tag, format(message, 1, arg, null));
+        }
+    }
+
+    public static void i(String tag, String message, Object arg1, Object arg2) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(tag, format(message, 2, arg1, arg2));
+        }
+    }
+
+    public static void w(String tag, String message, Object arg, Throwable throwable) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(tag, format(message, 1, arg, null), throwable);
+        }
+    }
+
+    public static void e(String tag, String message, Object arg) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, format(message, 1, arg, null));
+        }
+    }
+
+    public static void e(String tag, String message, Object arg, Throwable throwable) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(tag, format(message, 1, arg, null), throwable);
+        }
+    }
+
+    /**
+     * Replace the first argCount "{}" of the message by the arguments.
+     * The placeholders without an argument are left as they are.
+     */
+    static String format(String message, int argCount, Object arg1, Object arg2) {
+        int first = message.indexOf("{}");
+        if (first == -1) {
+            return message;
+        }
+        StringBuilder builder = new StringBuilder(message.length() + 32);
+        builder.append(message, 0, first).append(arg1);
+        int rest = first + 2;
+        int second = argCount > 1 ? message.indexOf("{}", rest) : -1;
+        if (second != -1) {
+            builder.append(message, rest, second).append(arg2);
+            rest = second + 2;
+        }
+        return builder.append(message, rest, message.length()).toString();
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.android.bookstore;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract;
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link BookPageLoader} loads the books one page at a time instead of the whole table.
+ * The first page is loaded when the loader starts and every call to {@link #loadNextPage()}
+ * appends the following page, using the id of the last loaded book as the page key.
+ * The books are sorted by id, or by one of the sort orders of {@link BookContract}:
+ * the provider then continues after the sort keys of the last loaded book in that order,
+ * which are loaded with the rows, so the page follows even if that book was deleted.
+ * The loader doesn't observe the provider itself: call {@link #onContentChanged()} when the
+ * data changes, and the rows that were already loaded are reloaded in a single query.
+ * This lets the list patch single rows instead of reloading for every change.
+ */
+public class BookPageLoader extends AsyncTaskLoader<Cursor> {
+
+    /**
+     * Number of books loaded at a time
+     */
+    public static final int PAGE_SIZE = 50;
+
+    /**
+     * The columns to load: the columns of the caller, and the sort keys of the sort order.
+     */
+    private final String[] mProjection;
+
+    /**
+     * The columns of the sort keys that the page key is made of, before the id
+     */
+    private final String[] mPageKeyColumns;
+
+    /**
+     * The sort order of the books, or null to sort them by id
+     */
+    private final String mSort;
+
+    /**
+     * The cursor that was last delivered. It contains all the pages loaded so far.
+     * It is read by the background thread that appends the next page.
+     */
+    private volatile Cursor mCursor;
+
+    /**
+     * The id of the last book loaded so far, used as the key of the next page
+     */
+    private volatile long mLastId = -1;
+
+    /**
+     * The sort keys of the last book loaded so far, or null to let the provider read them
+     */
+    private volatile String[] mLastKeys;
+
+    /**
+     * The number of books loaded so far
+     */
+    private volatile int mLoadedCount;
+
+    /**
+     * True when the next load should append a page instead of reloading the loaded rows
+     */
+    private volatile boolean mLoadingNextPage;
+
+    /**
+     * False once a page shorter than {@link #PAGE_SIZE} was loaded
+     */
+    private boolean mHasMorePages = true;
+
+    /**
+     * This method constructs a new {@link BookPageLoader}.
+     *
+     * @param context    represents the context
+     * @param projection represents the columns to load, including the _ID column
+     * @param sort       represents one of the sort orders like {@link BookContract#SORT_TITLE},
+     *                   or null to sort the books by id
+     */
+    public BookPageLoader(Context context, String[] projection, String sort) {
+        super(context);
+        mSort = sort;
+        mPageKeyColumns = BookEntry.getPageKeyColumns(sort);
+        List<String> columns = new ArrayList<>(Arrays.asList(projection));
+        for (String column : mPageKeyColumns) {
+            if (!columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        mProjection = columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Clear a pending {@link #loadNextPage()}, so the next load reloads the rows that were
+     * loaded instead of appending a page to rows that are out of date. The page that is
+     * being appended is canceled by the reload.
+     */
+    @Override
+    public void onContentChanged() {
+        mLoadingNextPage = false;
+        super.onContentChanged();
+    }
+
+    /**
+     * Return true if the books are sorted by id, so a change can't move the loaded books.
+     */
+    public boolean isSortedById() {
+        return mSort == null;
+    }
+
+    /**
+     * Start loading the page that follows the books that were already loaded.
+     * Nothing happens if a page is already being loaded or all the books were loaded.
+     */
+    public void loadNextPage() {
+        if (mLoadingNextPage || !mHasMorePages || mCursor == null) {
+            return;
+        }
+        mLoadingNextPage = true;
+        forceLoad();
+    }
+
+    /**
+     * Return true if the book with the given id would be part of the rows loaded so far.
+     * Books with a greater id only show up once the user scrolls to their page.
+     * Only meaningful when the books are sorted by id.
+     */
+    public boolean isInLoadedRange(long id) {
+        return !mHasMorePages || id <= mLastId;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor loaded = mCursor;
+        if (mLoadingNextPage && loaded instanceof PagedCursor && !loaded.isClosed()) {
+            // Continue right after the last book that is already loaded. The new cursor
+            // shares the pages of the loaded one instead of wrapping it, so moving through
+            // it costs the same however many pages were loaded.
+            Cursor page = queryPage(mLastId, mLastKeys, PAGE_SIZE);
+            Cursor[] loadedPages = ((PagedCursor) loaded).mPages;
+            Cursor[] pages = Arrays.copyOf(loadedPages, loadedPages.length + 1);
+            pages[loadedPages.length] = page;
+            return new PagedCursor(pages, page.getCount() == PAGE_SIZE);
+        }
+
+        // Reload all the rows that were loaded so far in one query
+        int rowCount = Math.max(PAGE_SIZE, mLoadedCount);
+        Cursor window = queryPage(-1, null, rowCount);
+        return new PagedCursor(new Cursor[]{window}, window.getCount() == rowCount);
+    }
+
+    /**
+     * Query the provider for at most pageSize books that follow the book with the id afterId
+     * and the sort keys afterKeys, or null to let the provider read them
+     */
+    private Cursor queryPage(long afterId, String[] afterKeys, int pageSize) {
+        Uri uri = afterKeys == null ? BookEntry.buildPageUri(mSort, afterId, pageSize)
+                : BookEntry.buildPageUri(mSort, afterId, afterKeys, pageSize);
+        Cursor cursor = getContext().getContentResolver().query(uri, mProjection, null, null,
+                null);
+        // Fill the cursor window on the background thread
+        cursor.getCount();
+        return cursor;
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        mLoadingNextPage = false;
+        if (isReset()) {
+            // An async query came in while the loader is stopped
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+        if (cursor instanceof PagedCursor) {
+            mHasMorePages = ((PagedCursor) cursor).mHasMorePages;
+        }
+        if (cursor != null) {
+            mLoadedCount = cursor.getCount();
+            if (cursor.moveToLast()) {
+                mLastId = cursor.getLong(cursor.getColumnIndexOrThrow(BookEntry._ID));
+                mLastKeys = readPageKeys(cursor);
+            }
+        }
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        // Only the pages of the old cursor that the new one doesn't share are closed
+        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+            if (oldCursor instanceof PagedCursor) {
+                ((PagedCursor) oldCursor).closePagesExcept(cursor);
+            } else {
+                oldCursor.close();
+            }
+        }
+    }
+
+    /**
+     * Return the sort keys of the row the cursor is on, or null if one of them is null,
+     * which can't be sent in the URI.
+     */
+    private String[] readPageKeys(Cursor cursor) {
+        String[] keys = new String[mPageKeyColumns.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = cursor.getString(cursor.getColumnIndexOrThrow(mPageKeyColumns[i]));
+            if (keys[i] == null) {
+                return null;
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        mLoadingNextPage = false;
+        if (cursor instanceof PagedCursor) {
+            // Don't close the pages that are still in use
+            ((PagedCursor) cursor).closePagesExcept(mCursor);
+        } else if (cursor != null && cursor != mCursor) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.close();
+        }
+        mCursor = null;
+        mHasMorePages = true;
+        mLastId = -1;
+        mLastKeys = null;
+        mLoadedCount = 0;
+    }
+
+    /**
+     * A cursor made of consecutive pages, that remembers whether more pages can follow.
+     * The next cursor shares its pages, so it is never closed as a whole while they are
+     * still shown: {@link #closePagesExcept(Cursor)} closes only the pages left behind.
+     */
+    private static class PagedCursor extends MergeCursor {
+
+        private final Cursor[] mPages;
+        private final boolean mHasMorePages;
+
+        PagedCursor(Cursor[] pages, boolean hasMorePages) {
+            super(pages);
+            mPages = pages;
+            mHasMorePages = hasMorePages;
+        }
+
+        boolean contains(Cursor cursor) {
+            for (Cursor page : mPages) {
+                if (page == cursor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Close the pages that are not a part of the given cursor.
+         */
+        void closePagesExcept(Cursor cursor) {
+            for (Cursor page : mPages) {
+                boolean shared = cursor instanceof PagedCursor
+                        ? ((PagedCursor) cursor).contains(page) : page == cursor;
+                if (!shared) {
+                    page.close();
+                }
+            }
+        }
+    }
+}
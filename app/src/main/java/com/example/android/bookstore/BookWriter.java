@@ -0,0 +1,289 @@
+package com.example.android.bookstore;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link BookWriter} runs the writes to the books on a single background thread,
+ * so the UI thread never waits for the database.
+ * The writes run in the order they were queued. Updates of the same URI that are still
+ * waiting in the queue are merged into one write: for example, ten quick sales of the
+ * same book become a single quantity change of -10. If the provider refuses the merged
+ * change, because the stock changed in the meantime, the changes are written again one at
+ * a time, so the sales that still fit are kept and only the others fail. Updates that carry an
+ * {@link BookEntry#EXPECTED_VERSION} are never merged, so each of them is checked on its own.
+ * The results are delivered to the callbacks on the main thread.
+ */
+public final class BookWriter {
+
+    /**
+     * Receives the result of a write, on the main thread.
+     */
+    public interface Callback<T> {
+        void onComplete(T result);
+    }
+
+    private static final String LOG_TAG = BookWriter.class.getSimpleName();
+
+    private static BookWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The updates that are queued but didn't start yet, by URI.
+     * Guarded by this.
+     */
+    private final Map<Uri, PendingUpdate> mPendingUpdates = new HashMap<>();
+
+    private BookWriter(Context context) {
+        this(context.getApplicationContext().getContentResolver(),
+                Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * Create a writer that runs the writes on the given executor, which must run them
+     * one at a time and in order. Only called by the tests.
+     */
+    @VisibleForTesting
+    BookWriter(ContentResolver contentResolver, ExecutorService executor) {
+        mContentResolver = contentResolver;
+        mExecutor = executor;
+    }
+
+    /**
+     * Return the writer shared by the whole app.
+     */
+    public static synchronized BookWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BookWriter(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue an insert. The callback receives the URI of the new book, or null on failure.
+     */
+    public void insert(final Uri uri, final ContentValues values, final Callback<Uri> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = mContentResolver.insert(uri, values);
+                } catch (RuntimeException e) {
+                    BookLog.e(LOG_TAG, "Failed to insert into {}", uri, e);
+                }
+                deliver(callback, newUri);
+            }
+        });
+    }
+
+    /**
+     * Queue an insert of several books in a single transaction. The callback receives the
+     * number of books inserted, 0 if any of them failed, in which case none was inserted.
+     */
+    public void bulkInsert(final Uri uri, final ContentValues[] values,
+                           final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rowsInserted = 0;
+                try {
+                    rowsInserted = mContentResolver.bulkInsert(uri, values);
+                } catch (RuntimeException e) {
+                    BookLog.e(LOG_TAG, "Failed to insert into {}", uri, e);
+                }
+                deliver(callback, rowsInserted);
+            }
+        });
+    }
+
+    /**
+     * Queue an update. If an update of the same URI is still waiting, the values are merged
+     * into it and the callback receives the result of the merged write.
+     * The callback receives the number of rows updated.
+     */
+    public void update(Uri uri, ContentValues values, Callback<Integer> callback) {
+        enqueueUpdate(uri, values, 0, callback);
+    }
+
+    /**
+     * Queue a change of the quantity of a book. Changes of the same book that are still
+     * waiting are added together into a single write, and written one by one if the sum is
+     * refused. The callback receives the number of rows updated by its own change,
+     * 0 if the quantity would become negative.
+     */
+    public void adjustQuantity(long id, int delta, Callback<Integer> callback) {
+        enqueueUpdate(BookEntry.buildQuantityUri(id), null, delta, callback);
+    }
+
+    /**
+     * Queue a delete. The callback receives the number of rows deleted.
+     */
+    public void delete(final Uri uri, final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rowsDeleted = 0;
+                try {
+                    rowsDeleted = mContentResolver.delete(uri, null, null);
+                } catch (RuntimeException e) {
+                    BookLog.e(LOG_TAG, "Failed to delete {}", uri, e);
+                }
+                deliver(callback, rowsDeleted);
+            }
+        });
+    }
+
+    /**
+     * Wait until the writes queued so far have run. Their callbacks are posted to the main
+     * thread but may not have run yet. Only called by the tests.
+     */
+    @VisibleForTesting
+    void flush() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private void enqueueUpdate(final Uri uri, ContentValues values, int delta,
+                               Callback<Integer> callback) {
+        if (values != null && values.containsKey(BookEntry.EXPECTED_VERSION)) {
+            executeUpdate(uri, values, callback);
+            return;
+        }
+        synchronized (this) {
+            PendingUpdate pending = mPendingUpdates.get(uri);
+            if (pending != null) {
+                // Merge into the write that is already waiting in the queue
+                pending.merge(values, delta, callback);
+                return;
+            }
+            pending = new PendingUpdate();
+            pending.merge(values, delta, callback);
+            mPendingUpdates.put(uri, pending);
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PendingUpdate pending;
+                synchronized (BookWriter.this) {
+                    // From now on, new updates of this URI are queued separately
+                    pending = mPendingUpdates.remove(uri);
+                }
+                ContentValues values = pending.mValues;
+                int deltaCount = pending.mDeltas.size();
+                if (deltaCount > 0) {
+                    values.put(BookEntry.QUANTITY_DELTA, pending.getDelta());
+                }
+                int rowsUpdated = write(uri, values);
+                if (rowsUpdated == 0 && deltaCount > 1) {
+                    // The sum was refused: write every change on its own, in order
+                    for (int i = 0; i < deltaCount; i++) {
+                        ContentValues change = new ContentValues();
+                        change.put(BookEntry.QUANTITY_DELTA, pending.mDeltas.get(i));
+                        deliver(pending.mCallbacks.get(i), write(uri, change));
+                    }
+                    return;
+                }
+                for (Callback<Integer> callback : pending.mCallbacks) {
+                    deliver(callback, rowsUpdated);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue an update that is not merged with the others.
+     */
+    private void executeUpdate(final Uri uri, final ContentValues values,
+                               final Callback<Integer> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, write(uri, values));
+            }
+        });
+    }
+
+    /**
+     * Update the URI on the calling thread.
+     *
+     * @return the number of rows updated, 0 if the update failed
+     */
+    private int write(Uri uri, ContentValues values) {
+        try {
+            return mContentResolver.update(uri, values, null, null);
+        } catch (RuntimeException e) {
+            BookLog.e(LOG_TAG, "Failed to update {}", uri, e);
+            return 0;
+        }
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+
+    /**
+     * An update waiting in the queue, with all the writes merged into it.
+     * A URI only gets values or only quantity changes, so the quantity changes and the
+     * callbacks are in the same order, a null callback included.
+     */
+    private static class PendingUpdate {
+        private final ContentValues mValues = new ContentValues();
+        private final List<Callback<Integer>> mCallbacks = new ArrayList<>();
+        private final List<Integer> mDeltas = new ArrayList<>();
+
+        void merge(ContentValues values, int delta, Callback<Integer> callback) {
+            if (values != null) {
+                // The latest value of every column wins
+                mValues.putAll(values);
+            } else {
+                mDeltas.add(delta);
+            }
+            mCallbacks.add(callback);
+        }
+
+        /**
+         * Return the sum of the quantity changes
+         */
+        int getDelta() {
+            int sum = 0;
+            for (int delta : mDeltas) {
+                sum += delta;
+            }
+            return sum;
+        }
+    }
+}
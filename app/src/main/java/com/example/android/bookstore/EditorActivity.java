@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -14,7 +15,6 @@ import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
@@ -69,15 +69,39 @@ public class EditorActivity extends AppCompatActivity
 
     /**
      * This is a boolean that indicated whether the book has been successfully saved or not.
-     * It will become true when we know for sure that the book was saved and we can close the ediitor.
+     * It will become true when the input was valid and the book was queued to be saved,
+     * so we can close the editor. An update of a loaded book leaves it false: the editor
+     * stays open until the update returns, so a conflict doesn't lose the input.
      */
     private boolean wasSaved = false;
 
     /**
-     * This is the URI for the book that was selected from the ListView
+     * True while an update of the loaded book is being written, so it isn't saved twice.
+     */
+    private boolean mSaving = false;
+
+    /**
+     * True when the book is loaded again after a conflicting update, to show the conflict.
+     */
+    private boolean mConflict = false;
+
+    /**
+     * True once the activity is destroyed, so the result of an update that returns later
+     * is only shown as a toast.
+     */
+    private boolean mDestroyed = false;
+
+    /**
+     * This is the URI for the book that was selected from the list
      */
     private Uri mBookUri;
 
+    /**
+     * The version of the book when it was loaded into the form, or 0 before that.
+     * The book is only updated if it still has this version when it is saved.
+     */
+    private long mBookVersion = 0;
+
     /**
      * This variable is used to remember if the user made any changes on the form.
      * In the beginning there are no changes so it can be false.
@@ -119,7 +143,7 @@ public class EditorActivity extends AppCompatActivity
 
 
         // Set the title of the EditorActivity based on which situation we have.
-        // If the EditorActivity was opened using the ListView item,
+        // If the EditorActivity was opened using a list item,
         // then we will have the URI of the book so we will change the app bar
         // to say "Edit Book"
 
@@ -133,7 +157,7 @@ public class EditorActivity extends AppCompatActivity
             mQuantity.setText(String.valueOf(0));
         } else {
             // The user is editing a book so change the app bar to say "Edit Book"
-            Log.i(LOG_TAG, mBookUri.toString());
+            BookLog.d(LOG_TAG, "Editing {}", mBookUri);
             setTitle(getResources().getString(R.string.editor_title_edit_book));
             // Prepare the loader. Either re-connect with an existing one
             // or start a new one.
@@ -247,6 +271,9 @@ public class EditorActivity extends AppCompatActivity
      * Get user input from the editor and save new book in database
      */
     private void saveBook() {
+        if (mSaving) {
+            return;
+        }
         String productNameString = mProductName.getText().toString().trim();
         String supplierNameString = mSupplierName.getText().toString().trim();
         String supplierPhoneNumberString = mSupplierPhoneNumber.getText().toString().trim();
@@ -264,9 +291,14 @@ public class EditorActivity extends AppCompatActivity
                     Toast.LENGTH_SHORT).show();
             return;
         }
-        float price = 0;
-        if (!mPrice.getText().toString().isEmpty()) {
-            price = Float.parseFloat(mPrice.getText().toString().trim());
+        long priceInCents;
+        try {
+            priceInCents = PriceFormatter.parseCents(mPrice.getText().toString());
+        } catch (NumberFormatException e) {
+            Toast.makeText(this,
+                    getResources().getString(R.string.null_values_message),
+                    Toast.LENGTH_SHORT).show();
+            return;
         }
         int quantity = 0;
         if (!mQuantity.getText().toString().isEmpty()) {
@@ -284,39 +316,124 @@ public class EditorActivity extends AppCompatActivity
 
         ContentValues values = new ContentValues();
         values.put(BookEntry.COLUMN_PRODUCT_NAME, productNameString);
-        values.put(BookEntry.COLUMN_PRICE, price);
+        values.put(BookEntry.COLUMN_PRICE_CENTS, priceInCents);
         values.put(BookEntry.COLUMN_QUANTITY, quantity);
         values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierNameString);
         values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, supplierPhoneNumberString);
+        if (mBookVersion != 0) {
+            // Don't overwrite a change made since the book was loaded
+            values.put(BookEntry.EXPECTED_VERSION, mBookVersion);
+        }
 
+        // The write runs in the background and the editor may be closed before it returns,
+        // so the result is shown with the application context.
+        final Context appContext = getApplicationContext();
+        if (mBookVersion != 0) {
+            // This means we are editing a loaded book: keep the editor open until the
+            // update returns, and close it only if the book didn't change meanwhile
+            mSaving = true;
+            BookWriter.getInstance(this).update(mBookUri, values,
+                    new BookWriter.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsUpdated) {
+                            mSaving = false;
+                            if (rowsUpdated > 0) {
+                                Toast.makeText(appContext, R.string.book_updated,
+                                        Toast.LENGTH_SHORT).show();
+                                finish();
+                            } else if (mDestroyed) {
+                                Toast.makeText(appContext, R.string.book_update_conflict,
+                                        Toast.LENGTH_SHORT).show();
+                            } else {
+                                // Load the book again to show what changed
+                                mConflict = true;
+                                getLoaderManager().restartLoader(BOOK_LOADER, null,
+                                        EditorActivity.this);
+                            }
+                        }
+                    });
+            return;
+        }
         if (mBookUri == null) {
             // This means we are in the "Add a Book" mode
-            Uri uri = getContentResolver().insert(BookEntry.CONTENT_URI, values);
-
-            if (uri == null) {
-                Toast.makeText(this,
-                        getResources().getString(R.string.book_not_saved),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                wasSaved = true;
-                Toast.makeText(this,
-                        getResources().getString(R.string.book_saved),
-                        Toast.LENGTH_SHORT).show();
-            }
+            BookWriter.getInstance(this).insert(BookEntry.CONTENT_URI, values,
+                    new BookWriter.Callback<Uri>() {
+                        @Override
+                        public void onComplete(Uri uri) {
+                            Toast.makeText(appContext, uri == null
+                                            ? R.string.book_not_saved : R.string.book_saved,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
         } else {
-            // This means we are in the "Edit Book" mode
-            int rowsUpdated = getContentResolver().update(mBookUri, values, null, null);
-            if (rowsUpdated == 0) {
-                Toast.makeText(this,
-                        getResources().getString(R.string.book_not_updated),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                wasSaved = true;
-                Toast.makeText(this,
-                        getResources().getString(R.string.book_updated),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // This means we are in the "Edit Book" mode, saved before the book was loaded
+            BookWriter.getInstance(this).update(mBookUri, values,
+                    new BookWriter.Callback<Integer>() {
+                        @Override
+                        public void onComplete(Integer rowsUpdated) {
+                            Toast.makeText(appContext, rowsUpdated > 0
+                                            ? R.string.book_updated : R.string.book_not_updated,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
         }
+        // The input is valid, so the editor can be closed while the book is written
+        wasSaved = true;
+    }
+
+    /**
+     * Show the book as it is now stored, after an update that conflicted with it.
+     * The input of the user is kept: they can overwrite the book with it, keep editing
+     * and save it later, or discard it and edit the stored book instead.
+     */
+    private void showConflictDialog(Cursor cursor) {
+        if (!cursor.moveToFirst()) {
+            // The book was deleted meanwhile, so there is nothing left to update
+            Toast.makeText(this, R.string.book_update_conflict, Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+        // The user has seen this version, so saving the input again overwrites it
+        mBookVersion = cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_VERSION));
+        String message = getString(R.string.book_update_conflict_dialog_msg,
+                cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_NAME)),
+                PriceFormatter.toDecimalString(
+                        cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_PRICE_CENTS))),
+                cursor.getInt(cursor.getColumnIndex(BookEntry.COLUMN_QUANTITY)),
+                cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME)),
+                cursor.getString(cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER)));
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(message);
+        builder.setPositiveButton(R.string.overwrite, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Overwrite" button, so save the input over the stored book
+                saveBook();
+            }
+        });
+        builder.setNegativeButton(R.string.keep_editing, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Keep Editing" button, so dismiss the dialog
+                // and keep the input
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
+        builder.setNeutralButton(R.string.discard, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Discard" button, so show the stored book in the form
+                mBookHasChanged = false;
+                getLoaderManager().restartLoader(BOOK_LOADER, null, EditorActivity.this);
+            }
+        });
+
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
     }
 
     private void showDeleteConfirmationDialog() {
@@ -350,16 +467,16 @@ public class EditorActivity extends AppCompatActivity
      */
     private void deleteBook() {
         if (mBookUri != null) {
-            int rowsAffected = getContentResolver().delete(mBookUri, null, null);
-            if (rowsAffected > 0) {
-                Toast.makeText(this,
-                        getResources().getString(R.string.editor_delete_book_successful),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this,
-                        getResources().getString(R.string.editor_delete_book_failed),
-                        Toast.LENGTH_SHORT).show();
-            }
+            final Context appContext = getApplicationContext();
+            BookWriter.getInstance(this).delete(mBookUri, new BookWriter.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer rowsAffected) {
+                    Toast.makeText(appContext, rowsAffected > 0
+                                    ? R.string.editor_delete_book_successful
+                                    : R.string.editor_delete_book_failed,
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
         }
         // Close the activity
         finish();
@@ -430,15 +547,22 @@ public class EditorActivity extends AppCompatActivity
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onDestroy() {
+        mDestroyed = true;
+        super.onDestroy();
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         // Define a projection that specifies the columns from the table we are interested in
         String[] projection = {BookEntry._ID,
                 BookEntry.COLUMN_PRODUCT_NAME,
-                BookEntry.COLUMN_PRICE,
+                BookEntry.COLUMN_PRICE_CENTS,
                 BookEntry.COLUMN_QUANTITY,
                 BookEntry.COLUMN_SUPPLIER_NAME,
-                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+                BookEntry.COLUMN_VERSION
         };
 
         // This Loader will execute the ContentProvider's query method on a background thread
@@ -454,26 +578,37 @@ public class EditorActivity extends AppCompatActivity
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        if (mConflict) {
+            mConflict = false;
+            showConflictDialog(cursor);
+            return;
+        }
+        // The loader runs again every time the book changes. Keep the changes of the user,
+        // and the version they started from, so saving them reports the conflict.
+        if (mBookHasChanged && mBookVersion != 0) {
+            return;
+        }
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
             // Find the columns of book attributes that we're interested in
             int productNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_NAME);
-            int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_PRICE);
+            int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_PRICE_CENTS);
             int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_QUANTITY);
             int supplierNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME);
             int supplierPhoneNumberColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
 
             // Extract out the value from the Cursor for the given column index
             String productName = cursor.getString(productNameColumnIndex);
-            float price = cursor.getFloat(priceColumnIndex);
+            long priceInCents = cursor.getLong(priceColumnIndex);
             int quantity = cursor.getInt(quantityColumnIndex);
             String supplierName = cursor.getString(supplierNameColumnIndex);
             String supplierPhoneNumber = cursor.getString(supplierPhoneNumberColumnIndex);
+            mBookVersion = cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_VERSION));
 
             // Update the views on the screen with the values from the database
             mProductName.setText(productName);
-            mPrice.setText(String.valueOf(price));
+            mPrice.setText(PriceFormatter.toDecimalString(priceInCents));
             mQuantity.setText(String.valueOf(quantity));
             mSupplierName.setText(supplierName);
             mSupplierPhoneNumber.setText(supplierPhoneNumber);
@@ -1,41 +1,92 @@
 package com.example.android.bookstore;
 
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.Toast;
 
+import com.example.android.bookstore.data.BookContract;
 import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookImporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
 
 /**
  * This class is used to display a list of books that were stored in the app
  */
-public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+public class MainActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>,
+        BookCursorAdapter.OnBookClickListener, BookChangeFeed.Listener {
 
     // This is the tag that will be used for logging
     private static final String LOG_TAG = MainActivity.class.getSimpleName();
     // This constant identifies a particular loader being used in this component
     private static final int BOOK_LOADER = 0;
+    // The request code used to pick the catalogue to import
+    private static final int REQUEST_IMPORT_CATALOGUE = 1;
+    // The key of the search query passed to the loader
+    private static final String ARG_SEARCH_QUERY = "search_query";
+    // The key of the sort order of the list in the preferences of the activity
+    private static final String PREF_SORT = "sort";
+    // The items of the sort menu, and the sort orders they select (null sorts by date added)
+    private static final int[] SORT_ITEM_IDS = {
+            R.id.action_sort_date_added,
+            R.id.action_sort_title,
+            R.id.action_sort_price,
+            R.id.action_sort_quantity,
+            R.id.action_sort_supplier
+    };
+    private static final String[] SORT_ORDERS = {
+            null,
+            BookContract.SORT_TITLE,
+            BookContract.SORT_PRICE,
+            BookContract.SORT_QUANTITY,
+            BookContract.SORT_SUPPLIER
+    };
+    // Change sets with more books than this reload the list instead of patching rows
+    private static final int MAX_PATCHED_BOOKS = 50;
+    // The columns shown in the list
+    private static final String[] LIST_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRICE_CENTS,
+            BookEntry.COLUMN_QUANTITY
+    };
     // This is the Adapter being used to display the list's data
     private BookCursorAdapter mCursorAdapter;
-    // This is the ListView that displays book data
-    private ListView booksList;
-    // This is the cursor that contains the data obtained from the table
-    private Cursor mCursor;
+    // This is the RecyclerView that displays book data
+    private RecyclerView booksList;
+    // This is the view shown instead of the list when there are no books
+    private View mEmptyView;
+    // This turns the change notifications of the books into change sets
+    private BookChangeFeed mChangeFeed;
+    // True while a reload of the whole list is pending, so the patched rows can be dropped
+    private boolean mReloadRequested;
+    // The sort order of the list chosen by the user, or null to sort by date added
+    private String mSort;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -52,96 +103,179 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
             }
         });
 
-        // Find the ListView which will be populated with book data
+        // Find the RecyclerView which will be populated with book data
         booksList = findViewById(R.id.books_list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        booksList.setLayoutManager(layoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items
-        View emptyView = findViewById(R.id.empty_view);
-        booksList.setEmptyView(emptyView);
+        // Find the empty view, so that it only shows when the list has 0 items
+        mEmptyView = findViewById(R.id.empty_view);
 
         // Setup the Adapter to create a list item for every row of book data in the Cursor.
         // There is no book data yet until the Loader has finished so pass in null for the Cursor for now.
-        mCursorAdapter = new BookCursorAdapter(this, null);
+        mCursorAdapter = new BookCursorAdapter(null, this);
         booksList.setAdapter(mCursorAdapter);
 
-        // Setup item click listener
-        booksList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Load the next page of books when the user scrolls close to the end of the list
+        booksList.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                Intent intent = new Intent(MainActivity.this, EditorActivity.class);
-                Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
-                intent.setData(bookUri);
-                Log.i(LOG_TAG, bookUri.toString());
-                startActivity(intent);
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = layoutManager.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - BookPageLoader.PAGE_SIZE / 2) {
+                    Loader<Cursor> loader = getLoaderManager().getLoader(BOOK_LOADER);
+                    if (loader instanceof BookPageLoader) {
+                        ((BookPageLoader) loader).loadNextPage();
+                    }
+                }
             }
         });
 
+        // Sort the list the way the user left it
+        mSort = getPreferences(MODE_PRIVATE).getString(PREF_SORT, null);
+
+        // Listen to the changes of the books, so single rows can be patched in place
+        mChangeFeed = new BookChangeFeed(getContentResolver(), new Handler(), this);
+        mChangeFeed.register();
+
         // Prepare the loader. Either re-connect with an existing one,
         // or start a new one.
         getLoaderManager().initLoader(BOOK_LOADER, null, this);
     }
 
+    @Override
+    protected void onDestroy() {
+        mChangeFeed.unregister();
+        super.onDestroy();
+    }
+
+    /**
+     * Called when only some books changed. The rows of these books are queried and
+     * patched in the list, instead of running the whole list query again.
+     */
+    @Override
+    public void onBooksChanged(Set<Long> bookIds) {
+        Loader<Cursor> loader = getLoaderManager().getLoader(BOOK_LOADER);
+        if (!(loader instanceof BookPageLoader)) {
+            // The search results are reloaded by their own CursorLoader
+            return;
+        }
+        // In a sorted list a changed book can move, so the loaded rows are reloaded;
+        // the provider reads them in a single query from the index of the sort order
+        if (bookIds.size() > MAX_PATCHED_BOOKS || !((BookPageLoader) loader).isSortedById()) {
+            reloadBooks();
+            return;
+        }
+        new PatchBooksTask(this).execute(bookIds);
+    }
+
+    /**
+     * Called when the change can't be narrowed down to single books, so the list is reloaded.
+     */
+    @Override
+    public void onAllBooksChanged() {
+        reloadBooks();
+    }
+
+    /**
+     * Reload all the books that are loaded in the list.
+     */
+    private void reloadBooks() {
+        Loader<Cursor> loader = getLoaderManager().getLoader(BOOK_LOADER);
+        if (loader instanceof BookPageLoader) {
+            mReloadRequested = true;
+            loader.onContentChanged();
+        }
+    }
+
+    /**
+     * Patch the list with the rows that were queried for the changed books.
+     * Books that were deleted, or inserted in the part of the list that is already loaded,
+     * can't be patched, so the list is reloaded for them.
+     */
+    private void onChangedBooksLoaded(Set<Long> bookIds, Cursor cursor) {
+        Loader<Cursor> loader = getLoaderManager().getLoader(BOOK_LOADER);
+        if (!(loader instanceof BookPageLoader) || isFinishing()) {
+            return;
+        }
+        BookPageLoader pageLoader = (BookPageLoader) loader;
+        boolean needsReload = false;
+        Set<Long> missingIds = new HashSet<>(bookIds);
+
+        int idColumnIndex = cursor.getColumnIndexOrThrow(BookEntry._ID);
+        int productNameColumnIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_NAME);
+        int priceColumnIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRICE_CENTS);
+        int quantityColumnIndex = cursor.getColumnIndexOrThrow(BookEntry.COLUMN_QUANTITY);
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(idColumnIndex);
+            missingIds.remove(id);
+            boolean patched = mCursorAdapter.patchBook(id,
+                    cursor.getString(productNameColumnIndex),
+                    cursor.getLong(priceColumnIndex),
+                    cursor.getInt(quantityColumnIndex));
+            // A new book that belongs to the loaded part of the list
+            if (!patched && pageLoader.isInLoadedRange(id)) {
+                needsReload = true;
+            }
+        }
+        // A book that is shown in the list was deleted
+        for (long id : missingIds) {
+            if (mCursorAdapter.findPosition(id) != RecyclerView.NO_POSITION) {
+                needsReload = true;
+            }
+        }
+
+        if (needsReload) {
+            reloadBooks();
+        }
+    }
+
+    /**
+     * This method is used when the user clicks on a book in the list.
+     * It opens the editor for that book.
+     */
+    @Override
+    public void onBookClick(long id) {
+        Intent intent = new Intent(MainActivity.this, EditorActivity.class);
+        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
+        intent.setData(bookUri);
+        BookLog.d(LOG_TAG, "Opening {}", bookUri);
+        startActivity(intent);
+    }
+
     /**
      * This method is used when the user selects the SALE button.
      * Then the quantity of that product is reduced by one.
      */
-    public void decrement(View view) {
-
-        // Get the position of the product that the button was pressed for
-        int position = booksList.getPositionForView((View) view.getParent());
-        Log.i(LOG_TAG, "the id of the view: " + position);
-
-        // Prepare the URI for the book that we need to update
-        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, position + 1);
-        Log.i(LOG_TAG, "book URI: " + bookUri);
-
-        // Before we can update it, we need to obtain the current information about the selected book
-        if (mCursor.moveToPosition(position)) {
-
-            int productNameColumnIndex = mCursor.getColumnIndex(BookEntry.COLUMN_PRODUCT_NAME);
-            int priceColumnIndex = mCursor.getColumnIndex(BookEntry.COLUMN_PRICE);
-            int quantityColumnIndex = mCursor.getColumnIndex(BookEntry.COLUMN_QUANTITY);
-            int supplierNameColumnIndex = mCursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_NAME);
-            int supplierPhoneNumberColumnIndex = mCursor.getColumnIndex(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
-
-            // Extract out the value from the Cursor for the given column index
-            String productName = mCursor.getString(productNameColumnIndex);
-            float price = mCursor.getFloat(priceColumnIndex);
-            int quantity = mCursor.getInt(quantityColumnIndex);
-            String supplierName = mCursor.getString(supplierNameColumnIndex);
-            String supplierPhoneNumber = mCursor.getString(supplierPhoneNumberColumnIndex);
-
-            Log.i(LOG_TAG, "the quantity for the current book: " + String.valueOf(quantity));
-
-            // Reduce the quantity by one.
-            // Make sure no negative values are entered.
-            // If the quantity is already 0, notify the user.
-            if (quantity == 0) {
-                // Show message on the screen saying that the min number of books was reached
-                Toast.makeText(this, getString(R.string.min_number_books_message),
-                        Toast.LENGTH_SHORT).show();
-                return;
-            }
-            quantity--;
+    @Override
+    public void onSaleClick(long id) {
+        BookLog.d(LOG_TAG, "the id of the book: {}", id);
+
+        // Show the new quantity right away, the write happens in the background.
+        // If the quantity shown is already 0, notify the user.
+        if (!mCursorAdapter.addPendingQuantity(id, -1)) {
+            // Show message on the screen saying that the min number of books was reached
+            Toast.makeText(this, getString(R.string.min_number_books_message),
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
 
-            ContentValues values = new ContentValues();
-            values.put(BookEntry.COLUMN_PRODUCT_NAME, productName);
-            values.put(BookEntry.COLUMN_PRICE, price);
-            values.put(BookEntry.COLUMN_QUANTITY, quantity);
-            values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierName);
-            values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, supplierPhoneNumber);
-
-            int rowsUpdated = getContentResolver().update(bookUri, values, null, null);
-            if (rowsUpdated == 0) {
-                Toast.makeText(this,
-                        getResources().getString(R.string.book_not_updated),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this,
-                        getResources().getString(R.string.book_updated),
-                        Toast.LENGTH_SHORT).show();
+        // Let the provider reduce the quantity by one in a single statement.
+        // Quick taps on the same book are merged into one write.
+        // The provider refuses to go below 0, in which case no rows are updated.
+        final long bookId = id;
+        BookWriter.getInstance(this).adjustQuantity(id, -1, new BookWriter.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rowsUpdated) {
+                if (rowsUpdated == 0) {
+                    // Undo the quantity that was shown
+                    mCursorAdapter.revertPendingQuantity(bookId, -1);
+                    Toast.makeText(MainActivity.this,
+                            getResources().getString(R.string.book_not_updated),
+                            Toast.LENGTH_SHORT).show();
+                }
             }
-        }
+        });
     }
 
     @Override
@@ -149,9 +283,49 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         // Inflate the menu options from the res/menu/main_menu.xml file
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.main_menu, menu);
+
+        // Restart the loader with the new query every time the search text changes
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                Bundle args = new Bundle();
+                args.putString(ARG_SEARCH_QUERY, newText.trim());
+                getLoaderManager().restartLoader(BOOK_LOADER, args, MainActivity.this);
+                return true;
+            }
+        });
+
+        // Check the current sort order
+        for (int i = 0; i < SORT_ITEM_IDS.length; i++) {
+            if (TextUtils.equals(SORT_ORDERS[i], mSort)) {
+                menu.findItem(SORT_ITEM_IDS[i]).setChecked(true);
+            }
+        }
         return true;
     }
 
+    /**
+     * Sort the list in the given order, and remember it for the next time.
+     *
+     * @param sort represents one of the sort orders of {@link BookContract},
+     *             or null to sort by date added
+     */
+    private void setSortOrder(String sort) {
+        mSort = sort;
+        getPreferences(MODE_PRIVATE).edit().putString(PREF_SORT, sort).apply();
+        // The search results keep their own order, the list is sorted once the search ends
+        if (getLoaderManager().getLoader(BOOK_LOADER) instanceof BookPageLoader) {
+            getLoaderManager().restartLoader(BOOK_LOADER, null, this);
+        }
+    }
+
     /**
      * This method is used to insert some dummy data into the database table
      */
@@ -159,30 +333,37 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
         // Create some arrays that contain dummy data
         String[] product_names = {"Close to Home", "Small Change", "Gone With The Wind", "Where Rainbow Ends"};
-        double[] prices = {14.5, 7.99, 5.99, 10.5};
+        long[] pricesInCents = {1450, 799, 599, 1050};
         int[] quantities = {4, 15, 7, 21};
         String[] suppliers = {"BookExpres", "UNISA", "Red Pepper", "Bookshelf"};
         String[] suppliersPhoneNumbers = {"+407854561230", "+31654123456", "+40784222159", "+39765489124"};
 
         // Create some maps of values to be inserted in the database using the arrays
+        ContentValues[] books = new ContentValues[product_names.length];
         for (int i = 0; i < product_names.length; i++) {
             ContentValues values = new ContentValues();
             values.put(BookEntry.COLUMN_PRODUCT_NAME, product_names[i]);
-            // cast the double value to a float
-            float price = (float) prices[i];
-            values.put(BookEntry.COLUMN_PRICE, price);
+            values.put(BookEntry.COLUMN_PRICE_CENTS, pricesInCents[i]);
             values.put(BookEntry.COLUMN_QUANTITY, quantities[i]);
             values.put(BookEntry.COLUMN_SUPPLIER_NAME, suppliers[i]);
             values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, suppliersPhoneNumbers[i]);
-
-            getContentResolver().insert(BookEntry.CONTENT_URI, values);
+            books[i] = values;
         }
+
+        // Insert all the books in a single transaction, off the UI thread
+        BookWriter.getInstance(this).bulkInsert(BookEntry.CONTENT_URI, books, null);
     }
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // The user clicked on a menu option in the app bar overflow menu
-        // At the moment we only have the "Insert dummy data" menu option
+        for (int i = 0; i < SORT_ITEM_IDS.length; i++) {
+            if (item.getItemId() == SORT_ITEM_IDS[i]) {
+                item.setChecked(true);
+                setSortOrder(SORT_ORDERS[i]);
+                return true;
+            }
+        }
         switch (item.getItemId()) {
             case R.id.action_insert_dummy_data:
                 // Respond to a click on the "Insert dummy data" menu option
@@ -190,12 +371,33 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 return true;
             case R.id.action_delete_all_entries:
                 // Respond to a click on the "Delete all entries" menu option
-                getContentResolver().delete(BookEntry.CONTENT_URI, null, null);
+                BookWriter.getInstance(this).delete(BookEntry.CONTENT_URI, null);
+                return true;
+            case R.id.action_import_catalogue:
+                // Respond to a click on the "Import catalogue" menu option
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_IMPORT_CATALOGUE);
                 return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_CATALOGUE) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                Toast.makeText(this, getString(R.string.import_started),
+                        Toast.LENGTH_SHORT).show();
+                new ImportTask(this).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
+                        data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
     /**
      * This method created a Loader if one hasn't been created yet
      */
@@ -203,18 +405,18 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
 
         // Select the columns we're interested in
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_PRODUCT_NAME,
-                BookEntry.COLUMN_PRICE,
-                BookEntry.COLUMN_QUANTITY,
-                BookEntry.COLUMN_SUPPLIER_NAME,
-                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
-        };
+        String[] projection = LIST_PROJECTION;
+
+        // Use the full-text search when the user typed something in the search box,
+        // otherwise load the books page by page as the user scrolls, in the chosen order.
+        String query = bundle == null ? null : bundle.getString(ARG_SEARCH_QUERY);
+        if (query == null || query.isEmpty()) {
+            return new BookPageLoader(this, projection, mSort);
+        }
 
         return new CursorLoader(
                 this,           // Parent activity context.
-                BookEntry.CONTENT_URI,  // Table to query.
+                BookEntry.buildSearchUri(query),  // Search to query.
                 projection,             // Projection to return.
                 null,
                 null,
@@ -224,10 +426,15 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // The patched rows are part of a freshly reloaded cursor
+        if (mReloadRequested || !(loader instanceof BookPageLoader)) {
+            mReloadRequested = false;
+            mCursorAdapter.clearPatches();
+        }
         // Swap the new cursor in.
         // The framework will take care of closing the old cursor once we return.
-        mCursor = cursor;
         mCursorAdapter.swapCursor(cursor);
+        updateEmptyView();
     }
 
     @Override
@@ -235,6 +442,121 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         // This is called when the last Cursor provided to onLoadFinished()
         // above is about to be closed. We need to make sure we are no
         // longer using it.
+        mCursorAdapter.clearPatches();
         mCursorAdapter.swapCursor(null);
+        updateEmptyView();
+    }
+
+    /**
+     * Show the empty view only when the list has 0 items
+     */
+    private void updateEmptyView() {
+        boolean isEmpty = mCursorAdapter.getItemCount() == 0;
+        mEmptyView.setVisibility(isEmpty ? View.VISIBLE : View.GONE);
+        booksList.setVisibility(isEmpty ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Queries the rows of the changed books in the background.
+     */
+    private static class PatchBooksTask extends AsyncTask<Set<Long>, Void, Cursor> {
+
+        private final WeakReference<MainActivity> mActivity;
+        private final ContentResolver mContentResolver;
+        private Set<Long> mBookIds;
+
+        PatchBooksTask(MainActivity activity) {
+            mActivity = new WeakReference<>(activity);
+            mContentResolver = activity.getContentResolver();
+        }
+
+        @SafeVarargs
+        @Override
+        protected final Cursor doInBackground(Set<Long>... bookIds) {
+            mBookIds = bookIds[0];
+            StringBuilder selection = new StringBuilder(BookEntry._ID + " IN (");
+            String[] selectionArgs = new String[mBookIds.size()];
+            int i = 0;
+            for (long id : mBookIds) {
+                selection.append(i == 0 ? "?" : ",?");
+                selectionArgs[i++] = String.valueOf(id);
+            }
+            selection.append(')');
+            Cursor cursor = mContentResolver.query(BookEntry.CONTENT_URI, LIST_PROJECTION,
+                    selection.toString(), selectionArgs, null);
+            if (cursor != null) {
+                // Fill the cursor window on the background thread
+                cursor.getCount();
+            }
+            return cursor;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor cursor) {
+            if (cursor == null) {
+                return;
+            }
+            try {
+                MainActivity activity = mActivity.get();
+                if (activity != null) {
+                    activity.onChangedBooksLoaded(mBookIds, cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Imports a catalogue in the background and shows the outcome when it's done.
+     * An import that was interrupted resumes when the same catalogue is picked again.
+     */
+    private static class ImportTask extends AsyncTask<Uri, Void, BookImporter.Result> {
+
+        private final Context mContext;
+        private final ContentResolver mContentResolver;
+
+        ImportTask(MainActivity activity) {
+            mContext = activity.getApplicationContext();
+            mContentResolver = activity.getContentResolver();
+        }
+
+        @Override
+        protected BookImporter.Result doInBackground(Uri... uris) {
+            Uri uri = uris[0];
+            // The type of the document comes first, the name only helps when it's unknown
+            String type = mContentResolver.getType(uri);
+            String path = uri.getLastPathSegment();
+            BookImporter.Format format = (type != null && type.contains("json"))
+                    || (path != null && path.toLowerCase(Locale.ROOT).endsWith(".json"))
+                    ? BookImporter.Format.JSON : BookImporter.Format.CSV;
+            try {
+                InputStream in = mContentResolver.openInputStream(uri);
+                if (in == null) {
+                    return null;
+                }
+                return new BookImporter(mContext).importBooks(in, format, uri.toString(),
+                        new BookImporter.ProgressListener() {
+                            @Override
+                            public void onProgress(long recordsRead, long bytesRead) {
+                                BookLog.i(LOG_TAG, "Imported {} records", recordsRead);
+                            }
+                        });
+            } catch (IOException | RuntimeException e) {
+                BookLog.e(LOG_TAG, "Failed to import {}", uri, e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(BookImporter.Result result) {
+            if (result == null) {
+                Toast.makeText(mContext, mContext.getString(R.string.import_failed),
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(mContext, mContext.getString(R.string.import_finished,
+                        result.rowsImported, result.rowsSkipped), Toast.LENGTH_LONG).show();
+            }
+        }
     }
 }
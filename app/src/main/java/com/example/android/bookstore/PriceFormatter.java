@@ -0,0 +1,96 @@
+package com.example.android.bookstore;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * {@link PriceFormatter} writes prices and quantities into reusable character buffers,
+ * so the list can show them without allocating a String for every bound row.
+ */
+public final class PriceFormatter {
+
+    /**
+     * The length a buffer needs to hold any formatted value
+     */
+    public static final int MAX_LENGTH = 24;
+
+    private PriceFormatter() {
+    }
+
+    /**
+     * Write the price, given in cents, as "$12.34" at the start of the buffer.
+     *
+     * @return the number of characters written
+     */
+    public static int formatCents(long cents, char[] buffer) {
+        int length = 0;
+        if (cents < 0) {
+            buffer[length++] = '-';
+            cents = -cents;
+        }
+        buffer[length++] = '$';
+        return formatDecimal(cents, buffer, length);
+    }
+
+    /**
+     * Write the non-negative price, given in cents, as "12.34" into the buffer,
+     * starting at the given offset.
+     *
+     * @return the offset right after the last character written
+     */
+    public static int formatDecimal(long cents, char[] buffer, int offset) {
+        int length = formatInteger(cents / 100, buffer, offset);
+        long fraction = cents % 100;
+        buffer[length++] = '.';
+        buffer[length++] = (char) ('0' + fraction / 10);
+        buffer[length++] = (char) ('0' + fraction % 10);
+        return length;
+    }
+
+    /**
+     * Return the price, given in cents, as "12.34", to be shown in an editable field.
+     */
+    public static String toDecimalString(long cents) {
+        char[] buffer = new char[MAX_LENGTH];
+        int length = 0;
+        if (cents < 0) {
+            buffer[length++] = '-';
+            cents = -cents;
+        }
+        return new String(buffer, 0, formatDecimal(cents, buffer, length));
+    }
+
+    /**
+     * Parse a decimal price like "12.34" into cents, without going through a float.
+     * More than two decimals are rounded half up.
+     *
+     * @throws NumberFormatException if the text is not a decimal number
+     */
+    public static long parseCents(String text) {
+        try {
+            return new BigDecimal(text.trim()).setScale(2, RoundingMode.HALF_UP)
+                    .movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price out of range: " + text);
+        }
+    }
+
+    /**
+     * Write the non-negative value in decimal into the buffer, starting at the given offset.
+     *
+     * @return the offset right after the last character written
+     */
+    public static int formatInteger(long value, char[] buffer, int offset) {
+        // Count the digits first, so they can be written from right to left in place
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = offset + digits;
+        for (int i = end - 1; i >= offset; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
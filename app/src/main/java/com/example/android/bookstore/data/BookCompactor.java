@@ -0,0 +1,224 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.bookstore.BookLog;
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BookCompactor} purges the tombstones of the deleted books and gives the free pages
+ * of the database back to the file system, on a background thread.
+ * <p>
+ * The tombstones are deleted in chunks of {@link #PURGE_CHUNK_ROWS} rows, each in its own
+ * short transaction, walking the table by _ID so every row is read once. Between two chunks
+ * the other writers get the database. The free pages are then released with incremental
+ * vacuum, {@link #VACUUM_CHUNK_PAGES} pages at a time.
+ * Incremental vacuum needs the auto_vacuum mode of the database, which can only be turned on
+ * by a full VACUUM: the first compaction of a database runs one, once.
+ * <p>
+ * A compaction is requested after every delete and runs {@link #COMPACTION_DELAY_MILLIS}
+ * later, so a burst of deletes is compacted only once.
+ * <p>
+ * Once the books are synced with the back office, a tombstone is only purged after its
+ * delete was pushed, so the back office learns about it.
+ */
+final class BookCompactor {
+
+    private static final String LOG_TAG = BookCompactor.class.getSimpleName();
+
+    /**
+     * The number of tombstones purged by a single transaction
+     */
+    static final int PURGE_CHUNK_ROWS = 500;
+
+    /**
+     * The number of free pages released by a single incremental vacuum
+     */
+    static final int VACUUM_CHUNK_PAGES = 128;
+
+    /**
+     * How long after a delete the compaction runs, in milliseconds
+     */
+    private static final long COMPACTION_DELAY_MILLIS = 10000;
+
+    /**
+     * The value of PRAGMA auto_vacuum in incremental mode
+     */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * The last _ID of the next chunk of tombstones after the given _ID,
+     * or null if there are no more tombstones.
+     */
+    private static final String SQL_NEXT_CHUNK_END = "SELECT MAX(" + BookEntry._ID + ") FROM"
+            + " (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry._ID + " > ? AND " + BookEntry.COLUMN_DELETED + " = 1"
+            + " AND " + BookEntry.COLUMN_CHANGE_SEQ + " <= ?"
+            + " ORDER BY " + BookEntry._ID + " LIMIT " + PURGE_CHUNK_ROWS + ")";
+
+    private static final String SQL_PURGE_CHUNK = "DELETE FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry._ID + " > ? AND " + BookEntry._ID + " <= ? AND "
+            + BookEntry.COLUMN_DELETED + " = 1 AND " + BookEntry.COLUMN_CHANGE_SEQ + " <= ?";
+
+    private final BookDbHelper mDbHelper;
+
+    /**
+     * Held while compacting, so the background compaction and the one requested through
+     * the provider don't run at the same time
+     */
+    private final Object mCompactionLock = new Object();
+
+    /**
+     * Created with the first request, so a provider that never deletes has no thread
+     */
+    private ScheduledExecutorService mExecutor;
+
+    /**
+     * True while a compaction is waiting to run. Guarded by this.
+     */
+    private boolean mScheduled;
+
+    BookCompactor(BookDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Compact the database in the background, unless a compaction is already waiting.
+     */
+    synchronized void requestCompaction() {
+        if (mScheduled) {
+            return;
+        }
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadScheduledExecutor();
+        }
+        mScheduled = true;
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BookCompactor.this) {
+                    mScheduled = false;
+                }
+                try {
+                    int rows = purgeTombstones();
+                    long pages = vacuum();
+                    BookLog.i(LOG_TAG, "Purged {} deleted books, freed {} pages", rows, pages);
+                } catch (RuntimeException e) {
+                    // The tombstones are purged by the next compaction
+                    BookLog.e(LOG_TAG, "Failed to compact {}", mDbHelper.getDatabaseName(), e);
+                }
+            }
+        }, COMPACTION_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background thread. A compaction that is waiting doesn't run.
+     */
+    synchronized void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+            mScheduled = false;
+        }
+    }
+
+    /**
+     * Delete all the tombstones that can be purged, one chunk per transaction.
+     *
+     * @return the number of books purged
+     */
+    int purgeTombstones() {
+        synchronized (mCompactionLock) {
+            return purgeTombstonesLocked();
+        }
+    }
+
+    private int purgeTombstonesLocked() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        SQLiteStatement nextChunkEnd = db.compileStatement(SQL_NEXT_CHUNK_END);
+        SQLiteStatement purgeChunk = db.compileStatement(SQL_PURGE_CHUNK);
+        int purged = 0;
+        try {
+            // The deletes that were not pushed yet are kept
+            String pushedSeq = BookDbHelper.getSyncState(db, BookDbHelper.SYNC_STATE_PUSHED_SEQ);
+            long lastChangeSeq = pushedSeq == null ? Long.MAX_VALUE : Long.parseLong(pushedSeq);
+            long lastId = 0;
+            while (true) {
+                int rows;
+                db.beginTransaction();
+                try {
+                    nextChunkEnd.bindLong(1, lastId);
+                    nextChunkEnd.bindLong(2, lastChangeSeq);
+                    String chunkEnd = nextChunkEnd.simpleQueryForString();
+                    if (chunkEnd == null) {
+                        db.setTransactionSuccessful();
+                        break;
+                    }
+                    long endId = Long.parseLong(chunkEnd);
+                    purgeChunk.bindLong(1, lastId);
+                    purgeChunk.bindLong(2, endId);
+                    purgeChunk.bindLong(3, lastChangeSeq);
+                    rows = purgeChunk.executeUpdateDelete();
+                    db.setTransactionSuccessful();
+                    lastId = endId;
+                } finally {
+                    db.endTransaction();
+                }
+                purged += rows;
+            }
+        } finally {
+            nextChunkEnd.close();
+            purgeChunk.close();
+        }
+        mDbHelper.checkpointAfterBatch(purged);
+        return purged;
+    }
+
+    /**
+     * Release the free pages of the database, a few at a time.
+     * The first time, turn on the incremental mode with a full VACUUM instead.
+     *
+     * @return the number of pages released
+     */
+    long vacuum() {
+        synchronized (mCompactionLock) {
+            return vacuumLocked();
+        }
+    }
+
+    private long vacuumLocked() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+            return freePages;
+        }
+        long released = 0;
+        while (freePages > 0) {
+            // Every page is released by a step of the pragma, getCount() runs all of them
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum("
+                    + Math.min(freePages, VACUUM_CHUNK_PAGES) + ")", null);
+            try {
+                cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+            long left = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            if (left >= freePages) {
+                break;
+            }
+            released += freePages - left;
+            freePages = left;
+        }
+        return released;
+    }
+}
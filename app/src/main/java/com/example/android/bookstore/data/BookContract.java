@@ -1,6 +1,7 @@
 package com.example.android.bookstore.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -27,6 +28,193 @@ public final class BookContract {
      */
     public static final String PATH_BOOKS = "books";
 
+    /**
+     * The path for the suppliers table.
+     * This will be appended to the base content URI.
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * The path for the quantity of a single book.
+     * This will be appended to the content URI of that book.
+     */
+    public static final String PATH_QUANTITY = "quantity";
+
+    /**
+     * The path for the full-text search over the books.
+     * This will be appended to the books content URI, followed by the search query.
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * The path for the export of all the books.
+     * This will be appended to the books content URI, followed by the export format.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /* The formats of an export, the last path segment of the export URI */
+    public static final String EXPORT_FORMAT_CSV = "csv";
+    public static final String EXPORT_FORMAT_NDJSON = "ndjson";
+
+    /**
+     * Query parameter of the export URI: when "true", the export is compressed with gzip.
+     */
+    public static final String QUERY_PARAMETER_GZIP = "gzip";
+
+    /**
+     * The path for the inventory value of the books.
+     * This will be appended to the books content URI.
+     */
+    public static final String PATH_INVENTORY_VALUE = "inventory_value";
+
+    /* The paths of the reports over the books, appended to the books content URI */
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_BY_SUPPLIER = "by_supplier";
+    public static final String PATH_LOW_STOCK = "low_stock";
+    public static final String PATH_PRICE_HISTOGRAM = "price_histogram";
+
+    /**
+     * Query parameter of the low stock URI: the books with a smaller quantity are returned.
+     */
+    public static final String QUERY_PARAMETER_THRESHOLD = "threshold";
+
+    /**
+     * Query parameter of the price histogram URI: the width of a bucket, in cents.
+     */
+    public static final String QUERY_PARAMETER_BUCKET = "bucket";
+
+    /**
+     * The path for the metrics of the provider, appended to the books content URI.
+     * The slow queries are under {@link #PATH_SLOW_QUERIES} below it.
+     */
+    public static final String PATH_METRICS = "_metrics";
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+
+    /**
+     * The path for the changes of the books, used by the delta sync.
+     * This will be appended to the books content URI.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Query parameter of the changes URI: only the changes with a greater
+     * {@link BookEntry#COLUMN_CHANGE_SEQ} are returned.
+     */
+    public static final String QUERY_PARAMETER_SINCE = "since";
+
+    /**
+     * Query parameter of the books URI: when "true", the deleted books are returned too,
+     * with {@link BookEntry#COLUMN_DELETED} set to 1, until they are purged.
+     */
+    public static final String QUERY_PARAMETER_INCLUDE_DELETED = "include_deleted";
+
+    /**
+     * Query parameter that limits the number of rows returned by a query.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter used to page through the books: only the books with a greater id
+     * are returned, sorted by id. Pass the id of the last book of the previous page.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter used with {@link #QUERY_PARAMETER_AFTER_ID} in a sort order: the values
+     * of the sort keys of the last book of the previous page, one parameter for every column
+     * of {@link BookEntry#getPageKeyColumns(String)}, in their order. The page then continues
+     * after these values, even if that book was deleted since. Without them, the provider
+     * reads the keys from the row of the book.
+     */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Query parameter of the books URI that sorts the books by one of the sort orders below,
+     * each read from its own index. It can be combined with {@link #QUERY_PARAMETER_AFTER_ID}:
+     * the page then continues after that book in the same order.
+     * Without it, the pages are sorted by id.
+     */
+    public static final String QUERY_PARAMETER_SORT = "sort";
+
+    /* The sort orders of the books, ties are sorted by id */
+    /* By title, ignoring the case and the accents */
+    public static final String SORT_TITLE = "title";
+    /* By price, the cheapest first */
+    public static final String SORT_PRICE = "price";
+    /* By quantity, the lowest first */
+    public static final String SORT_QUANTITY = "quantity";
+    /* By supplier name then title, the books without a supplier first */
+    public static final String SORT_SUPPLIER = "supplier";
+
+    /* The query parameters of the books URI that filter the books, see BookFilter */
+    /* The lowest and the highest price, in cents */
+    public static final String QUERY_PARAMETER_MIN_PRICE = "min_price";
+    public static final String QUERY_PARAMETER_MAX_PRICE = "max_price";
+    /* The books with a smaller quantity are returned */
+    public static final String QUERY_PARAMETER_QUANTITY_BELOW = "quantity_below";
+    /* The id of a supplier, repeated for every supplier of the set */
+    public static final String QUERY_PARAMETER_SUPPLIER_ID = "supplier_id";
+    /* The start of the product name, ignoring the case and the accents */
+    public static final String QUERY_PARAMETER_NAME_PREFIX = "name_prefix";
+
+    /**
+     * Name of the provider method that returns the counters of the book row cache,
+     * to be used with {@link ContentResolver#call(Uri, String, String, android.os.Bundle)}.
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+
+    /* Keys of the counters returned by METHOD_GET_CACHE_STATS */
+    public static final String CACHE_HIT_COUNT = "hit_count";
+    public static final String CACHE_MISS_COUNT = "miss_count";
+    public static final String CACHE_EVICTION_COUNT = "eviction_count";
+
+    /**
+     * Name of the provider method that sets the duration above which a query is logged
+     * as slow. The argument is the threshold in milliseconds.
+     */
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    /**
+     * Name of the provider method that clears the metrics and the slow queries.
+     */
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+    /**
+     * Name of the provider method that purges the deleted books and reclaims the free pages
+     * of the database right away, instead of waiting for the background compaction.
+     */
+    public static final String METHOD_COMPACT = "compact";
+
+    /* Keys of the counters returned by METHOD_COMPACT */
+    public static final String COMPACT_PURGED_ROWS = "purged_rows";
+    public static final String COMPACT_FREED_PAGES = "freed_pages";
+
+    /**
+     * Name of the provider method that returns the state of the delta sync:
+     * {@link #SYNC_PUSHED_SEQ} and {@link #SYNC_PULL_TOKEN}.
+     */
+    public static final String METHOD_GET_SYNC_STATE = "get_sync_state";
+
+    /**
+     * Name of the provider method that records that the back office stored the changes
+     * up to the change sequence given as the argument.
+     */
+    public static final String METHOD_ACKNOWLEDGE_PUSH = "acknowledge_push";
+
+    /**
+     * Name of the provider method that writes the changes received from the back office,
+     * given as a list of ContentValues under {@link #SYNC_CHANGES}, and stores the argument
+     * as the new {@link #SYNC_PULL_TOKEN}, in a single transaction.
+     * It returns the number of books that changed under {@link #SYNC_APPLIED_ROWS}.
+     */
+    public static final String METHOD_APPLY_CHANGES = "apply_changes";
+
+    /* Keys of the bundles of the sync methods */
+    public static final String SYNC_PUSHED_SEQ = "pushed_seq";
+    public static final String SYNC_PULL_TOKEN = "pull_token";
+    public static final String SYNC_CHANGES = "changes";
+    public static final String SYNC_APPLIED_ROWS = "applied_rows";
+
     /* Inner class that defines the table contents of the books table */
     public static final class BookEntry implements BaseColumns {
 
@@ -35,6 +223,73 @@ public final class BookContract {
          */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BOOKS);
 
+        /**
+         * The URI of the inventory value: a single row with {@link #COLUMN_BOOK_COUNT},
+         * {@link #COLUMN_TOTAL_QUANTITY} and {@link #COLUMN_INVENTORY_VALUE_CENTS} of the books
+         * that match the selection (all the books if there is none).
+         * uri: content://com.example.android.books/books/inventory_value
+         */
+        public static final Uri INVENTORY_VALUE_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_INVENTORY_VALUE);
+
+        /**
+         * The MIME type of the {@link #INVENTORY_VALUE_URI}.
+         */
+        public static final String INVENTORY_VALUE_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_INVENTORY_VALUE;
+
+        /**
+         * The URI of the totals of all the books: a single row with {@link #COLUMN_BOOK_COUNT},
+         * {@link #COLUMN_TOTAL_QUANTITY}, {@link #COLUMN_INVENTORY_VALUE_CENTS},
+         * {@link #COLUMN_OUT_OF_STOCK_COUNT} and {@link #COLUMN_LOW_STOCK_COUNT}.
+         * It is read from the summary table,
+         * so it doesn't depend on the number of books.
+         * uri: content://com.example.android.books/books/stats
+         */
+        public static final Uri STATS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS);
+
+        /**
+         * The URI of the same totals per supplier, one row per supplier that has books, with
+         * {@link #COLUMN_SUPPLIER_ID} and {@link #COLUMN_SUPPLIER_NAME} (both null for the
+         * books without a supplier). Also read from the summary table.
+         * uri: content://com.example.android.books/books/by_supplier
+         */
+        public static final Uri BY_SUPPLIER_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_BY_SUPPLIER);
+
+        /**
+         * The URI of the changes of the books, deleted books included, sorted by
+         * {@link #COLUMN_CHANGE_SEQ}. Use {@link #buildChangesUri(long, int)} to read the
+         * changes since a given one.
+         * uri: content://com.example.android.books/books/changes
+         */
+        public static final Uri CHANGES_URI = Uri.withAppendedPath(CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #STATS_URI}.
+         */
+        public static final String STATS_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * The MIME type of the {@link #BY_SUPPLIER_URI}.
+         */
+        public static final String BY_SUPPLIER_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_BY_SUPPLIER;
+
+        /**
+         * The MIME type of a price histogram.
+         */
+        public static final String PRICE_HISTOGRAM_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_PRICE_HISTOGRAM;
+
+        /**
+         * The low stock threshold used when the URI doesn't have one, and by the
+         * {@link #COLUMN_LOW_STOCK_COUNT} of the reports. The summary table counts the books
+         * below it, so changing it needs a migration that counts them again.
+         */
+        public static final int DEFAULT_LOW_STOCK_THRESHOLD = 5;
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of books.
          */
@@ -47,20 +302,355 @@ public final class BookContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BOOKS;
 
+        /* The MIME types of the exports */
+        public static final String EXPORT_CSV_TYPE = "text/csv";
+        public static final String EXPORT_NDJSON_TYPE = "application/x-ndjson";
+        public static final String EXPORT_GZIP_TYPE = "application/gzip";
+
         /* Table name */
         public final static String TABLE_NAME = "books";
+        /* Name of the view that joins every book that is not deleted with its supplier */
+        public final static String VIEW_NAME = "books_with_suppliers";
+        /* Name of the view that joins every book with its supplier, deleted or not */
+        public final static String ALL_VIEW_NAME = "all_books_with_suppliers";
+        /* Name of the full-text search table that indexes the books table */
+        public final static String FTS_TABLE_NAME = "books_fts";
+        /* Name of the summary table that triggers keep up to date, one row per supplier */
+        public final static String STATS_TABLE_NAME = "book_stats";
+        /* Name of the table that holds the state of the delta sync */
+        public final static String SYNC_STATE_TABLE_NAME = "sync_state";
         /* The string for the _id column */
         public final static String _ID = BaseColumns._ID;
         /* The string for the productName column */
         public final static String COLUMN_PRODUCT_NAME = "product_name";
-        /* The string for the price column */
-        public final static String COLUMN_PRICE = "price";
+        /* The string for the priceCents column, the price in cents */
+        public final static String COLUMN_PRICE_CENTS = "price_cents";
         /* The string for the quantity column */
         public final static String COLUMN_QUANTITY = "quantity";
-        /* The string for the supplierName column */
+        /* The string for the supplierId column, the _id of the supplier or null */
+        public final static String COLUMN_SUPPLIER_ID = "supplier_id";
+
+        /**
+         * The version of the book row. It starts at 1 and the provider increments it on
+         * every write of the row, so it can't be written by the callers.
+         */
+        public final static String COLUMN_VERSION = "version";
+
+        /**
+         * 1 if the book was deleted, 0 otherwise. A deleted book is kept as a tombstone,
+         * left out of every query, until it is purged in the background.
+         * It is set by the provider when the book is deleted.
+         */
+        public final static String COLUMN_DELETED = "deleted";
+
+        /**
+         * The number of the last change of the book row. Every insert, update or delete of
+         * a book gives it the next number of a single counter, so the numbers follow the
+         * order of the writes. It is set by the provider.
+         */
+        public final static String COLUMN_CHANGE_SEQ = "change_seq";
+
+        /**
+         * The id that names the book on every device and in the back office, unlike
+         * {@link #_ID} which is only known to this database. It is set by the provider.
+         */
+        public final static String COLUMN_SYNC_ID = "sync_id";
+
+        /**
+         * The key the book is sorted by title with: the product name in lower case,
+         * without accents. It is set by the provider.
+         */
+        public final static String COLUMN_TITLE_KEY = "title_key";
+
+        /**
+         * The sort key of the supplier of the book, copied from the suppliers table,
+         * or the empty string for none. It is set by the provider.
+         */
+        public final static String COLUMN_SUPPLIER_KEY = "supplier_key";
+
+        /**
+         * The name of the supplier of the book, joined from the suppliers table.
+         * It can be written with the book: the provider finds the supplier by name,
+         * or adds it, and stores its id in {@link #COLUMN_SUPPLIER_ID}.
+         */
+        public final static String COLUMN_SUPPLIER_NAME = SupplierEntry.COLUMN_SUPPLIER_NAME;
+
+        /**
+         * The phone number of the supplier of the book, joined from the suppliers table.
+         * Writing it with a book changes the phone number of the supplier.
+         */
+        public final static String COLUMN_SUPPLIER_PHONE_NUMBER =
+                SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER;
+
+        /* The columns of the inventory value */
+        public final static String COLUMN_BOOK_COUNT = "book_count";
+        public final static String COLUMN_TOTAL_QUANTITY = "total_quantity";
+        /* The sum of price_cents * quantity, computed exactly with integers */
+        public final static String COLUMN_INVENTORY_VALUE_CENTS = "inventory_value_cents";
+        /* The number of books with a quantity of 0 */
+        public final static String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+        /* The number of books with a quantity below the DEFAULT_LOW_STOCK_THRESHOLD */
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+        /* The lowest price of a bucket of the price histogram, in cents */
+        public final static String COLUMN_BUCKET_START_CENTS = "bucket_start_cents";
+
+        /**
+         * The column of a search result that holds the matching text,
+         * with the matched terms wrapped in &lt;b&gt; tags.
+         */
+        public final static String COLUMN_SNIPPET = "snippet";
+
+        /**
+         * The key of the signed amount to add to the quantity of a book,
+         * used with the URI returned by {@link #buildQuantityUri(long)}.
+         */
+        public final static String QUANTITY_DELTA = "quantity_delta";
+
+        /**
+         * The key of the {@link #COLUMN_VERSION} that the book must still have for an update
+         * of its URI to be applied. If another write changed the book since that version
+         * was read, nothing is written and the update returns 0 rows.
+         */
+        public final static String EXPECTED_VERSION = "expected_version";
+
+        /**
+         * Build the URI used to atomically change the quantity of the book with the given id.
+         * uri: content://com.example.android.books/books/#/quantity
+         */
+        public static Uri buildQuantityUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_QUANTITY).build();
+        }
+
+        /**
+         * Build the URI of the page of at most pageSize books that follows the book with
+         * the given id. Use -1 to get the first page.
+         * uri: content://com.example.android.books/books?after_id=#&limit=#
+         */
+        public static Uri buildPageUri(long afterId, int pageSize) {
+            return buildPageUri(null, afterId, pageSize);
+        }
+
+        /**
+         * Build the URI of the page of at most pageSize books that follows the book with
+         * the given id in the given sort order. Use -1 to get the first page.
+         * uri: content://com.example.android.books/books?sort=title&after_id=#&limit=#
+         *
+         * @param sort represents one of the sort orders like {@link #SORT_TITLE},
+         *             or null to sort by id
+         */
+        public static Uri buildPageUri(String sort, long afterId, int pageSize) {
+            Uri.Builder builder = CONTENT_URI.buildUpon();
+            if (sort != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+            }
+            return builder
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the page of at most pageSize books that follows the last book
+         * of the previous page in the given sort order, given by its id and by the values of
+         * its {@link #getPageKeyColumns(String)}.
+         * uri: content://com.example.android.books/books?sort=title&after_id=#&after_key=k&limit=#
+         */
+        public static Uri buildPageUri(String sort, long afterId, String[] afterKeys,
+                                       int pageSize) {
+            Uri.Builder builder = buildPageUri(sort, afterId, pageSize).buildUpon();
+            for (String afterKey : afterKeys) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Return the columns that the given sort order compares before the _ID.
+         * Their values in the last row of a page are the key of the next page.
+         *
+         * @param sort represents one of the sort orders like {@link #SORT_TITLE},
+         *             or null to sort by id
+         * @return the columns, or null if the sort order is unknown
+         */
+        public static String[] getPageKeyColumns(String sort) {
+            if (sort == null) {
+                return new String[0];
+            }
+            switch (sort) {
+                case SORT_TITLE:
+                    return new String[]{COLUMN_TITLE_KEY};
+                case SORT_PRICE:
+                    return new String[]{COLUMN_PRICE_CENTS};
+                case SORT_QUANTITY:
+                    return new String[]{COLUMN_QUANTITY};
+                case SORT_SUPPLIER:
+                    return new String[]{COLUMN_SUPPLIER_KEY, COLUMN_TITLE_KEY};
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Build the URI of at most limit changes that follow the change with the given
+         * {@link #COLUMN_CHANGE_SEQ}. Use 0 to get the first changes.
+         * uri: content://com.example.android.books/books/changes?since=#&limit=#
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            return CHANGES_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Build the URI used to search the books by title and supplier.
+         * uri: content://com.example.android.books/books/search/query
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
+        /**
+         * Build the URI of the books whose quantity is below the threshold,
+         * sorted by quantity. The number of books below the default threshold is kept
+         * in the reports, see {@link #COLUMN_LOW_STOCK_COUNT}; this URI reads the books
+         * through the quantity index, for any threshold.
+         * uri: content://com.example.android.books/books/low_stock?threshold=#
+         */
+        public static Uri buildLowStockUri(int threshold) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOW_STOCK)
+                    .appendQueryParameter(QUERY_PARAMETER_THRESHOLD, String.valueOf(threshold))
+                    .build();
+        }
+
+        /**
+         * Build the URI of the price histogram: one row per non-empty bucket of prices,
+         * with {@link #COLUMN_BUCKET_START_CENTS} and {@link #COLUMN_BOOK_COUNT},
+         * sorted by price.
+         * uri: content://com.example.android.books/books/price_histogram?bucket=#
+         *
+         * @param bucketCents represents the width of a bucket, in cents
+         */
+        public static Uri buildPriceHistogramUri(long bucketCents) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_PRICE_HISTOGRAM)
+                    .appendQueryParameter(QUERY_PARAMETER_BUCKET, String.valueOf(bucketCents))
+                    .build();
+        }
+
+        /**
+         * Build the URI of an export of all the books, to be read with
+         * {@link ContentResolver#openInputStream(Uri)}.
+         * uri: content://com.example.android.books/books/export/format?gzip=true
+         *
+         * @param format represents {@link #EXPORT_FORMAT_CSV} or {@link #EXPORT_FORMAT_NDJSON}
+         */
+        public static Uri buildExportUri(String format, boolean gzip) {
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(PATH_EXPORT).appendPath(format);
+            if (gzip) {
+                builder.appendQueryParameter(QUERY_PARAMETER_GZIP, "true");
+            }
+            return builder.build();
+        }
+    }
+
+    /* Inner class that defines the table contents of the suppliers table */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /**
+         * The full content URI for this class used to access the suppliers data in the provider
+         */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /* Table name */
+        public final static String TABLE_NAME = "suppliers";
+        /* The string for the _id column */
+        public final static String _ID = BaseColumns._ID;
+        /* The string for the supplierName column, unique */
         public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
         /* The string for the supplierPhoneNumber column */
         public final static String COLUMN_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
+        /* The key the books are sorted by supplier with, set by the provider from the name */
+        public final static String COLUMN_SORT_KEY = "sort_key";
+
+        /**
+         * Build the URI of the books of the supplier with the given id.
+         * uri: content://com.example.android.books/suppliers/#/books
+         */
+        public static Uri buildBooksUri(long supplierId) {
+            return ContentUris.withAppendedId(CONTENT_URI, supplierId).buildUpon()
+                    .appendPath(PATH_BOOKS).build();
+        }
     }
-}
 
+    /* Inner class that defines the columns of the metrics of the provider */
+    public static final class MetricsEntry {
+
+        private MetricsEntry() {
+        }
+
+        /**
+         * The URI of the metrics: one row per operation and URI pattern that was used.
+         * uri: content://com.example.android.books/books/_metrics
+         */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(BookEntry.CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The URI of the latest slow queries, the most recent first.
+         * uri: content://com.example.android.books/books/_metrics/slow_queries
+         */
+        public static final Uri SLOW_QUERIES_URI =
+                Uri.withAppendedPath(CONTENT_URI, PATH_SLOW_QUERIES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /**
+         * The MIME type of the {@link #SLOW_QUERIES_URI}.
+         */
+        public static final String SLOW_QUERIES_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        /* The operation: query, insert, bulk_insert, update, delete or apply_batch */
+        public final static String COLUMN_OPERATION = "operation";
+        /* The URI pattern, like "books/#", or "batch" for applyBatch */
+        public final static String COLUMN_URI_PATTERN = "uri_pattern";
+        public final static String COLUMN_CALL_COUNT = "call_count";
+        /* The number of calls that threw an exception */
+        public final static String COLUMN_ERROR_COUNT = "error_count";
+        /* The rows returned by the queries, or changed by the writes */
+        public final static String COLUMN_ROW_COUNT = "row_count";
+        /* The largest cursor returned by a query */
+        public final static String COLUMN_MAX_CURSOR_SIZE = "max_cursor_size";
+        public final static String COLUMN_TOTAL_MILLIS = "total_millis";
+        public final static String COLUMN_MAX_MILLIS = "max_millis";
+        /* The number of calls per latency bucket, like "1ms:10 2ms:3 ... >1000ms:0" */
+        public final static String COLUMN_LATENCY_HISTOGRAM = "latency_histogram";
+
+        /* The columns of a slow query */
+        public final static String COLUMN_URI = "uri";
+        public final static String COLUMN_SQL = "sql";
+        /* The output of EXPLAIN QUERY PLAN, one line per step */
+        public final static String COLUMN_QUERY_PLAN = "query_plan";
+        public final static String COLUMN_DURATION_MILLIS = "duration_millis";
+        /* When the query ran, in milliseconds since the epoch */
+        public final static String COLUMN_TIMESTAMP = "timestamp";
+    }
+}
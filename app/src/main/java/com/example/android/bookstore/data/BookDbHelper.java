@@ -1,11 +1,18 @@
 package com.example.android.bookstore.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.util.Log;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+import android.support.annotation.VisibleForTesting;
 
+import com.example.android.bookstore.BookLog;
 import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
 
 public class BookDbHelper extends SQLiteOpenHelper {
 
@@ -20,11 +27,135 @@ public class BookDbHelper extends SQLiteOpenHelper {
      * Database version. If we change the database schema,
      * we must increment the database version.
      * Always start from 1.
+     * Version 2 adds the indexes used by the list, name search, supplier and low stock queries.
+     * Version 3 adds the full-text search table.
+     * Version 4 moves the suppliers into their own table.
+     * Version 5 stores the price as an integer number of cents.
+     * Version 6 adds the summary table of the reports.
+     * Version 7 adds the version of the book rows.
+     * Version 8 keeps the deleted books as tombstones until they are purged.
+     * Version 9 adds the change sequence and the sync id used by the delta sync.
+     * Version 10 adds the sort keys and the indexes of the sort orders of the list.
+     * Version 11 adds the deleted flag to the supplier index, used by the book filters.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 11;
+
+    /**
+     * The first version of the database. {@link #onCreate(SQLiteDatabase)} creates this schema
+     * and then runs every migration, so new and upgraded databases end up identical.
+     */
+    private static final int FIRST_DATABASE_VERSION = 1;
+
+    /**
+     * Number of rows written by a single batch after which the write-ahead log is
+     * checkpointed, so it doesn't keep growing while readers keep it busy.
+     */
+    static final int CHECKPOINT_ROW_THRESHOLD = 1000;
+
+    /**
+     * The REAL price column of the versions before 5, replaced by the price in cents
+     */
+    private static final String LEGACY_COLUMN_PRICE = "price";
+
+    /* Index names */
+    static final String INDEX_PRODUCT_NAME = "books_product_name_idx";
+    static final String INDEX_SUPPLIER_NAME = "books_supplier_name_idx";
+    static final String INDEX_QUANTITY = "books_quantity_idx";
+    static final String INDEX_SUPPLIER_ID = "books_supplier_id_idx";
+    static final String INDEX_CHANGE_SEQ = "books_change_seq_idx";
+    static final String INDEX_SYNC_ID = "books_sync_id_idx";
+    static final String INDEX_TITLE_KEY = "books_title_key_idx";
+    static final String INDEX_PRICE = "books_price_idx";
+    static final String INDEX_SUPPLIER_KEY = "books_supplier_key_idx";
+
+    /* The columns of the sync state table, a value by name */
+    static final String SYNC_STATE_NAME = "name";
+    static final String SYNC_STATE_VALUE = "value";
+
+    /* The names of the values of the sync state table */
+    /* The last change sequence given to a book */
+    static final String SYNC_STATE_CHANGE_SEQ = "change_seq";
+    /* The change sequence of the last change stored by the back office */
+    static final String SYNC_STATE_PUSHED_SEQ = "pushed_seq";
+    /* The token of the last change received from the back office */
+    static final String SYNC_STATE_PULL_TOKEN = "pull_token";
 
     public BookDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Open the database stored in the given file instead of the default one.
+     */
+    @VisibleForTesting
+    BookDbHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        // With write-ahead logging the readers don't block behind a writer, and the
+        // framework keeps a pool of read connections next to the single write connection.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * This method is called when the database connection is being configured,
+     * before the tables are created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Deleting a supplier clears the supplier of its books
+        db.setForeignKeyConstraintsEnabled(true);
+        // In WAL mode, NORMAL is still safe against corruption and only syncs on checkpoints
+        db.execSQL("PRAGMA synchronous = NORMAL");
+    }
+
+    /**
+     * Checkpoint the write-ahead log after a large batch of writes.
+     * The checkpoint is PASSIVE, so it never waits for the readers that are still running.
+     *
+     * @param rowsWritten the number of rows the batch changed
+     */
+    void checkpointAfterBatch(int rowsWritten) {
+        if (rowsWritten < CHECKPOINT_ROW_THRESHOLD) {
+            return;
+        }
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // The checkpoint runs when the statement is stepped
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the value of the sync state with the given name, or null if it was never set.
+     */
+    static String getSyncState(SQLiteDatabase db, String name) {
+        return DatabaseUtils.stringForQuery(db, "SELECT (SELECT " + SYNC_STATE_VALUE
+                + " FROM " + BookEntry.SYNC_STATE_TABLE_NAME + " WHERE " + SYNC_STATE_NAME
+                + " = ?)", new String[]{name});
+    }
+
+    /**
+     * Set the value of the sync state with the given name.
+     */
+    static void putSyncState(SQLiteDatabase db, String name, String value) {
+        ContentValues values = new ContentValues();
+        values.put(SYNC_STATE_NAME, name);
+        values.put(SYNC_STATE_VALUE, value);
+        db.insertWithOnConflict(BookEntry.SYNC_STATE_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Set the value of the sync state with the given name to a number.
+     */
+    static void putSyncState(SQLiteDatabase db, String name, long value) {
+        ContentValues values = new ContentValues();
+        values.put(SYNC_STATE_NAME, name);
+        values.put(SYNC_STATE_VALUE, value);
+        db.insertWithOnConflict(BookEntry.SYNC_STATE_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
     }
 
     /**
@@ -37,22 +168,763 @@ public class BookDbHelper extends SQLiteOpenHelper {
         String SQL_CREATE_BOOKS_TABLE = "CREATE TABLE " + BookContract.BookEntry.TABLE_NAME + " ("
                 + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + BookEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
-                + BookEntry.COLUMN_PRICE + " REAL NOT NULL, "
+                + LEGACY_COLUMN_PRICE + " REAL NOT NULL, "
                 + BookEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
                 + BookEntry.COLUMN_SUPPLIER_NAME + " TEXT, "
                 + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT);";
 
-        Log.v(LOG_TAG, SQL_CREATE_BOOKS_TABLE);
+        BookLog.v(LOG_TAG, SQL_CREATE_BOOKS_TABLE);
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_BOOKS_TABLE);
+
+        // Bring the freshly created schema up to the current version
+        onUpgrade(db, FIRST_DATABASE_VERSION, DATABASE_VERSION);
     }
 
     /**
-     * This method is called when the database needs to be upgraded
+     * This method is called when the database needs to be upgraded.
+     * Every migration is applied in order, one version at a time.
+     * It already runs inside the transaction opened by {@link SQLiteOpenHelper}.
      */
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do here for now
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            BookLog.v(LOG_TAG, "Upgrading database to version {}", version);
+            switch (version) {
+                case 2:
+                    upgradeToVersion2(db);
+                    break;
+                case 3:
+                    upgradeToVersion3(db);
+                    break;
+                case 4:
+                    upgradeToVersion4(db);
+                    break;
+                case 5:
+                    upgradeToVersion5(db);
+                    break;
+                case 6:
+                    upgradeToVersion6(db);
+                    break;
+                case 7:
+                    upgradeToVersion7(db);
+                    break;
+                case 8:
+                    upgradeToVersion8(db);
+                    break;
+                case 9:
+                    upgradeToVersion9(db);
+                    break;
+                case 10:
+                    upgradeToVersion10(db);
+                    break;
+                case 11:
+                    upgradeToVersion11(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 2: add indexes for the most common lookups.
+     * The product name index also covers the columns shown in the list, and uses the NOCASE
+     * collation so that case-insensitive prefix searches (LIKE 'abc%') can use it.
+     */
+    private static void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PRODUCT_NAME + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE, "
+                + LEGACY_COLUMN_PRICE + ", "
+                + BookEntry.COLUMN_QUANTITY + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SUPPLIER_NAME + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + BookEntry.COLUMN_QUANTITY + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_QUANTITY + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_QUANTITY + ");");
+    }
+
+    /**
+     * Version 3: add a FTS4 table over the product and supplier names.
+     * It is an external content table, so the text is not stored twice: the triggers
+     * keep the index in sync with the books table and the existing rows are indexed once.
+     */
+    private static void upgradeToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + BookEntry.FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + BookEntry.TABLE_NAME + "\", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ");");
+
+        String ftsColumns = "docid, " + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME;
+        String newValues = "new." + BookEntry._ID + ", new." + BookEntry.COLUMN_PRODUCT_NAME
+                + ", new." + BookEntry.COLUMN_SUPPLIER_NAME;
+        String deleteOld = "DELETE FROM " + BookEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + BookEntry._ID + "; ";
+        String insertNew = "INSERT INTO " + BookEntry.FTS_TABLE_NAME + " (" + ftsColumns
+                + ") VALUES (" + newValues + "); ";
+
+        // The old text must be removed from the index before the row itself changes
+        db.execSQL("CREATE TRIGGER books_fts_before_update BEFORE UPDATE OF "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN " + deleteOld + "END;");
+        db.execSQL("CREATE TRIGGER books_fts_before_delete BEFORE DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + deleteOld + "END;");
+        db.execSQL("CREATE TRIGGER books_fts_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN " + insertNew + "END;");
+        db.execSQL("CREATE TRIGGER books_fts_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + insertNew + "END;");
+
+        // Index the books that already exist
+        db.execSQL("INSERT INTO " + BookEntry.FTS_TABLE_NAME + "(" + BookEntry.FTS_TABLE_NAME
+                + ") VALUES('rebuild');");
+    }
+
+    /**
+     * Version 4: move the suppliers into their own table, referenced by supplier_id.
+     * A supplier is identified by its name and keeps the last phone number stored with it.
+     * SQLite can't drop columns, so the books table is copied into a new one, keeping the ids.
+     * The search table now stores its own copy of the text, because the supplier name
+     * is no longer a column of the books table; triggers keep it in sync with both tables.
+     * The books are read together with their supplier through the books_with_suppliers view.
+     */
+    private static void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL UNIQUE, "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT);");
+        db.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") SELECT "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", (SELECT p."
+                + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " FROM " + BookEntry.TABLE_NAME
+                + " AS p WHERE p." + BookEntry.COLUMN_SUPPLIER_NAME + " = b."
+                + BookEntry.COLUMN_SUPPLIER_NAME + " AND p."
+                + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " <> ''"
+                + " ORDER BY p." + BookEntry._ID + " DESC LIMIT 1)"
+                + " FROM " + BookEntry.TABLE_NAME + " AS b WHERE b."
+                + BookEntry.COLUMN_SUPPLIER_NAME + " <> ''"
+                + " GROUP BY b." + BookEntry.COLUMN_SUPPLIER_NAME + ";");
+
+        // The old search table and its triggers read the columns that are going away
+        db.execSQL("DROP TABLE " + BookEntry.FTS_TABLE_NAME + ";");
+
+        db.execSQL("CREATE TABLE books_new ("
+                + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + BookEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + LEGACY_COLUMN_PRICE + " REAL NOT NULL, "
+                + BookEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + BookEntry.COLUMN_SUPPLIER_ID + " INTEGER REFERENCES "
+                + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ") ON DELETE SET NULL);");
+        db.execSQL("INSERT INTO books_new ("
+                + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + LEGACY_COLUMN_PRICE + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ") SELECT "
+                + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + LEGACY_COLUMN_PRICE + ", "
+                + BookEntry.COLUMN_QUANTITY + ", (SELECT s." + SupplierEntry._ID
+                + " FROM " + SupplierEntry.TABLE_NAME + " AS s WHERE s."
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " = " + BookEntry.TABLE_NAME + "."
+                + BookEntry.COLUMN_SUPPLIER_NAME + ") FROM " + BookEntry.TABLE_NAME + ";");
+        // Don't reuse the ids of the books that were deleted
+        db.execSQL("UPDATE sqlite_sequence SET seq = (SELECT seq FROM sqlite_sequence"
+                + " WHERE name = '" + BookEntry.TABLE_NAME + "') WHERE name = 'books_new';");
+        // The indexes of the old table are dropped with it
+        db.execSQL("DROP TABLE " + BookEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE books_new RENAME TO " + BookEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE INDEX " + INDEX_PRODUCT_NAME + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE, "
+                + LEGACY_COLUMN_PRICE + ", "
+                + BookEntry.COLUMN_QUANTITY + ");");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_ID + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + BookEntry.COLUMN_QUANTITY + ");");
+        db.execSQL("CREATE INDEX " + INDEX_QUANTITY + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_QUANTITY + ");");
+
+        db.execSQL("CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + LEGACY_COLUMN_PRICE + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ";");
+
+        db.execSQL("CREATE VIRTUAL TABLE " + BookEntry.FTS_TABLE_NAME + " USING fts4("
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ");");
+
+        String supplierName = "(SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM "
+                + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID + " = new."
+                + BookEntry.COLUMN_SUPPLIER_ID + ")";
+        db.execSQL("CREATE TRIGGER books_fts_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN INSERT INTO " + BookEntry.FTS_TABLE_NAME
+                + " (docid, " + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ") VALUES (new." + BookEntry._ID
+                + ", new." + BookEntry.COLUMN_PRODUCT_NAME + ", " + supplierName + "); END;");
+        // Also fired when deleting a supplier sets the supplier_id of its books to null
+        db.execSQL("CREATE TRIGGER books_fts_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_ID
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN UPDATE " + BookEntry.FTS_TABLE_NAME
+                + " SET " + BookEntry.COLUMN_PRODUCT_NAME + " = new."
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME + " = "
+                + supplierName + " WHERE docid = new." + BookEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER books_fts_after_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN DELETE FROM " + BookEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + BookEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER suppliers_fts_after_update AFTER UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME
+                + " BEGIN UPDATE " + BookEntry.FTS_TABLE_NAME + " SET "
+                + BookEntry.COLUMN_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " WHERE docid IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID
+                + "); END;");
+
+        // Index the books that already exist
+        db.execSQL("INSERT INTO " + BookEntry.FTS_TABLE_NAME + " (docid, "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME
+                + ") SELECT " + BookEntry._ID + ", " + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME + " FROM " + BookEntry.VIEW_NAME + ";");
+    }
+
+    /**
+     * Version 5: replace the REAL price with an integer number of cents, so prices are exact
+     * and the inventory value can be summed exactly. The books table is copied again,
+     * so the view, the indexes and the triggers that read it are created again too.
+     * The old prices were written from floats, so they are rounded to the nearest cent.
+     */
+    private static void upgradeToVersion5(SQLiteDatabase db) {
+        // They would stop the books table from being renamed
+        db.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+        db.execSQL("DROP TRIGGER suppliers_fts_after_update;");
+
+        db.execSQL("CREATE TABLE books_new ("
+                + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + BookEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + BookEntry.COLUMN_PRICE_CENTS + " INTEGER NOT NULL, "
+                + BookEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + BookEntry.COLUMN_SUPPLIER_ID + " INTEGER REFERENCES "
+                + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + ") ON DELETE SET NULL);");
+        db.execSQL("INSERT INTO books_new ("
+                + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ") SELECT "
+                + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + "CAST(ROUND(" + LEGACY_COLUMN_PRICE + " * 100) AS INTEGER), "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + " FROM " + BookEntry.TABLE_NAME + ";");
+        // Don't reuse the ids of the books that were deleted
+        db.execSQL("UPDATE sqlite_sequence SET seq = (SELECT seq FROM sqlite_sequence"
+                + " WHERE name = '" + BookEntry.TABLE_NAME + "') WHERE name = 'books_new';");
+        // The indexes and the triggers of the old table are dropped with it.
+        // The search table keeps its rows, the ids don't change.
+        db.execSQL("DROP TABLE " + BookEntry.TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE books_new RENAME TO " + BookEntry.TABLE_NAME + ";");
+
+        db.execSQL("CREATE INDEX " + INDEX_PRODUCT_NAME + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE, "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ");");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_ID + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + BookEntry.COLUMN_QUANTITY + ");");
+        db.execSQL("CREATE INDEX " + INDEX_QUANTITY + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_QUANTITY + ");");
+
+        db.execSQL("CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ";");
+
+        String supplierName = "(SELECT " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM "
+                + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID + " = new."
+                + BookEntry.COLUMN_SUPPLIER_ID + ")";
+        db.execSQL("CREATE TRIGGER books_fts_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN INSERT INTO " + BookEntry.FTS_TABLE_NAME
+                + " (docid, " + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ") VALUES (new." + BookEntry._ID
+                + ", new." + BookEntry.COLUMN_PRODUCT_NAME + ", " + supplierName + "); END;");
+        db.execSQL("CREATE TRIGGER books_fts_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_ID
+                + " ON " + BookEntry.TABLE_NAME + " BEGIN UPDATE " + BookEntry.FTS_TABLE_NAME
+                + " SET " + BookEntry.COLUMN_PRODUCT_NAME + " = new."
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_SUPPLIER_NAME + " = "
+                + supplierName + " WHERE docid = new." + BookEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER books_fts_after_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN DELETE FROM " + BookEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + BookEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER suppliers_fts_after_update AFTER UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME
+                + " BEGIN UPDATE " + BookEntry.FTS_TABLE_NAME + " SET "
+                + BookEntry.COLUMN_SUPPLIER_NAME + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " WHERE docid IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID
+                + "); END;");
+    }
+
+    /**
+     * Version 6: add the summary table read by the reports. It holds the totals of the books
+     * of every supplier, under the supplier id, or 0 for the books without a supplier.
+     * The low stock count uses the default threshold; other thresholds are counted by
+     * the low stock URI.
+     * Triggers on the books table keep it up to date in the same transaction as every write,
+     * including the updates made by the foreign key when a supplier is deleted.
+     */
+    private static void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + BookEntry.STATS_TABLE_NAME + " ("
+                + BookEntry.COLUMN_SUPPLIER_ID + " INTEGER PRIMARY KEY, "
+                + BookEntry.COLUMN_BOOK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_TOTAL_QUANTITY + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_INVENTORY_VALUE_CENTS + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + BookEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+
+        String insertNewRow = insertStatsRow("new");
+        String deleteEmptyOldRow = deleteEmptyStatsRow("old");
+        db.execSQL("CREATE TRIGGER book_stats_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + insertNewRow + " "
+                + updateStats("new", "+") + " END;");
+        db.execSQL("CREATE TRIGGER book_stats_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_PRICE_CENTS + ", " + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + " ON " + BookEntry.TABLE_NAME + " BEGIN "
+                + updateStats("old", "-") + " " + deleteEmptyOldRow + " " + insertNewRow + " "
+                + updateStats("new", "+") + " END;");
+        db.execSQL("CREATE TRIGGER book_stats_after_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + updateStats("old", "-") + " "
+                + deleteEmptyOldRow + " END;");
+
+        db.execSQL("INSERT INTO " + BookEntry.STATS_TABLE_NAME + " SELECT "
+                + "IFNULL(" + BookEntry.COLUMN_SUPPLIER_ID + ", 0), COUNT(*), "
+                + "SUM(" + BookEntry.COLUMN_QUANTITY + "), "
+                + "SUM(" + BookEntry.COLUMN_PRICE_CENTS + " * " + BookEntry.COLUMN_QUANTITY + "), "
+                + "SUM(" + BookEntry.COLUMN_QUANTITY + " = 0), "
+                + "SUM(" + BookEntry.COLUMN_QUANTITY + " < "
+                + BookEntry.DEFAULT_LOW_STOCK_THRESHOLD + ") FROM " + BookEntry.TABLE_NAME
+                + " GROUP BY 1;");
+    }
+
+    /**
+     * Version 7: add the version of every book, used to detect conflicting updates.
+     * The provider increments it in the statements it writes the books with; the trigger
+     * increments it after the other updates, like the one made by the foreign key when
+     * a supplier is deleted. It doesn't run when the statement already changed the version,
+     * so those updates write the row once.
+     */
+    private static void upgradeToVersion7(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 1;");
+        db.execSQL("CREATE TRIGGER books_version_after_update AFTER UPDATE ON "
+                + BookEntry.TABLE_NAME + " WHEN new." + BookEntry.COLUMN_VERSION + " = old."
+                + BookEntry.COLUMN_VERSION + " BEGIN UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_VERSION + " = old." + BookEntry.COLUMN_VERSION + " + 1 WHERE "
+                + BookEntry._ID + " = new." + BookEntry._ID + "; END;");
+
+        db.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+                + BookEntry.COLUMN_VERSION
+                + " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ";");
+    }
+
+    /**
+     * Version 8: a deleted book is only marked as deleted, so deleting doesn't free pages
+     * in the middle of the file one row at a time; BookCompactor purges the tombstones later,
+     * in small transactions. The books_with_suppliers view leaves them out, so every reader
+     * of the view only sees the books that are not deleted; the new all_books_with_suppliers
+     * view has them all. A book leaves the summary table and the search table when it is
+     * marked as deleted, and the updates of a tombstone, like the one made by the foreign
+     * key, don't change the summary anymore.
+     * The deleted flag is added to the product name index so it still covers the list.
+     */
+    private static void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0;");
+
+        db.execSQL("DROP INDEX " + INDEX_PRODUCT_NAME + ";");
+        db.execSQL("CREATE INDEX " + INDEX_PRODUCT_NAME + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE, "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_DELETED + ");");
+
+        db.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + BookEntry.ALL_VIEW_NAME + " AS SELECT "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+                + BookEntry.COLUMN_VERSION + ", "
+                + BookEntry.COLUMN_DELETED
+                + " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ";");
+        db.execSQL("CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT * FROM "
+                + BookEntry.ALL_VIEW_NAME + " WHERE " + BookEntry.COLUMN_DELETED + " = 0;");
+
+        String live = "old." + BookEntry.COLUMN_DELETED + " = 0";
+        String markedDeleted = live + " AND new." + BookEntry.COLUMN_DELETED + " = 1";
+        db.execSQL("DROP TRIGGER book_stats_after_update;");
+        db.execSQL("DROP TRIGGER book_stats_after_delete;");
+        db.execSQL("CREATE TRIGGER book_stats_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_PRICE_CENTS + ", " + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + " ON " + BookEntry.TABLE_NAME + " WHEN " + live
+                + " AND new." + BookEntry.COLUMN_DELETED + " = 0 BEGIN "
+                + updateStats("old", "-") + " " + deleteEmptyStatsRow("old") + " "
+                + insertStatsRow("new") + " " + updateStats("new", "+") + " END;");
+        db.execSQL("CREATE TRIGGER book_stats_after_soft_delete AFTER UPDATE OF "
+                + BookEntry.COLUMN_DELETED + " ON " + BookEntry.TABLE_NAME + " WHEN "
+                + markedDeleted + " BEGIN " + updateStats("old", "-") + " "
+                + deleteEmptyStatsRow("old") + " END;");
+        // Purging a tombstone doesn't change the summary, it was already removed from it
+        db.execSQL("CREATE TRIGGER book_stats_after_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " WHEN " + live + " BEGIN " + updateStats("old", "-")
+                + " " + deleteEmptyStatsRow("old") + " END;");
+
+        db.execSQL("CREATE TRIGGER books_fts_after_soft_delete AFTER UPDATE OF "
+                + BookEntry.COLUMN_DELETED + " ON " + BookEntry.TABLE_NAME + " WHEN "
+                + markedDeleted + " BEGIN DELETE FROM " + BookEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + BookEntry._ID + "; END;");
+    }
+
+    /**
+     * Version 9: track the changes of the books for the delta sync with the back office.
+     * Every insert and update of a book, including the delete that marks it, gives the row
+     * the next number of a counter kept in the sync state table, so the books changed since
+     * a sync are read from the change sequence index in the order they were written.
+     * The numbers are never reused, even when the newest tombstone is purged.
+     * Every book also gets a random sync id that names it on every device and in the back
+     * office. The trigger that increments the version is replaced by one that sets both
+     * the version and the change sequence with a single update of the row. A change of
+     * a supplier gives its books a new change sequence, so they are sent again with the
+     * new supplier, but not a new version: the version only follows the writes of the row.
+     */
+    private static void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_CHANGE_SEQ + " INTEGER NOT NULL DEFAULT 0;");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_SYNC_ID + " TEXT;");
+        db.execSQL("DROP TRIGGER books_version_after_update;");
+
+        // The existing books are numbered in the order they were added
+        String newSyncId = "lower(hex(randomblob(16)))";
+        db.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_CHANGE_SEQ
+                + " = " + BookEntry._ID + ", " + BookEntry.COLUMN_SYNC_ID + " = "
+                + newSyncId + ";");
+        db.execSQL("CREATE UNIQUE INDEX " + INDEX_SYNC_ID + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_SYNC_ID + ");");
+        db.execSQL("CREATE INDEX " + INDEX_CHANGE_SEQ + " ON " + BookEntry.TABLE_NAME
+                + " (" + BookEntry.COLUMN_CHANGE_SEQ + ");");
+
+        db.execSQL("CREATE TABLE " + BookEntry.SYNC_STATE_TABLE_NAME + " ("
+                + SYNC_STATE_NAME + " TEXT PRIMARY KEY, "
+                + SYNC_STATE_VALUE + ");");
+        db.execSQL("INSERT INTO " + BookEntry.SYNC_STATE_TABLE_NAME + " SELECT '"
+                + SYNC_STATE_CHANGE_SEQ + "', IFNULL(MAX(" + BookEntry._ID + "), 0) FROM "
+                + BookEntry.TABLE_NAME + ";");
+
+        String nextChangeSeq = "UPDATE " + BookEntry.SYNC_STATE_TABLE_NAME + " SET "
+                + SYNC_STATE_VALUE + " = " + SYNC_STATE_VALUE + " + 1 WHERE "
+                + SYNC_STATE_NAME + " = '" + SYNC_STATE_CHANGE_SEQ + "';";
+        String lastChangeSeq = "(SELECT " + SYNC_STATE_VALUE + " FROM "
+                + BookEntry.SYNC_STATE_TABLE_NAME + " WHERE " + SYNC_STATE_NAME + " = '"
+                + SYNC_STATE_CHANGE_SEQ + "')";
+        // A book inserted by the sync already has its sync id
+        db.execSQL("CREATE TRIGGER books_change_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + nextChangeSeq + " UPDATE "
+                + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_CHANGE_SEQ + " = "
+                + lastChangeSeq + ", " + BookEntry.COLUMN_SYNC_ID + " = IFNULL(new."
+                + BookEntry.COLUMN_SYNC_ID + ", " + newSyncId + ") WHERE " + BookEntry._ID
+                + " = new." + BookEntry._ID + "; END;");
+        // The update of the trigger changes the change sequence, so it doesn't run again
+        db.execSQL("CREATE TRIGGER books_change_after_update AFTER UPDATE ON "
+                + BookEntry.TABLE_NAME + " WHEN new." + BookEntry.COLUMN_CHANGE_SEQ + " = old."
+                + BookEntry.COLUMN_CHANGE_SEQ + " BEGIN " + nextChangeSeq + " UPDATE "
+                + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_VERSION + " = CASE WHEN new."
+                + BookEntry.COLUMN_VERSION + " = old." + BookEntry.COLUMN_VERSION + " THEN old."
+                + BookEntry.COLUMN_VERSION + " + 1 ELSE new." + BookEntry.COLUMN_VERSION
+                + " END, " + BookEntry.COLUMN_CHANGE_SEQ + " = " + lastChangeSeq + " WHERE "
+                + BookEntry._ID + " = new." + BookEntry._ID + "; END;");
+        // The books of a changed supplier are touched by setting their change sequence
+        // to -1, which gives them a new one without changing their version
+        db.execSQL("CREATE TRIGGER books_change_after_touch AFTER UPDATE OF "
+                + BookEntry.COLUMN_CHANGE_SEQ + " ON " + BookEntry.TABLE_NAME + " WHEN new."
+                + BookEntry.COLUMN_CHANGE_SEQ + " = -1 BEGIN " + nextChangeSeq + " UPDATE "
+                + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_CHANGE_SEQ + " = "
+                + lastChangeSeq + " WHERE " + BookEntry._ID + " = new." + BookEntry._ID
+                + "; END;");
+        db.execSQL("CREATE TRIGGER suppliers_change_after_update AFTER UPDATE ON "
+                + SupplierEntry.TABLE_NAME + " BEGIN UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_CHANGE_SEQ + " = -1 WHERE " + BookEntry.COLUMN_SUPPLIER_ID
+                + " = new." + SupplierEntry._ID + " AND " + BookEntry.COLUMN_DELETED
+                + " = 0; END;");
+
+        db.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+        db.execSQL("DROP VIEW " + BookEntry.ALL_VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + BookEntry.ALL_VIEW_NAME + " AS SELECT "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+                + BookEntry.COLUMN_VERSION + ", "
+                + BookEntry.COLUMN_DELETED + ", "
+                + BookEntry.COLUMN_CHANGE_SEQ + ", "
+                + BookEntry.COLUMN_SYNC_ID
+                + " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ";");
+        db.execSQL("CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT * FROM "
+                + BookEntry.ALL_VIEW_NAME + " WHERE " + BookEntry.COLUMN_DELETED + " = 0;");
+    }
+
+    /**
+     * Version 10: sort the list by title, price, quantity or supplier with an index scan
+     * instead of sorting the books in a temporary B-tree on every page.
+     * The titles and the supplier names are sorted by keys without case and accents,
+     * computed by {@link SortKeys} because SQLite can't strip the accents itself, and
+     * stored in their own columns. The books get a copy of the key of their supplier,
+     * kept by the change triggers, so the supplier order doesn't need the join.
+     * Every index starts with the deleted flag, so the books that are not deleted are
+     * a single range of it, and ends with the _ID that breaks the ties. The quantity index
+     * is replaced by one with the deleted flag, which the low stock query uses too.
+     * The change triggers now only run for the columns that are synced: filling the keys
+     * doesn't give the books a new version or change sequence.
+     */
+    private static void upgradeToVersion10(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER books_change_after_insert;");
+        db.execSQL("DROP TRIGGER books_change_after_update;");
+        db.execSQL("DROP TRIGGER suppliers_change_after_update;");
+
+        db.execSQL("ALTER TABLE " + SupplierEntry.TABLE_NAME + " ADD COLUMN "
+                + SupplierEntry.COLUMN_SORT_KEY + " TEXT NOT NULL DEFAULT '';");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_TITLE_KEY + " TEXT NOT NULL DEFAULT '';");
+        db.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_SUPPLIER_KEY + " TEXT NOT NULL DEFAULT '';");
+        fillSortKeys(db, SupplierEntry.TABLE_NAME, SupplierEntry.COLUMN_SUPPLIER_NAME,
+                SupplierEntry.COLUMN_SORT_KEY);
+        fillSortKeys(db, BookEntry.TABLE_NAME, BookEntry.COLUMN_PRODUCT_NAME,
+                BookEntry.COLUMN_TITLE_KEY);
+        db.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_SUPPLIER_KEY
+                + " = IFNULL((SELECT " + SupplierEntry.COLUMN_SORT_KEY + " FROM "
+                + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID + " = "
+                + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID + "), '');");
+
+        db.execSQL("DROP INDEX " + INDEX_QUANTITY + ";");
+        db.execSQL("CREATE INDEX " + INDEX_QUANTITY + " ON " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_DELETED + ", " + BookEntry.COLUMN_QUANTITY + ");");
+        db.execSQL("CREATE INDEX " + INDEX_TITLE_KEY + " ON " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_DELETED + ", " + BookEntry.COLUMN_TITLE_KEY + ");");
+        db.execSQL("CREATE INDEX " + INDEX_PRICE + " ON " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_DELETED + ", " + BookEntry.COLUMN_PRICE_CENTS + ");");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_KEY + " ON " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_DELETED + ", " + BookEntry.COLUMN_SUPPLIER_KEY + ", "
+                + BookEntry.COLUMN_TITLE_KEY + ");");
+
+        String supplierKey = "IFNULL((SELECT " + SupplierEntry.COLUMN_SORT_KEY + " FROM "
+                + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry._ID + " = new."
+                + BookEntry.COLUMN_SUPPLIER_ID + "), '')";
+        String newSyncId = "lower(hex(randomblob(16)))";
+        String nextChangeSeq = "UPDATE " + BookEntry.SYNC_STATE_TABLE_NAME + " SET "
+                + SYNC_STATE_VALUE + " = " + SYNC_STATE_VALUE + " + 1 WHERE "
+                + SYNC_STATE_NAME + " = '" + SYNC_STATE_CHANGE_SEQ + "';";
+        String lastChangeSeq = "(SELECT " + SYNC_STATE_VALUE + " FROM "
+                + BookEntry.SYNC_STATE_TABLE_NAME + " WHERE " + SYNC_STATE_NAME + " = '"
+                + SYNC_STATE_CHANGE_SEQ + "')";
+        db.execSQL("CREATE TRIGGER books_change_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN " + nextChangeSeq + " UPDATE "
+                + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_CHANGE_SEQ + " = "
+                + lastChangeSeq + ", " + BookEntry.COLUMN_SYNC_ID + " = IFNULL(new."
+                + BookEntry.COLUMN_SYNC_ID + ", " + newSyncId + "), "
+                + BookEntry.COLUMN_SUPPLIER_KEY + " = " + supplierKey + " WHERE "
+                + BookEntry._ID + " = new." + BookEntry._ID + "; END;");
+        // Also fired when deleting a supplier sets the supplier_id of its books to null
+        db.execSQL("CREATE TRIGGER books_change_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", " + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", " + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + BookEntry.COLUMN_VERSION + ", " + BookEntry.COLUMN_DELETED + ", "
+                + BookEntry.COLUMN_SYNC_ID + " ON " + BookEntry.TABLE_NAME + " WHEN new."
+                + BookEntry.COLUMN_CHANGE_SEQ + " = old." + BookEntry.COLUMN_CHANGE_SEQ
+                + " BEGIN " + nextChangeSeq + " UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_VERSION + " = CASE WHEN new." + BookEntry.COLUMN_VERSION
+                + " = old." + BookEntry.COLUMN_VERSION + " THEN old." + BookEntry.COLUMN_VERSION
+                + " + 1 ELSE new." + BookEntry.COLUMN_VERSION + " END, "
+                + BookEntry.COLUMN_CHANGE_SEQ + " = " + lastChangeSeq + ", "
+                + BookEntry.COLUMN_SUPPLIER_KEY + " = " + supplierKey + " WHERE "
+                + BookEntry._ID + " = new." + BookEntry._ID + "; END;");
+        // A renamed supplier moves its books, tombstones included, in the supplier order
+        db.execSQL("CREATE TRIGGER suppliers_change_after_update AFTER UPDATE ON "
+                + SupplierEntry.TABLE_NAME + " BEGIN UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_SUPPLIER_KEY + " = new." + SupplierEntry.COLUMN_SORT_KEY
+                + " WHERE " + BookEntry.COLUMN_SUPPLIER_ID + " = new." + SupplierEntry._ID
+                + " AND " + BookEntry.COLUMN_SUPPLIER_KEY + " <> new."
+                + SupplierEntry.COLUMN_SORT_KEY + "; UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_CHANGE_SEQ + " = -1 WHERE " + BookEntry.COLUMN_SUPPLIER_ID
+                + " = new." + SupplierEntry._ID + " AND " + BookEntry.COLUMN_DELETED
+                + " = 0; END;");
+
+        db.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+        db.execSQL("DROP VIEW " + BookEntry.ALL_VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + BookEntry.ALL_VIEW_NAME + " AS SELECT "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AS " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_PRICE_CENTS + ", "
+                + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_SUPPLIER_ID + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + BookEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " AS " + BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+                + BookEntry.COLUMN_VERSION + ", "
+                + BookEntry.COLUMN_DELETED + ", "
+                + BookEntry.COLUMN_CHANGE_SEQ + ", "
+                + BookEntry.COLUMN_SYNC_ID + ", "
+                + BookEntry.COLUMN_TITLE_KEY + ", "
+                + BookEntry.COLUMN_SUPPLIER_KEY
+                + " FROM " + BookEntry.TABLE_NAME + " LEFT JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID + " = "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + ";");
+        db.execSQL("CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT * FROM "
+                + BookEntry.ALL_VIEW_NAME + " WHERE " + BookEntry.COLUMN_DELETED + " = 0;");
+    }
+
+    /**
+     * Version 11: the supplier index gets the deleted flag after the supplier id, so the
+     * books of a set of suppliers that are not deleted are read as one range per supplier.
+     * Without it SQLite prefers any index that starts with the deleted flag and reads
+     * every book. The supplier id stays first for the foreign key of the suppliers.
+     */
+    private static void upgradeToVersion11(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX " + INDEX_SUPPLIER_ID + ";");
+        db.execSQL("CREATE INDEX " + INDEX_SUPPLIER_ID + " ON " + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_SUPPLIER_ID + ", " + BookEntry.COLUMN_DELETED + ", "
+                + BookEntry.COLUMN_QUANTITY + ");");
+    }
+
+    /**
+     * Set the sort key of every row of the table from its name, one row at a time.
+     */
+    private static void fillSortKeys(SQLiteDatabase db, String table, String nameColumn,
+                                     String keyColumn) {
+        SQLiteStatement update = db.compileStatement("UPDATE " + table + " SET " + keyColumn
+                + " = ? WHERE " + BaseColumns._ID + " = ?");
+        Cursor cursor = db.query(table, new String[]{BaseColumns._ID, nameColumn}, null, null,
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                update.bindString(1, SortKeys.normalize(cursor.getString(1)));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+    }
+
+    /**
+     * Return the statement that adds the summary row of the book, given as "new" or "old"
+     * in a trigger, if it doesn't exist yet.
+     * INSERT OR IGNORE would fail when the trigger is run by a foreign key action.
+     */
+    private static String insertStatsRow(String row) {
+        return "INSERT INTO " + BookEntry.STATS_TABLE_NAME + " ("
+                + BookEntry.COLUMN_SUPPLIER_ID + ") SELECT " + statsKey(row)
+                + " WHERE NOT EXISTS (SELECT 1 FROM " + BookEntry.STATS_TABLE_NAME + " WHERE "
+                + BookEntry.COLUMN_SUPPLIER_ID + " = " + statsKey(row) + ");";
+    }
+
+    /**
+     * Return the statement that deletes the summary row of the book, given as "new" or "old"
+     * in a trigger, if it doesn't count any book anymore.
+     */
+    private static String deleteEmptyStatsRow(String row) {
+        return "DELETE FROM " + BookEntry.STATS_TABLE_NAME + " WHERE "
+                + BookEntry.COLUMN_SUPPLIER_ID + " = " + statsKey(row) + " AND "
+                + BookEntry.COLUMN_BOOK_COUNT + " = 0;";
+    }
+
+    /**
+     * Return the key of the summary row of the book, given as "new" or "old" in a trigger.
+     */
+    private static String statsKey(String row) {
+        return "IFNULL(" + row + "." + BookEntry.COLUMN_SUPPLIER_ID + ", 0)";
+    }
+
+    /**
+     * Return the statement that adds ("+") or removes ("-") the book, given as "new" or "old"
+     * in a trigger, to or from its summary row.
+     */
+    private static String updateStats(String row, String sign) {
+        return "UPDATE " + BookEntry.STATS_TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_COUNT + " = " + BookEntry.COLUMN_BOOK_COUNT + " "
+                + sign + " 1, "
+                + BookEntry.COLUMN_TOTAL_QUANTITY + " = " + BookEntry.COLUMN_TOTAL_QUANTITY + " "
+                + sign + " " + row + "." + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_INVENTORY_VALUE_CENTS + " = "
+                + BookEntry.COLUMN_INVENTORY_VALUE_CENTS + " " + sign + " "
+                + row + "." + BookEntry.COLUMN_PRICE_CENTS + " * "
+                + row + "." + BookEntry.COLUMN_QUANTITY + ", "
+                + BookEntry.COLUMN_OUT_OF_STOCK_COUNT + " = "
+                + BookEntry.COLUMN_OUT_OF_STOCK_COUNT + " " + sign + " ("
+                + row + "." + BookEntry.COLUMN_QUANTITY + " = 0), "
+                + BookEntry.COLUMN_LOW_STOCK_COUNT + " = "
+                + BookEntry.COLUMN_LOW_STOCK_COUNT + " " + sign + " ("
+                + row + "." + BookEntry.COLUMN_QUANTITY + " < "
+                + BookEntry.DEFAULT_LOW_STOCK_THRESHOLD + ") WHERE "
+                + BookEntry.COLUMN_SUPPLIER_ID + " = " + statsKey(row) + ";";
     }
 }
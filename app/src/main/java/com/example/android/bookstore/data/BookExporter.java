@@ -0,0 +1,332 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.example.android.bookstore.BookLog;
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link BookExporter} writes all the books as CSV or NDJSON (one JSON object per line),
+ * optionally compressed with gzip. {@link BookProvider} uses it to stream an export
+ * through a pipe.
+ * <p>
+ * The books are read in pages of {@link #PAGE_SIZE} rows sorted by _ID, each page starting
+ * after the last id of the previous one, and every row is encoded into a fixed size
+ * buffer that is written to the channel when it is full. The memory used doesn't depend
+ * on the number of books. The pages are separate queries, so the export is not a snapshot:
+ * a book changed during the export is written with the values it had when its page was read.
+ * <p>
+ * The CSV export uses the header and quoting that {@link BookImporter} reads.
+ * The prices are written as whole numbers of cents, so they are exact.
+ */
+final class BookExporter implements ContentProvider.PipeDataWriter<String> {
+
+    private static final String LOG_TAG = BookExporter.class.getSimpleName();
+
+    /**
+     * The number of rows read by a single query
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * The size of the output buffer, in bytes
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The exported columns, in the order in which they are written
+     */
+    private static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRICE_CENTS,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+    };
+
+    private final BookDbHelper mDbHelper;
+
+    BookExporter(BookDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Return the MIME type of the export in the given format.
+     */
+    static String getType(String format, boolean gzip) {
+        if (gzip) {
+            return BookEntry.EXPORT_GZIP_TYPE;
+        }
+        return BookContract.EXPORT_FORMAT_NDJSON.equals(format)
+                ? BookEntry.EXPORT_NDJSON_TYPE : BookEntry.EXPORT_CSV_TYPE;
+    }
+
+    /**
+     * Return true if the format is one of the supported export formats.
+     */
+    static boolean isSupportedFormat(String format) {
+        return BookContract.EXPORT_FORMAT_CSV.equals(format)
+                || BookContract.EXPORT_FORMAT_NDJSON.equals(format);
+    }
+
+    /**
+     * Write the export requested by the URI into the write side of the pipe.
+     * Called by {@link ContentProvider#openPipeHelper} on a background thread,
+     * which closes the pipe when this returns.
+     */
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, String format) {
+        boolean gzip = Boolean.parseBoolean(
+                uri.getQueryParameter(BookContract.QUERY_PARAMETER_GZIP));
+        // The stream is not closed here, the pipe is closed by the caller
+        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+        try {
+            export(out.getChannel(), format, gzip);
+        } catch (IOException e) {
+            // Most likely the reader closed its side of the pipe before the end
+            BookLog.w(LOG_TAG, "The export of {} was interrupted", uri, e);
+        }
+    }
+
+    /**
+     * Write all the books to the channel. The channel is not closed.
+     *
+     * @return the number of books written
+     */
+    long export(WritableByteChannel channel, String format, boolean gzip) throws IOException {
+        GZIPOutputStream gzipOut = null;
+        if (gzip) {
+            gzipOut = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            channel = Channels.newChannel(gzipOut);
+        }
+        boolean csv = !BookContract.EXPORT_FORMAT_NDJSON.equals(format);
+        TextWriter writer = new TextWriter(channel);
+        if (csv) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (i > 0) {
+                    writer.append(',');
+                }
+                writer.append(COLUMNS[i]);
+            }
+            writer.append('\n');
+        }
+
+        long rows = 0;
+        long lastId = -1;
+        String[] selectionArgs = new String[1];
+        String limit = String.valueOf(PAGE_SIZE);
+        while (true) {
+            selectionArgs[0] = String.valueOf(lastId);
+            Cursor cursor = mDbHelper.getReadableDatabase().query(BookEntry.VIEW_NAME, COLUMNS,
+                    BookEntry._ID + ">?", selectionArgs, null, null, BookEntry._ID, limit);
+            int pageRows = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    if (csv) {
+                        writeCsvRow(writer, cursor);
+                    } else {
+                        writeJsonRow(writer, cursor);
+                    }
+                    pageRows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            rows += pageRows;
+            if (pageRows < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        writer.finish();
+        if (gzipOut != null) {
+            // Write the gzip trailer without closing the channel below it
+            gzipOut.finish();
+            gzipOut.flush();
+        }
+        return rows;
+    }
+
+    private static void writeCsvRow(TextWriter writer, Cursor cursor) throws IOException {
+        writer.append(cursor.getLong(0));
+        writer.append(',');
+        writeCsvText(writer, cursor.getString(1));
+        writer.append(',');
+        writer.append(cursor.getLong(2));
+        writer.append(',');
+        writer.append(cursor.getLong(3));
+        writer.append(',');
+        writeCsvText(writer, cursor.getString(4));
+        writer.append(',');
+        writeCsvText(writer, cursor.getString(5));
+        writer.append('\n');
+    }
+
+    /**
+     * Write a CSV field, quoted if it contains a separator, a quote or a line break.
+     * A null value is written as an empty field.
+     */
+    private static void writeCsvText(TextWriter writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.append(value);
+            return;
+        }
+        writer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.append('"');
+            }
+            writer.append(c);
+        }
+        writer.append('"');
+    }
+
+    private static void writeJsonRow(TextWriter writer, Cursor cursor) throws IOException {
+        writer.append('{');
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.append(',');
+            }
+            writer.append('"');
+            writer.append(COLUMNS[i]);
+            writer.append("\":");
+            if (cursor.isNull(i)) {
+                writer.append("null");
+            } else if (i == 0 || i == 2 || i == 3) {
+                writer.append(cursor.getLong(i));
+            } else {
+                writeJsonString(writer, cursor.getString(i));
+            }
+        }
+        writer.append("}\n");
+    }
+
+    private static void writeJsonString(TextWriter writer, String value) throws IOException {
+        writer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.append("\\\"");
+                    break;
+                case '\\':
+                    writer.append("\\\\");
+                    break;
+                case '\n':
+                    writer.append("\\n");
+                    break;
+                case '\r':
+                    writer.append("\\r");
+                    break;
+                case '\t':
+                    writer.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.append("\\u00");
+                        writer.append(Character.forDigit(c >> 4, 16));
+                        writer.append(Character.forDigit(c & 0xf, 16));
+                    } else {
+                        writer.append(c);
+                    }
+                    break;
+            }
+        }
+        writer.append('"');
+    }
+
+    /**
+     * Encodes text as UTF-8 into a fixed size buffer, which is written to the channel
+     * every time it is full.
+     */
+    private static final class TextWriter {
+
+        private final WritableByteChannel mChannel;
+        private final CharsetEncoder mEncoder = Charset.forName("UTF-8").newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer mChars = CharBuffer.allocate(BUFFER_SIZE / 4);
+        private final ByteBuffer mBytes = ByteBuffer.allocate(BUFFER_SIZE);
+        /* Used to format the numbers without creating strings */
+        private final StringBuilder mNumber = new StringBuilder(24);
+
+        TextWriter(WritableByteChannel channel) {
+            mChannel = channel;
+        }
+
+        void append(char c) throws IOException {
+            if (!mChars.hasRemaining()) {
+                encode(false);
+            }
+            mChars.put(c);
+        }
+
+        void append(CharSequence text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                append(text.charAt(i));
+            }
+        }
+
+        void append(long value) throws IOException {
+            mNumber.setLength(0);
+            mNumber.append(value);
+            append(mNumber);
+        }
+
+        /**
+         * Encode and write everything that was appended.
+         */
+        void finish() throws IOException {
+            encode(true);
+            while (mEncoder.flush(mBytes) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            drain();
+        }
+
+        private void encode(boolean endOfInput) throws IOException {
+            mChars.flip();
+            while (mEncoder.encode(mChars, mBytes, endOfInput) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            // Keeps a high surrogate whose low surrogate wasn't appended yet
+            mChars.compact();
+        }
+
+        private void drain() throws IOException {
+            mBytes.flip();
+            while (mBytes.hasRemaining()) {
+                mChannel.write(mBytes);
+            }
+            mBytes.clear();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.android.bookstore.data;
+
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * {@link BookFilter} selects the books by price, quantity, supplier and name,
+ * without writing SQL. A filter is sent to the provider as query parameters of the books
+ * URI, see {@link #applyTo(Uri)}, and the provider compiles it to a selection.
+ * <p>
+ * The selection only depends on which conditions are set, never on the order they were set
+ * in nor on their values, which are all bound as arguments. The same filter always gives
+ * the same SQL, so SQLite finds the statement in the cache of the connection instead of
+ * compiling it again. Each condition is written so that an index can read it as a range:
+ * <ul>
+ * <li>the price range with BETWEEN on {@link BookDbHelper#INDEX_PRICE}</li>
+ * <li>the quantity with &lt; on {@link BookDbHelper#INDEX_QUANTITY}</li>
+ * <li>the suppliers with IN on {@link BookDbHelper#INDEX_SUPPLIER_ID}</li>
+ * <li>the name prefix as a range of the title keys on {@link BookDbHelper#INDEX_TITLE_KEY},
+ * which a LIKE couldn't use</li>
+ * </ul>
+ */
+public final class BookFilter {
+
+    /**
+     * The largest number of suppliers of a filter. With the padding of the IN list,
+     * the arguments stay well below the 999 variables that SQLite allows in a statement.
+     */
+    public static final int MAX_SUPPLIERS = 256;
+
+    /* The lowest and the highest price, or null for no bound */
+    private Long mMinPriceCents;
+    private Long mMaxPriceCents;
+    /* The quantity the books are below, or null for any quantity */
+    private Integer mQuantityBelow;
+    /* The ids of the suppliers of the books, sorted, or empty for any supplier */
+    private final TreeSet<Long> mSupplierIds = new TreeSet<>();
+    /* The title key that the title keys of the books start with, or null for any name */
+    private String mNamePrefixKey;
+
+    /**
+     * Only return the books that cost at least the given price.
+     */
+    public BookFilter priceAtLeast(long priceCents) {
+        mMinPriceCents = priceCents;
+        return this;
+    }
+
+    /**
+     * Only return the books that cost at most the given price.
+     */
+    public BookFilter priceAtMost(long priceCents) {
+        mMaxPriceCents = priceCents;
+        return this;
+    }
+
+    /**
+     * Only return the books with a smaller quantity than the threshold.
+     */
+    public BookFilter quantityBelow(int threshold) {
+        mQuantityBelow = threshold;
+        return this;
+    }
+
+    /**
+     * Only return the books of one of the given suppliers. Calling it again adds suppliers
+     * to the set.
+     */
+    public BookFilter supplierIn(long... supplierIds) {
+        if (supplierIds.length == 0) {
+            throw new IllegalArgumentException("Filter requires at least one supplier");
+        }
+        for (long supplierId : supplierIds) {
+            mSupplierIds.add(supplierId);
+        }
+        if (mSupplierIds.size() > MAX_SUPPLIERS) {
+            throw new IllegalArgumentException("Filter can't have more than " + MAX_SUPPLIERS
+                    + " suppliers");
+        }
+        return this;
+    }
+
+    /**
+     * Only return the books whose name starts with the given prefix, ignoring the case
+     * and the accents like the title sort order. An empty prefix returns every book.
+     */
+    public BookFilter nameStartsWith(String prefix) {
+        String key = SortKeys.normalizePrefix(prefix);
+        mNamePrefixKey = key.isEmpty() ? null : key;
+        return this;
+    }
+
+    /**
+     * Return true if the filter returns every book.
+     */
+    public boolean isEmpty() {
+        return mMinPriceCents == null && mMaxPriceCents == null && mQuantityBelow == null
+                && mSupplierIds.isEmpty() && mNamePrefixKey == null;
+    }
+
+    /**
+     * Return the given books URI with the query parameters of the filter,
+     * for example the URI of a page from {@link BookEntry#buildPageUri(String, long, int)}.
+     * uri: content://com.example.android.books/books?min_price=#&supplier_id=#&supplier_id=#
+     */
+    public Uri applyTo(Uri uri) {
+        Uri.Builder builder = uri.buildUpon();
+        if (mMinPriceCents != null) {
+            builder.appendQueryParameter(BookContract.QUERY_PARAMETER_MIN_PRICE,
+                    String.valueOf(mMinPriceCents));
+        }
+        if (mMaxPriceCents != null) {
+            builder.appendQueryParameter(BookContract.QUERY_PARAMETER_MAX_PRICE,
+                    String.valueOf(mMaxPriceCents));
+        }
+        if (mQuantityBelow != null) {
+            builder.appendQueryParameter(BookContract.QUERY_PARAMETER_QUANTITY_BELOW,
+                    String.valueOf(mQuantityBelow));
+        }
+        for (long supplierId : mSupplierIds) {
+            builder.appendQueryParameter(BookContract.QUERY_PARAMETER_SUPPLIER_ID,
+                    String.valueOf(supplierId));
+        }
+        if (mNamePrefixKey != null) {
+            // The key of the prefix is the prefix of its key, so it can be sent as is
+            builder.appendQueryParameter(BookContract.QUERY_PARAMETER_NAME_PREFIX,
+                    mNamePrefixKey);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Read the filter from the query parameters of the given books URI.
+     * An invalid number throws an {@link IllegalArgumentException}.
+     */
+    static BookFilter fromUri(Uri uri) {
+        BookFilter filter = new BookFilter();
+        String minPrice = uri.getQueryParameter(BookContract.QUERY_PARAMETER_MIN_PRICE);
+        if (minPrice != null) {
+            filter.priceAtLeast(Long.parseLong(minPrice));
+        }
+        String maxPrice = uri.getQueryParameter(BookContract.QUERY_PARAMETER_MAX_PRICE);
+        if (maxPrice != null) {
+            filter.priceAtMost(Long.parseLong(maxPrice));
+        }
+        String quantityBelow = uri.getQueryParameter(
+                BookContract.QUERY_PARAMETER_QUANTITY_BELOW);
+        if (quantityBelow != null) {
+            filter.quantityBelow(Integer.parseInt(quantityBelow));
+        }
+        List<String> supplierIds = uri.getQueryParameters(
+                BookContract.QUERY_PARAMETER_SUPPLIER_ID);
+        for (String supplierId : supplierIds) {
+            filter.supplierIn(Long.parseLong(supplierId));
+        }
+        String namePrefix = uri.getQueryParameter(BookContract.QUERY_PARAMETER_NAME_PREFIX);
+        if (namePrefix != null) {
+            filter.nameStartsWith(namePrefix);
+        }
+        return filter;
+    }
+
+    /**
+     * Return the selection of the filter, with a ? for every argument,
+     * or null if the filter is empty. The conditions are always in the same order.
+     */
+    public String getSelection() {
+        List<String> conditions = new ArrayList<>();
+        if (!mSupplierIds.isEmpty()) {
+            StringBuilder in = new StringBuilder(BookEntry.COLUMN_SUPPLIER_ID).append(" IN (?");
+            for (int i = 1; i < getSupplierSlots(); i++) {
+                in.append(",?");
+            }
+            conditions.add(in.append(')').toString());
+        }
+        if (mMinPriceCents != null || mMaxPriceCents != null) {
+            // A missing bound is the lowest or highest price, so both bounds are always set
+            conditions.add(BookEntry.COLUMN_PRICE_CENTS + " BETWEEN ? AND ?");
+        }
+        if (mQuantityBelow != null) {
+            conditions.add(BookEntry.COLUMN_QUANTITY + "<?");
+        }
+        if (mNamePrefixKey != null) {
+            conditions.add(BookEntry.COLUMN_TITLE_KEY + ">=?");
+            if (SortKeys.prefixEnd(mNamePrefixKey) != null) {
+                conditions.add(BookEntry.COLUMN_TITLE_KEY + "<?");
+            }
+        }
+        if (conditions.isEmpty()) {
+            return null;
+        }
+        StringBuilder selection = new StringBuilder();
+        for (String condition : conditions) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append(condition);
+        }
+        return selection.toString();
+    }
+
+    /**
+     * Return the arguments of {@link #getSelection()}, in the same order,
+     * or null if the filter is empty.
+     */
+    public String[] getSelectionArgs() {
+        List<String> args = new ArrayList<>();
+        if (!mSupplierIds.isEmpty()) {
+            for (long supplierId : mSupplierIds) {
+                args.add(String.valueOf(supplierId));
+            }
+            // Fill the rest of the slots with the last supplier again, which selects no more
+            String last = String.valueOf(mSupplierIds.last());
+            while (args.size() < getSupplierSlots()) {
+                args.add(last);
+            }
+        }
+        if (mMinPriceCents != null || mMaxPriceCents != null) {
+            args.add(String.valueOf(mMinPriceCents == null ? Long.MIN_VALUE : mMinPriceCents));
+            args.add(String.valueOf(mMaxPriceCents == null ? Long.MAX_VALUE : mMaxPriceCents));
+        }
+        if (mQuantityBelow != null) {
+            args.add(String.valueOf(mQuantityBelow));
+        }
+        if (mNamePrefixKey != null) {
+            args.add(mNamePrefixKey);
+            String end = SortKeys.prefixEnd(mNamePrefixKey);
+            if (end != null) {
+                args.add(end);
+            }
+        }
+        return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Return the number of ? of the IN list of the suppliers: the number of suppliers
+     * rounded up to a power of two. Every size of the set would otherwise be a different
+     * statement, now a set of 5 to 8 suppliers shares one.
+     */
+    private int getSupplierSlots() {
+        int size = mSupplierIds.size();
+        return size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+}
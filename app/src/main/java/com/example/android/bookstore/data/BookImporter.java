@@ -0,0 +1,474 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.bookstore.BookLog;
+import com.example.android.bookstore.PriceFormatter;
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * {@link BookImporter} imports a catalogue of books from a CSV or JSON stream.
+ * <p>
+ * The stream is parsed one record at a time and the records are inserted in chunks of
+ * {@link #CHUNK_SIZE} rows, each chunk in its own transaction, so the memory used doesn't
+ * depend on the size of the catalogue. The parser only reads the next record when there
+ * is room for it in the chunk, so a slow database slows down the reading of the stream.
+ * <p>
+ * Every record is validated with the rules of {@link BookProvider}; the invalid records are
+ * skipped and counted. After every committed chunk the number of records read is saved
+ * under the key of the source, so an interrupted import resumes after the last committed
+ * chunk. If the process dies between a commit and saving its checkpoint, that one chunk
+ * is imported again.
+ * <p>
+ * The import runs on the calling thread, which must not be the main thread.
+ */
+public class BookImporter {
+
+    /**
+     * The formats of the catalogues that can be imported
+     */
+    public enum Format {
+        /**
+         * Comma separated values. The first line names the columns, using the column names
+         * of {@link BookEntry}, or "price" for a decimal price. Other columns are ignored.
+         */
+        CSV,
+        /**
+         * A JSON array of book objects, or one book object per line (NDJSON).
+         * The keys are the column names of {@link BookEntry}.
+         */
+        JSON
+    }
+
+    /**
+     * Receives the progress of an import, on the importing thread.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every committed chunk.
+         *
+         * @param recordsRead represents the number of records read so far, including the
+         *                    records read before the import was interrupted
+         * @param bytesRead   represents the number of bytes read from the stream in this run
+         */
+        void onProgress(long recordsRead, long bytesRead);
+    }
+
+    /**
+     * The outcome of an import
+     */
+    public static final class Result {
+        /* The number of books inserted in this run */
+        public final long rowsImported;
+        /* The number of invalid records that were skipped in this run */
+        public final long rowsSkipped;
+        /* Whether the whole stream was imported, false if the import was cancelled */
+        public final boolean completed;
+
+        Result(long rowsImported, long rowsSkipped, boolean completed) {
+            this.rowsImported = rowsImported;
+            this.rowsSkipped = rowsSkipped;
+            this.completed = completed;
+        }
+    }
+
+    private static final String LOG_TAG = BookImporter.class.getSimpleName();
+
+    /**
+     * The number of rows inserted in a single transaction
+     */
+    static final int CHUNK_SIZE = 500;
+
+    /**
+     * Name of the preferences file holding the checkpoints of the unfinished imports
+     */
+    private static final String CHECKPOINTS_NAME = "book_import_checkpoints";
+
+    /**
+     * The column of a catalogue holding a decimal price like "12.34",
+     * accepted besides {@link BookEntry#COLUMN_PRICE_CENTS}
+     */
+    private static final String COLUMN_PRICE = "price";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ContentResolver mContentResolver;
+    private final SharedPreferences mCheckpoints;
+
+    private volatile boolean mCancelled;
+
+    public BookImporter(Context context) {
+        mContentResolver = context.getContentResolver();
+        mCheckpoints = context.getSharedPreferences(CHECKPOINTS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Stop the import after the chunk that is being written. The checkpoint is kept,
+     * so importing the same source again resumes from there.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Return the number of records of the source that were already imported
+     * by an unfinished import, 0 if there is none.
+     */
+    public long getCheckpoint(String sourceKey) {
+        return mCheckpoints.getLong(sourceKey, 0);
+    }
+
+    /**
+     * Forget the checkpoint of the source, so the next import starts from the beginning.
+     */
+    public void clearCheckpoint(String sourceKey) {
+        mCheckpoints.edit().remove(sourceKey).commit();
+    }
+
+    /**
+     * Import the books of the stream. The stream is closed when the import ends.
+     *
+     * @param in        represents the UTF-8 encoded catalogue
+     * @param format    represents the format of the catalogue
+     * @param sourceKey represents a stable key of the source (like its URI),
+     *                  under which the checkpoint is saved
+     * @param listener  represents the listener of the progress, may be null
+     */
+    public Result importBooks(InputStream in, Format format, String sourceKey,
+                              ProgressListener listener) throws IOException {
+        mCancelled = false;
+        CountingInputStream countingIn = new CountingInputStream(in);
+        Reader reader = new BufferedReader(new InputStreamReader(countingIn, UTF_8));
+        RecordReader records = format == Format.CSV
+                ? new CsvRecordReader(reader) : new JsonRecordReader(reader);
+
+        // The rows of a chunk are reused for every chunk
+        ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            chunk[i] = new ContentValues();
+        }
+
+        long checkpoint = getCheckpoint(sourceKey);
+        long recordsRead = 0;
+        long rowsImported = 0;
+        long rowsSkipped = 0;
+        int chunkLength = 0;
+        try {
+            // Skip the records that were imported before the interruption
+            while (recordsRead < checkpoint && records.next(chunk[0])) {
+                recordsRead++;
+            }
+            if (recordsRead > 0) {
+                BookLog.i(LOG_TAG, "Resuming the import of {} after record {}", sourceKey,
+                        recordsRead);
+            }
+
+            while (!mCancelled) {
+                ContentValues values = chunk[chunkLength];
+                boolean hasRecord = records.next(values);
+                if (hasRecord) {
+                    recordsRead++;
+                    if (isValid(values)) {
+                        chunkLength++;
+                    } else {
+                        rowsSkipped++;
+                    }
+                }
+                if (chunkLength == CHUNK_SIZE || (!hasRecord && chunkLength > 0)) {
+                    rowsImported += insertChunk(chunk, chunkLength);
+                    chunkLength = 0;
+                    // Saved synchronously, the checkpoint must not lag behind the database
+                    mCheckpoints.edit().putLong(sourceKey, recordsRead).commit();
+                    if (listener != null) {
+                        listener.onProgress(recordsRead, countingIn.getCount());
+                    }
+                }
+                if (!hasRecord) {
+                    // The whole stream was imported
+                    clearCheckpoint(sourceKey);
+                    return new Result(rowsImported, rowsSkipped, true);
+                }
+            }
+            return new Result(rowsImported, rowsSkipped, false);
+        } finally {
+            records.close();
+        }
+    }
+
+    /**
+     * Insert the first rows of the chunk in a single transaction.
+     */
+    private int insertChunk(ContentValues[] chunk, int length) {
+        ContentValues[] rows = length == chunk.length ? chunk : Arrays.copyOf(chunk, length);
+        return mContentResolver.bulkInsert(BookEntry.CONTENT_URI, rows);
+    }
+
+    private static boolean isValid(ContentValues values) {
+        try {
+            BookProvider.validateBook(values);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Put a value read as text into the values of a book, converted to the type of its column.
+     * Values that can't be converted are left out, so the validation rejects the record.
+     */
+    private static void putValue(ContentValues values, String column, String value) {
+        if (value == null) {
+            return;
+        }
+        switch (column) {
+            case BookEntry.COLUMN_PRODUCT_NAME:
+            case BookEntry.COLUMN_SUPPLIER_NAME:
+            case BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER:
+                values.put(column, value.trim());
+                break;
+            case COLUMN_PRICE:
+                try {
+                    values.put(BookEntry.COLUMN_PRICE_CENTS, PriceFormatter.parseCents(value));
+                } catch (NumberFormatException e) {
+                    // Left out
+                }
+                break;
+            case BookEntry.COLUMN_PRICE_CENTS:
+                try {
+                    values.put(column, Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    // Left out
+                }
+                break;
+            case BookEntry.COLUMN_QUANTITY:
+                try {
+                    values.put(column, Integer.parseInt(value.trim()));
+                } catch (NumberFormatException e) {
+                    // Left out
+                }
+                break;
+            default:
+                // Not a column of the books table
+                break;
+        }
+    }
+
+    /**
+     * Reads the records of a catalogue one at a time.
+     */
+    private interface RecordReader extends Closeable {
+        /**
+         * Clear the values and fill them with the next record.
+         *
+         * @return false if there are no more records
+         */
+        boolean next(ContentValues values) throws IOException;
+    }
+
+    /**
+     * Reads CSV records (RFC 4180): fields may be quoted, quoted fields may contain commas,
+     * line breaks and doubled quotes. Empty lines are skipped.
+     */
+    private static final class CsvRecordReader implements RecordReader {
+
+        private final Reader mReader;
+        private final StringBuilder mField = new StringBuilder();
+        private String[] mColumns;
+        private int mFieldIndex;
+        private boolean mEndOfStream;
+
+        CsvRecordReader(Reader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public boolean next(ContentValues values) throws IOException {
+            values.clear();
+            if (mColumns == null) {
+                readHeader();
+            }
+            while (!mEndOfStream) {
+                mFieldIndex = 0;
+                boolean endOfRecord = false;
+                boolean hasValue = false;
+                while (!endOfRecord) {
+                    endOfRecord = readField();
+                    if (mField.length() > 0 || mFieldIndex > 0 || !endOfRecord) {
+                        hasValue = true;
+                    }
+                    if (mFieldIndex < mColumns.length) {
+                        putValue(values, mColumns[mFieldIndex], mField.toString());
+                    }
+                    mFieldIndex++;
+                }
+                if (hasValue) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void readHeader() throws IOException {
+            String[] columns = new String[8];
+            int count = 0;
+            boolean endOfRecord = false;
+            while (!endOfRecord) {
+                endOfRecord = readField();
+                if (count == columns.length) {
+                    columns = Arrays.copyOf(columns, count * 2);
+                }
+                columns[count++] = mField.toString().trim();
+            }
+            mColumns = Arrays.copyOf(columns, count);
+        }
+
+        /**
+         * Read the next field into {@link #mField}.
+         *
+         * @return true if the field ends its record
+         */
+        private boolean readField() throws IOException {
+            mField.setLength(0);
+            boolean quoted = false;
+            int c = mReader.read();
+            if (c == '"') {
+                quoted = true;
+                c = mReader.read();
+            }
+            while (true) {
+                if (c == -1) {
+                    mEndOfStream = true;
+                    return true;
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        c = mReader.read();
+                        if (c != '"') {
+                            // End of the quoted part, the separator follows
+                            quoted = false;
+                            continue;
+                        }
+                    }
+                    mField.append((char) c);
+                } else if (c == ',') {
+                    return false;
+                } else if (c == '\n') {
+                    return true;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+                c = mReader.read();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Reads the book objects of a JSON array, or a sequence of book objects (NDJSON).
+     */
+    private static final class JsonRecordReader implements RecordReader {
+
+        private final JsonReader mReader;
+        private boolean mStarted;
+
+        JsonRecordReader(Reader reader) {
+            mReader = new JsonReader(reader);
+            // Allows a sequence of top level objects
+            mReader.setLenient(true);
+        }
+
+        @Override
+        public boolean next(ContentValues values) throws IOException {
+            values.clear();
+            if (!mStarted) {
+                mStarted = true;
+                if (mReader.peek() == JsonToken.BEGIN_ARRAY) {
+                    mReader.beginArray();
+                }
+            }
+            JsonToken token = mReader.peek();
+            if (token == JsonToken.END_ARRAY || token == JsonToken.END_DOCUMENT) {
+                return false;
+            }
+            mReader.beginObject();
+            while (mReader.hasNext()) {
+                String name = mReader.nextName();
+                JsonToken valueToken = mReader.peek();
+                if (valueToken == JsonToken.STRING || valueToken == JsonToken.NUMBER) {
+                    // Numbers are read as text and converted like the CSV values
+                    putValue(values, name, mReader.nextString());
+                } else {
+                    // Nulls, booleans, arrays and objects are not book values
+                    mReader.skipValue();
+                }
+            }
+            mReader.endObject();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Counts the bytes read from the stream, to report the progress.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                mCount += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
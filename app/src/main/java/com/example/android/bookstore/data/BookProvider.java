@@ -1,17 +1,42 @@
 package com.example.android.bookstore.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Log;
+import android.text.TextUtils;
+import android.util.SparseArray;
 
+import com.example.android.bookstore.BookLog;
 import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.MetricsEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class BookProvider extends ContentProvider {
 
@@ -27,6 +52,50 @@ public class BookProvider extends ContentProvider {
      * URI matcher code for the content URI for a single book in the books table
      */
     private static final int BOOK_ID = 2;
+    /**
+     * URI matcher code for the content URI for the quantity of a single book
+     */
+    private static final int BOOK_QUANTITY = 3;
+    /**
+     * URI matcher code for the content URI for a full-text search over the books
+     */
+    private static final int BOOK_SEARCH = 4;
+    /**
+     * URI matcher code for the content URI for the export of all the books
+     */
+    private static final int BOOK_EXPORT = 5;
+    /**
+     * URI matcher code for the content URI for the suppliers table
+     */
+    private static final int SUPPLIERS = 6;
+    /**
+     * URI matcher code for the content URI for a single supplier
+     */
+    private static final int SUPPLIER_ID = 7;
+    /**
+     * URI matcher code for the content URI for the books of a single supplier
+     */
+    private static final int SUPPLIER_BOOKS = 8;
+    /**
+     * URI matcher code for the content URI for the inventory value of the books
+     */
+    private static final int INVENTORY_VALUE = 9;
+    /**
+     * URI matcher codes for the content URIs of the reports over the books
+     */
+    private static final int STATS = 10;
+    private static final int BY_SUPPLIER = 11;
+    private static final int LOW_STOCK = 12;
+    private static final int PRICE_HISTOGRAM = 13;
+    /**
+     * URI matcher codes for the content URIs of the metrics of the provider
+     */
+    private static final int METRICS = 14;
+    private static final int SLOW_QUERIES = 15;
+    /**
+     * URI matcher code for the content URI for the changes of the books
+     */
+    private static final int CHANGES = 16;
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for
@@ -35,58 +104,442 @@ public class BookProvider extends ContentProvider {
      */
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    /**
+     * The pattern of every URI matched by {@link #sUriMatcher}, by code, used by the metrics
+     */
+    private static final SparseArray<String> sUriPatterns = new SparseArray<>();
+
     // Static initializer. This is run the first time anything is called from this class.
     static {
-        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS, BOOKS);
-        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS, BOOKS);
+        addUri(BookContract.PATH_BOOKS + "/#", BOOK_ID);
+        addUri(BookContract.PATH_BOOKS + "/#/" + BookContract.PATH_QUANTITY, BOOK_QUANTITY);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_SEARCH + "/*", BOOK_SEARCH);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_EXPORT + "/*", BOOK_EXPORT);
+        addUri(BookContract.PATH_SUPPLIERS, SUPPLIERS);
+        addUri(BookContract.PATH_SUPPLIERS + "/#", SUPPLIER_ID);
+        addUri(BookContract.PATH_SUPPLIERS + "/#/" + BookContract.PATH_BOOKS, SUPPLIER_BOOKS);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_INVENTORY_VALUE,
+                INVENTORY_VALUE);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_STATS, STATS);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_BY_SUPPLIER, BY_SUPPLIER);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_LOW_STOCK, LOW_STOCK);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_PRICE_HISTOGRAM,
+                PRICE_HISTOGRAM);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_CHANGES, CHANGES);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_METRICS, METRICS);
+        addUri(BookContract.PATH_BOOKS + "/" + BookContract.PATH_METRICS + "/"
+                + BookContract.PATH_SLOW_QUERIES, SLOW_QUERIES);
+    }
+
+    private static void addUri(String path, int code) {
+        sUriMatcher.addURI(BookContract.CONTENT_AUTHORITY, path, code);
+        sUriPatterns.put(code, path);
+    }
+
+    /**
+     * The columns of the inventory value. The prices are whole numbers of cents,
+     * so the sums are computed exactly by SQLite, with integers.
+     */
+    private static final String[] INVENTORY_VALUE_COLUMNS = {
+            "COUNT(*) AS " + BookEntry.COLUMN_BOOK_COUNT,
+            "IFNULL(SUM(" + BookEntry.COLUMN_QUANTITY + "), 0) AS "
+                    + BookEntry.COLUMN_TOTAL_QUANTITY,
+            "IFNULL(SUM(" + BookEntry.COLUMN_PRICE_CENTS + " * " + BookEntry.COLUMN_QUANTITY
+                    + "), 0) AS " + BookEntry.COLUMN_INVENTORY_VALUE_CENTS
+    };
+
+    /**
+     * The columns of the totals of all the books, summed over the rows of the summary table
+     */
+    private static final String[] STATS_COLUMNS = {
+            "IFNULL(SUM(" + BookEntry.COLUMN_BOOK_COUNT + "), 0) AS "
+                    + BookEntry.COLUMN_BOOK_COUNT,
+            "IFNULL(SUM(" + BookEntry.COLUMN_TOTAL_QUANTITY + "), 0) AS "
+                    + BookEntry.COLUMN_TOTAL_QUANTITY,
+            "IFNULL(SUM(" + BookEntry.COLUMN_INVENTORY_VALUE_CENTS + "), 0) AS "
+                    + BookEntry.COLUMN_INVENTORY_VALUE_CENTS,
+            "IFNULL(SUM(" + BookEntry.COLUMN_OUT_OF_STOCK_COUNT + "), 0) AS "
+                    + BookEntry.COLUMN_OUT_OF_STOCK_COUNT,
+            "IFNULL(SUM(" + BookEntry.COLUMN_LOW_STOCK_COUNT + "), 0) AS "
+                    + BookEntry.COLUMN_LOW_STOCK_COUNT
+    };
+
+    /**
+     * The summary table joined with the names of the suppliers
+     */
+    private static final String BY_SUPPLIER_TABLES = BookEntry.STATS_TABLE_NAME
+            + " LEFT JOIN " + SupplierEntry.TABLE_NAME + " ON " + SupplierEntry.TABLE_NAME + "."
+            + SupplierEntry._ID + " = " + BookEntry.STATS_TABLE_NAME + "."
+            + BookEntry.COLUMN_SUPPLIER_ID;
+
+    /**
+     * The columns of the totals per supplier. The row of the books without a supplier
+     * is stored under 0, it is returned with a null supplier id.
+     */
+    private static final String[] BY_SUPPLIER_COLUMNS = {
+            "NULLIF(" + BookEntry.STATS_TABLE_NAME + "." + BookEntry.COLUMN_SUPPLIER_ID
+                    + ", 0) AS " + BookEntry.COLUMN_SUPPLIER_ID,
+            SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                    + BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_BOOK_COUNT,
+            BookEntry.COLUMN_TOTAL_QUANTITY,
+            BookEntry.COLUMN_INVENTORY_VALUE_CENTS,
+            BookEntry.COLUMN_OUT_OF_STOCK_COUNT,
+            BookEntry.COLUMN_LOW_STOCK_COUNT
+    };
+
+    /**
+     * The width of a bucket of the price histogram when the URI doesn't have one, in cents
+     */
+    private static final long DEFAULT_PRICE_BUCKET_CENTS = 500;
+
+    /**
+     * Maps the columns that can be requested from a search to the joined books and FTS tables.
+     */
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<>();
+
+    static {
+        String[] bookColumns = {
+                BookEntry._ID,
+                BookEntry.COLUMN_PRODUCT_NAME,
+                BookEntry.COLUMN_PRICE_CENTS,
+                BookEntry.COLUMN_QUANTITY,
+                BookEntry.COLUMN_SUPPLIER_NAME,
+                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+        };
+        for (String column : bookColumns) {
+            sSearchProjectionMap.put(column,
+                    BookEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sSearchProjectionMap.put(BookEntry.COLUMN_SNIPPET, "snippet("
+                + BookEntry.FTS_TABLE_NAME + ", '<b>', '</b>', '...', -1, 8) AS "
+                + BookEntry.COLUMN_SNIPPET);
     }
 
+    /**
+     * The tables used by a search: the FTS index joined back to the books it points to,
+     * together with their suppliers.
+     */
+    private static final String SEARCH_TABLES = BookEntry.FTS_TABLE_NAME + " JOIN "
+            + BookEntry.VIEW_NAME + " AS " + BookEntry.TABLE_NAME + " ON "
+            + BookEntry.TABLE_NAME + "." + BookEntry._ID
+            + " = " + BookEntry.FTS_TABLE_NAME + ".docid";
+
+    /**
+     * Reads the id, the matchinfo() and the title of every book matching a search,
+     * which are enough to rank the matches before their columns are read.
+     */
+    private static final String SEARCH_RANK_SQL = "SELECT " + BookEntry.FTS_TABLE_NAME
+            + ".docid, matchinfo(" + BookEntry.FTS_TABLE_NAME + ", '"
+            + SearchRank.MATCHINFO_FORMAT + "'), " + BookEntry.TABLE_NAME + "."
+            + BookEntry.COLUMN_PRODUCT_NAME + " FROM " + SEARCH_TABLES + " WHERE "
+            + BookEntry.FTS_TABLE_NAME + " MATCH ?";
+
+    /**
+     * The columns of the sort orders of the books, by {@link BookContract#QUERY_PARAMETER_SORT}.
+     * Each one is the order of an index of the books table, which ends with the _ID that
+     * breaks the ties, so the books are read from the index in order, without sorting them.
+     */
+    private static final Map<String, String[]> sSortColumns = new HashMap<>();
+
+    static {
+        for (String sort : new String[]{BookContract.SORT_TITLE, BookContract.SORT_PRICE,
+                BookContract.SORT_QUANTITY, BookContract.SORT_SUPPLIER}) {
+            String[] keyColumns = BookEntry.getPageKeyColumns(sort);
+            String[] sortColumns = Arrays.copyOf(keyColumns, keyColumns.length + 1);
+            sortColumns[keyColumns.length] = BookEntry._ID;
+            sSortColumns.put(sort, sortColumns);
+        }
+    }
+
+    /**
+     * The sort columns of the pages of the books without a sort order
+     */
+    private static final String[] ID_SORT_COLUMNS = {BookEntry._ID};
+
+    /**
+     * Number of search results returned when the URI doesn't ask for a limit.
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+
+    /**
+     * Passed instead of a book id when the rows to change are picked by a selection.
+     */
+    private static final long NO_ID = -1;
+
+    /**
+     * Picks the rows of the books table that are not deleted
+     */
+    private static final String SELECT_LIVE_BOOKS = BookEntry.COLUMN_DELETED + "=0";
+
+    /**
+     * Passed instead of a version when a book is updated whatever its version is.
+     */
+    private static final long ANY_VERSION = -1;
+
+    /**
+     * Maximum number of batch operations applied before trying to yield the transaction.
+     */
+    private static final int MAX_OPERATIONS_PER_YIELD = 500;
+
     /**
      * The object that will help gain access to the books database
      */
     private BookDbHelper mDbHelper;
 
+    /**
+     * Cache of the rows read by the queries of a single book
+     */
+    private final BookRowCache mRowCache = new BookRowCache();
+
+    /**
+     * Counters of the calls to the provider and the latest slow queries
+     */
+    private final ProviderMetrics mMetrics = new ProviderMetrics(sUriPatterns);
+
+    /**
+     * Purges the deleted books in the background
+     */
+    private BookCompactor mCompactor;
+
+    /**
+     * The compiled statements of the most common writes, for the current writable database
+     */
+    private BookStatements mStatements;
+
+    /**
+     * The URIs that changed while a batch is being applied on the current thread.
+     * It is null when the thread is not inside {@link #applyBatch(ArrayList)}
+     * or another write that defers its notifications until its transaction ends.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
         mDbHelper = new BookDbHelper(getContext());
+        mCompactor = new BookCompactor(mDbHelper);
         return true;
     }
 
+    /**
+     * Stop the background compaction. Only called by the tests.
+     */
+    @Override
+    public void shutdown() {
+        mCompactor.shutdown();
+        super.shutdown();
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection,
      * selection, selection arguments and sort order.
+     * The call is counted in the metrics, except for the queries of the metrics themselves.
      */
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
                         @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        //Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        if (match == METRICS) {
+            return mMetrics.queryMetrics();
+        } else if (match == SLOW_QUERIES) {
+            return mMetrics.querySlowQueries();
+        }
+
+        long start = System.nanoTime();
+        Cursor cursor = null;
+        try {
+            cursor = queryUri(uri, match, projection, selection, selectionArgs, sortOrder);
+            return cursor;
+        } finally {
+            // The cursor was already filled by timedQuery, getCount() doesn't run it again
+            mMetrics.record(ProviderMetrics.QUERY, match, start,
+                    cursor != null ? cursor.getCount() : 0, cursor == null);
+        }
+    }
+
+    private Cursor queryUri(Uri uri, int match, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        //Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
-                // For the BOOKS code, query the books table directly with the
+                // For the BOOKS code, query the books joined with their suppliers with the
                 // given projection, selection, selection arguments, and sort order.
                 // The cursor could contain multiple rows of the books table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder, null);
+                // A page of the table can be requested with the limit and after_id parameters.
+                // The deleted books that were not purged yet can be requested too.
+                String view = Boolean.parseBoolean(uri.getQueryParameter(
+                        BookContract.QUERY_PARAMETER_INCLUDE_DELETED))
+                        ? BookEntry.ALL_VIEW_NAME : BookEntry.VIEW_NAME;
+                // The books can be filtered by the parameters of a BookFilter,
+                // which compiles to the same SQL for the same conditions.
+                BookFilter filter = BookFilter.fromUri(uri);
+                if (!filter.isEmpty()) {
+                    selection = DatabaseUtils.concatenateWhere(selection, filter.getSelection());
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            filter.getSelectionArgs());
+                }
+                // The books can be sorted by the sort parameter instead of a sort order.
+                String sort = uri.getQueryParameter(BookContract.QUERY_PARAMETER_SORT);
+                String afterId = uri.getQueryParameter(BookContract.QUERY_PARAMETER_AFTER_ID);
+                if (sort != null || afterId != null) {
+                    String[] sortColumns = sort == null ? ID_SORT_COLUMNS : sSortColumns.get(sort);
+                    if (sortColumns == null) {
+                        throw new IllegalArgumentException("Unknown sort order " + sort);
+                    }
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("Pages are always sorted by "
+                                + (sort == null ? "id" : sort) + ", cannot sort by " + sortOrder);
+                    }
+                    long after = afterId == null ? NO_ID : Long.parseLong(afterId);
+                    if (after != NO_ID) {
+                        // Keyset pagination: continue right after the last row of the
+                        // previous page, given by its sort keys or else by its id
+                        List<String> afterKeys = uri.getQueryParameters(
+                                BookContract.QUERY_PARAMETER_AFTER_KEY);
+                        boolean keysBound = !afterKeys.isEmpty();
+                        if (keysBound && afterKeys.size() != sortColumns.length - 1) {
+                            throw new IllegalArgumentException("Sort order "
+                                    + (sort == null ? "id" : sort) + " requires "
+                                    + (sortColumns.length - 1) + " page keys, got "
+                                    + afterKeys.size());
+                        }
+                        selection = DatabaseUtils.concatenateWhere(selection,
+                                pageSelection(sortColumns, keysBound));
+                        String[] pageArgs = new String[sortColumns.length * 2 - 1];
+                        Arrays.fill(pageArgs, String.valueOf(after));
+                        if (keysBound) {
+                            // Every key is compared twice, the id comes last
+                            for (int i = 0; i < afterKeys.size(); i++) {
+                                pageArgs[2 * i] = afterKeys.get(i);
+                                pageArgs[2 * i + 1] = afterKeys.get(i);
+                            }
+                        }
+                        selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                                pageArgs);
+                    }
+                    sortOrder = TextUtils.join(", ", sortColumns);
+                }
+                cursor = timedQuery(database, uri, view, projection, selection,
+                        selectionArgs, null, sortOrder, getLimit(uri));
                 break;
             case BOOK_ID:
                 // For the BOOK_ID code, extract out the ID from the URI.
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                // Cursor containing the wanted row of the table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder);
+                long id = ContentUris.parseId(uri);
+                // Serve the row from the cache when possible.
+                cursor = mRowCache.query(database, id, projection);
+                if (cursor == null) {
+                    selection = BookEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(id)};
+                    // Cursor containing the wanted row of the table.
+                    cursor = timedQuery(database, uri, BookEntry.VIEW_NAME, projection,
+                            selection, selectionArgs, null, sortOrder, null);
+                }
                 break;
+            case SUPPLIERS:
+                cursor = timedQuery(database, uri, SupplierEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, null, sortOrder, null);
+                break;
+            case SUPPLIER_ID:
+                selection = DatabaseUtils.concatenateWhere(SupplierEntry._ID + "=?", selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        new String[]{String.valueOf(ContentUris.parseId(uri))}, selectionArgs);
+                cursor = timedQuery(database, uri, SupplierEntry.TABLE_NAME, projection,
+                        selection, selectionArgs, null, sortOrder, null);
+                break;
+            case SUPPLIER_BOOKS:
+                // The ID is the second to last segment: suppliers/#/books
+                selection = DatabaseUtils.concatenateWhere(
+                        BookEntry.COLUMN_SUPPLIER_ID + "=?", selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        new String[]{uri.getPathSegments().get(1)}, selectionArgs);
+                cursor = timedQuery(database, uri, BookEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, sortOrder, null);
+                // The list changes whenever any book changes
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
+            case INVENTORY_VALUE:
+                // A single row summing the books that match the selection.
+                // The projection is ignored, the columns are always the same.
+                cursor = timedQuery(database, uri, BookEntry.VIEW_NAME, INVENTORY_VALUE_COLUMNS,
+                        selection, selectionArgs, null, null, null);
+                // The sums change whenever any book changes
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
+            case STATS:
+                cursor = timedQuery(database, uri, BookEntry.STATS_TABLE_NAME, STATS_COLUMNS,
+                        null, null, null, null, null);
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
+            case BY_SUPPLIER:
+                if (sortOrder == null) {
+                    sortOrder = BookEntry.COLUMN_SUPPLIER_NAME + " COLLATE NOCASE";
+                }
+                cursor = timedQuery(database, uri, BY_SUPPLIER_TABLES, BY_SUPPLIER_COLUMNS,
+                        null, null, null, sortOrder, null);
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
+            case LOW_STOCK:
+                // The books below the threshold, read through the quantity index
+                String threshold = uri.getQueryParameter(BookContract.QUERY_PARAMETER_THRESHOLD);
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        BookEntry.COLUMN_QUANTITY + "<?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{String.valueOf(threshold == null
+                                ? BookEntry.DEFAULT_LOW_STOCK_THRESHOLD
+                                : Integer.parseInt(threshold))});
+                if (sortOrder == null) {
+                    sortOrder = BookEntry.COLUMN_QUANTITY;
+                }
+                cursor = timedQuery(database, uri, BookEntry.VIEW_NAME, projection, selection,
+                        selectionArgs, null, sortOrder, getLimit(uri));
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
+            case PRICE_HISTOGRAM:
+                cursor = queryPriceHistogram(database, uri);
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
+            case CHANGES:
+                // The changes after the given one, deleted books included, in the order
+                // they were written, read through the change sequence index
+                if (sortOrder != null) {
+                    throw new IllegalArgumentException(
+                            "Changes are always sorted by change sequence, cannot sort by "
+                                    + sortOrder);
+                }
+                String since = uri.getQueryParameter(BookContract.QUERY_PARAMETER_SINCE);
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        BookEntry.COLUMN_CHANGE_SEQ + ">?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[]{String.valueOf(since == null ? 0 : Long.parseLong(since))});
+                cursor = timedQuery(database, uri, BookEntry.ALL_VIEW_NAME, projection,
+                        selection, selectionArgs, null, BookEntry.COLUMN_CHANGE_SEQ,
+                        getLimit(uri));
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
+            case BOOK_SEARCH:
+                cursor = searchBooks(database, uri, projection);
+                // The results change whenever any book changes
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        BookEntry.CONTENT_URI);
+                return cursor;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
 
@@ -100,6 +553,307 @@ public class BookProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Run a query built from its parts like {@link SQLiteDatabase#query}, through
+     * {@link #timedRawQuery(SQLiteDatabase, Uri, String, String[])}.
+     */
+    private Cursor timedQuery(SQLiteDatabase database, Uri uri, String table, String[] columns,
+                              String selection, String[] selectionArgs, String groupBy,
+                              String orderBy, String limit) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection,
+                groupBy, null, orderBy, limit);
+        return timedRawQuery(database, uri, sql, selectionArgs);
+    }
+
+    /**
+     * Run the query and fill the first window of the cursor right away, so the time spent
+     * by SQLite is measured here. If the query was slow, its plan is kept in the metrics.
+     */
+    private Cursor timedRawQuery(SQLiteDatabase database, Uri uri, String sql,
+                                 String[] selectionArgs) {
+        long start = System.nanoTime();
+        Cursor cursor = database.rawQuery(sql, selectionArgs);
+        cursor.getCount();
+        long nanos = System.nanoTime() - start;
+        if (mMetrics.isSlow(nanos)) {
+            mMetrics.addSlowQuery(uri.toString(), sql,
+                    explainQueryPlan(database, sql, selectionArgs), nanos);
+        }
+        return cursor;
+    }
+
+    /**
+     * Return the steps of the plan of the query, one per line.
+     */
+    private static String explainQueryPlan(SQLiteDatabase database, String sql,
+                                           String[] selectionArgs) {
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailColumnIndex));
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the limit requested with the {@link BookContract#QUERY_PARAMETER_LIMIT}
+     * parameter of the URI, or null if there is no limit.
+     */
+    private static String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(BookContract.QUERY_PARAMETER_LIMIT);
+        return limit == null ? null : String.valueOf(Integer.parseInt(limit));
+    }
+
+    /**
+     * Count the books in every bucket of prices, in SQLite. Only the non-empty buckets
+     * are returned.
+     * uri: content://com.example.android.books/books/price_histogram?bucket=n
+     */
+    private Cursor queryPriceHistogram(SQLiteDatabase database, Uri uri) {
+        String bucketParameter = uri.getQueryParameter(BookContract.QUERY_PARAMETER_BUCKET);
+        long bucket = bucketParameter == null
+                ? DEFAULT_PRICE_BUCKET_CENTS : Long.parseLong(bucketParameter);
+        if (bucket <= 0) {
+            throw new IllegalArgumentException("The price bucket must be positive: " + bucket);
+        }
+        // The bucket was parsed as a number, so it is safe to write it into the SQL
+        String bucketStart = "(" + BookEntry.COLUMN_PRICE_CENTS + " / " + bucket + ") * "
+                + bucket;
+        return timedQuery(database, uri, BookEntry.VIEW_NAME, new String[]{
+                        bucketStart + " AS " + BookEntry.COLUMN_BUCKET_START_CENTS,
+                        "COUNT(*) AS " + BookEntry.COLUMN_BOOK_COUNT},
+                null, null, BookEntry.COLUMN_BUCKET_START_CENTS,
+                BookEntry.COLUMN_BUCKET_START_CENTS, null);
+    }
+
+    /**
+     * Search the books whose title or supplier contain words starting with the terms
+     * of the query, using the full-text search table. The matches are ranked by
+     * {@link SearchRank} from their matchinfo(), and only the best ones are read in full.
+     * uri: content://com.example.android.books/books/search/query?limit=n
+     */
+    private Cursor searchBooks(SQLiteDatabase database, Uri uri, String[] projection) {
+        // Keep only letters and digits, so the user can't type the FTS query syntax,
+        // and turn every term into a prefix query.
+        String[] terms = uri.getLastPathSegment().split("[^\\p{L}\\p{N}]+");
+        StringBuilder match = new StringBuilder();
+        for (String term : terms) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(term).append('*');
+        }
+        if (match.length() == 0) {
+            // Nothing to search for, return an empty cursor with the requested columns
+            return new MatrixCursor(projection != null ? projection
+                    : sSearchProjectionMap.keySet().toArray(new String[0]));
+        }
+
+        String limit = getLimit(uri);
+        int maxResults = limit == null ? DEFAULT_SEARCH_LIMIT : Integer.parseInt(limit);
+        String[] matchArgs = new String[]{match.toString()};
+
+        // Rank every match by its matchinfo, the best first, then by title
+        List<RankedBook> ranked = new ArrayList<>();
+        Cursor matches = timedRawQuery(database, uri, SEARCH_RANK_SQL, matchArgs);
+        try {
+            while (matches.moveToNext()) {
+                ranked.add(new RankedBook(matches.getLong(0),
+                        SearchRank.score(matches.getBlob(1)), matches.getString(2)));
+            }
+        } finally {
+            matches.close();
+        }
+        Collections.sort(ranked);
+        // Like in SQLite, a negative limit is no limit
+        if (maxResults >= 0 && ranked.size() > maxResults) {
+            ranked = ranked.subList(0, maxResults);
+        }
+
+        String[] columns = projection != null ? projection
+                : sSearchProjectionMap.keySet().toArray(new String[0]);
+        MatrixCursor results = new MatrixCursor(columns, ranked.size());
+        if (ranked.isEmpty()) {
+            return results;
+        }
+
+        // Read the columns of the best matches, with their id to put them in the rank order
+        Map<Long, Integer> ranks = new HashMap<>();
+        for (RankedBook book : ranked) {
+            ranks.put(book.id, ranks.size());
+        }
+        String[] queryColumns = Arrays.copyOf(columns, columns.length + 1);
+        queryColumns[columns.length] = BookEntry._ID;
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SEARCH_TABLES);
+        builder.setProjectionMap(sSearchProjectionMap);
+        // The ids were read from the database, so it is safe to write them into the SQL
+        String sql = builder.buildQuery(queryColumns, BookEntry.FTS_TABLE_NAME + " MATCH ? AND "
+                + BookEntry.FTS_TABLE_NAME + ".docid IN (" + TextUtils.join(",", ranks.keySet())
+                + ")", null, null, null, null);
+        Object[][] rows = new Object[ranked.size()][];
+        Cursor cursor = timedRawQuery(database, uri, sql, matchArgs);
+        try {
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = getValue(cursor, i);
+                }
+                rows[ranks.get(cursor.getLong(columns.length))] = row;
+            }
+        } finally {
+            cursor.close();
+        }
+        for (Object[] row : rows) {
+            // A book deleted between the two queries has no row
+            if (row != null) {
+                results.addRow(row);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Return the value of the column of the current row, with the type SQLite gave it.
+     */
+    private static Object getValue(Cursor cursor, int columnIndex) {
+        switch (cursor.getType(columnIndex)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(columnIndex);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(columnIndex);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(columnIndex);
+            default:
+                return cursor.getString(columnIndex);
+        }
+    }
+
+    /**
+     * A book matching a search, with its {@link SearchRank} score
+     */
+    private static final class RankedBook implements Comparable<RankedBook> {
+        final long id;
+        final double score;
+        final String title;
+
+        RankedBook(long id, double score, String title) {
+            this.id = id;
+            this.score = score;
+            this.title = title;
+        }
+
+        @Override
+        public int compareTo(@NonNull RankedBook other) {
+            int byScore = Double.compare(other.score, score);
+            return byScore != 0 ? byScore : title.compareToIgnoreCase(other.title);
+        }
+    }
+
+    /**
+     * Call a provider-specific method.
+     * {@link BookContract#METHOD_GET_CACHE_STATS} returns the counters of the book row cache.
+     * {@link BookContract#METHOD_SET_SLOW_QUERY_THRESHOLD} sets the slow query threshold to
+     * the argument, in milliseconds, and {@link BookContract#METHOD_RESET_METRICS} clears
+     * the metrics. {@link BookContract#METHOD_COMPACT} purges the deleted books and releases
+     * the free pages on the calling thread, and returns how many of both there were.
+     * {@link BookContract#METHOD_GET_SYNC_STATE}, {@link BookContract#METHOD_ACKNOWLEDGE_PUSH}
+     * and {@link BookContract#METHOD_APPLY_CHANGES} are used by {@link BookSyncEngine}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (BookContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(BookContract.CACHE_HIT_COUNT, mRowCache.hitCount());
+            stats.putInt(BookContract.CACHE_MISS_COUNT, mRowCache.missCount());
+            stats.putInt(BookContract.CACHE_EVICTION_COUNT, mRowCache.evictionCount());
+            return stats;
+        } else if (BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("The slow query threshold is missing");
+            }
+            mMetrics.setSlowQueryThresholdMillis(Long.parseLong(arg));
+            return null;
+        } else if (BookContract.METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        } else if (BookContract.METHOD_COMPACT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(BookContract.COMPACT_PURGED_ROWS, mCompactor.purgeTombstones());
+            result.putLong(BookContract.COMPACT_FREED_PAGES, mCompactor.vacuum());
+            return result;
+        } else if (BookContract.METHOD_GET_SYNC_STATE.equals(method)) {
+            SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            Bundle state = new Bundle();
+            state.putLong(BookContract.SYNC_PUSHED_SEQ, getPushedSeq(db));
+            state.putString(BookContract.SYNC_PULL_TOKEN,
+                    BookDbHelper.getSyncState(db, BookDbHelper.SYNC_STATE_PULL_TOKEN));
+            return state;
+        } else if (BookContract.METHOD_ACKNOWLEDGE_PUSH.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("The pushed change sequence is missing");
+            }
+            acknowledgePush(Long.parseLong(arg));
+            return null;
+        } else if (BookContract.METHOD_APPLY_CHANGES.equals(method)) {
+            ArrayList<ContentValues> changes = extras == null ? null
+                    : extras.<ContentValues>getParcelableArrayList(BookContract.SYNC_CHANGES);
+            if (changes == null) {
+                throw new IllegalArgumentException("The changes to apply are missing");
+            }
+            Bundle result = new Bundle();
+            result.putInt(BookContract.SYNC_APPLIED_ROWS, applyChanges(changes, arg));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Write the metrics and the slow queries, for
+     * adb shell dumpsys activity provider com.example.android.bookstore/.data.BookProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+    }
+
+    /**
+     * Open the export of all the books for reading.
+     * The export is written into a pipe by a background thread while the caller reads it,
+     * so it is never held in memory.
+     * uri: content://com.example.android.books/books/export/format?gzip=true
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != BOOK_EXPORT) {
+            throw new FileNotFoundException("No files supported for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export can only be read, not " + mode);
+        }
+        String format = uri.getLastPathSegment();
+        if (!BookExporter.isSupportedFormat(format)) {
+            throw new FileNotFoundException("Unknown export format " + format);
+        }
+        return openPipeHelper(uri, getType(uri), null, format, new BookExporter(mDbHelper));
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -112,6 +866,35 @@ public class BookProvider extends ContentProvider {
                 return BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case BOOK_QUANTITY:
+                return BookEntry.CONTENT_ITEM_TYPE;
+            case BOOK_SEARCH:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case BOOK_EXPORT:
+                return BookExporter.getType(uri.getLastPathSegment(), Boolean.parseBoolean(
+                        uri.getQueryParameter(BookContract.QUERY_PARAMETER_GZIP)));
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case SUPPLIER_BOOKS:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case INVENTORY_VALUE:
+                return BookEntry.INVENTORY_VALUE_TYPE;
+            case STATS:
+                return BookEntry.STATS_TYPE;
+            case BY_SUPPLIER:
+                return BookEntry.BY_SUPPLIER_TYPE;
+            case LOW_STOCK:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case PRICE_HISTOGRAM:
+                return BookEntry.PRICE_HISTOGRAM_TYPE;
+            case CHANGES:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case SLOW_QUERIES:
+                return MetricsEntry.SLOW_QUERIES_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + "with match " + match);
         }
@@ -124,9 +907,24 @@ public class BookProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        boolean failed = true;
+        Uri newUri = null;
+        try {
+            newUri = insertUri(uri, match, contentValues);
+            failed = false;
+            return newUri;
+        } finally {
+            mMetrics.record(ProviderMetrics.INSERT, match, start, newUri != null ? 1 : 0, failed);
+        }
+    }
+
+    private Uri insertUri(Uri uri, int match, ContentValues contentValues) {
         switch (match) {
             case BOOKS:
                 return insertBook(uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -140,78 +938,716 @@ public class BookProvider extends ContentProvider {
      */
     private Uri insertBook(Uri uri, ContentValues contentValues) {
         // Data validation.
+        validateBook(contentValues);
+
+        // The supplier and the book are written together
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long id;
+        boolean deferred = deferNotifications();
+        db.beginTransaction();
+        try {
+            long supplierId = resolveSupplier(contentValues);
+            if (BookStatements.hasOnlyBookColumns(contentValues)) {
+                id = getStatements().insertBook(contentValues, supplierId);
+            } else {
+                id = db.insert(BookEntry.TABLE_NAME, null,
+                        toBookRow(contentValues, supplierId));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (deferred) {
+                sendDeferredNotifications();
+            }
+        }
+
+        if (id == -1) {
+            BookLog.e(LOG_TAG, "Failed to insert row for {}", uri);
+            return null;
+        }
+
+        // Once we know the ID of the new row in the table,
+        // build the new URI with the ID appended to the end of it.
+        Uri bookUri = ContentUris.withAppendedId(uri, id);
+
+        // Notify all listeners that only this book has changed.
+        // Observers of the whole table are notified too.
+        // uri: content://com.example.android.books/books/#
+        notifyChange(bookUri);
+
+        return bookUri;
+    }
+
+    /**
+     * Insert many books at once. All the rows are validated before anything is written,
+     * then they are inserted inside a single transaction using the cached insert statement.
+     * Either every row is inserted or none: a row that fails to insert throws
+     * an {@link android.database.SQLException} and the transaction is rolled back.
+     * Listeners are notified only once, after the transaction was committed.
+     *
+     * @return the number of rows that were inserted.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        boolean failed = true;
+        int rowsInserted = 0;
+        try {
+            rowsInserted = bulkInsertBooks(uri, match, values);
+            failed = false;
+            return rowsInserted;
+        } finally {
+            mMetrics.record(ProviderMetrics.BULK_INSERT, match, start, rowsInserted, failed);
+        }
+    }
+
+    private int bulkInsertBooks(Uri uri, int match, ContentValues[] values) {
+        if (match != BOOKS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Validate every row first, so a bad row doesn't leave a half-written batch behind.
+        for (ContentValues contentValues : values) {
+            validateBook(contentValues);
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        BookStatements statements = getStatements();
+        int rowsInserted = 0;
+        boolean deferred = deferNotifications();
+        db.beginTransaction();
+        try {
+            for (ContentValues contentValues : values) {
+                long supplierId = resolveSupplier(contentValues);
+                // Like a single insert, a row with other columns goes through the generic
+                // insert. A row that can't be inserted throws, which rolls back the whole
+                // batch instead of committing the other rows without it.
+                if (BookStatements.hasOnlyBookColumns(contentValues)) {
+                    statements.insertBook(contentValues, supplierId);
+                } else {
+                    db.insertOrThrow(BookEntry.TABLE_NAME, null,
+                            toBookRow(contentValues, supplierId));
+                }
+                rowsInserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (deferred) {
+                sendDeferredNotifications();
+            }
+        }
+
+        mDbHelper.checkpointAfterBatch(rowsInserted);
+
+        // Notify all listeners only once for the whole batch
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all the operations of the batch inside a single database transaction.
+     * Long batches yield the transaction at the points allowed by the operations,
+     * so readers are not blocked for the whole batch.
+     * Change notifications are collected and sent once per URI after the commit.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Every operation is counted on its own too
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            ContentProviderResult[] results = applyOperations(operations);
+            failed = false;
+            return results;
+        } finally {
+            mMetrics.record(ProviderMetrics.APPLY_BATCH, ProviderMetrics.NO_URI, start,
+                    operations.size(), failed);
+        }
+    }
+
+    private ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        boolean deferred = deferNotifications();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        db.beginTransaction();
+        try {
+            int operationsSinceYield = 0;
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                // Give other threads a chance to use the database between operations
+                if (++operationsSinceYield >= MAX_OPERATIONS_PER_YIELD
+                        || (i > 0 && operation.isYieldAllowed())) {
+                    if (db.yieldIfContendedSafely()) {
+                        operationsSinceYield = 0;
+                    }
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            // Rows could have been cached from other connections before the batch was committed
+            mRowCache.invalidateAll();
+            // Notify once per URI only after the batch was committed (or rolled back)
+            if (deferred) {
+                sendDeferredNotifications();
+            }
+        }
+
+        mDbHelper.checkpointAfterBatch(numOperations);
+        return results;
+    }
+
+    /**
+     * Return the compiled statements for the current writable database.
+     * They are compiled again if the helper had to reopen the database.
+     */
+    private synchronized BookStatements getStatements() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        if (mStatements == null || !mStatements.isFor(db)) {
+            if (mStatements != null) {
+                mStatements.close();
+            }
+            mStatements = new BookStatements(db);
+        }
+        return mStatements;
+    }
+
+    /**
+     * Start collecting the notifications of the current thread instead of sending them,
+     * until {@link #sendDeferredNotifications()} is called.
+     *
+     * @return false if they were already being collected by an enclosing write
+     */
+    private boolean deferNotifications() {
+        if (mPendingNotifications.get() != null) {
+            return false;
+        }
+        mPendingNotifications.set(new HashSet<Uri>());
+        return true;
+    }
+
+    /**
+     * Send the collected notifications once per URI, and stop collecting them.
+     */
+    private void sendDeferredNotifications() {
+        Set<Uri> changedUris = mPendingNotifications.get();
+        mPendingNotifications.remove();
+        for (Uri uri : changedUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed.
+     * While a batch is being applied, the notification is deferred until the batch ends.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Insert a supplier into the database with the given content values.
+     *
+     * @return the new Content URI for that supplier, or null if the name is already used.
+     */
+    private Uri insertSupplier(Uri uri, ContentValues contentValues) {
+        validateSupplier(contentValues, true);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long id = db.insert(SupplierEntry.TABLE_NAME, null, withSupplierSortKey(contentValues));
+        if (id == -1) {
+            BookLog.e(LOG_TAG, "Failed to insert row for {}", uri);
+            return null;
+        }
+        notifyChange(uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Find the supplier named in the values of a book, adding it if it doesn't exist yet,
+     * and store the phone number of the values in it.
+     * Must be called inside the transaction that writes the book.
+     *
+     * @return the id of the supplier, or {@link #NO_ID} if the book has no supplier
+     */
+    private long resolveSupplier(ContentValues contentValues) {
+        String name = contentValues.getAsString(BookEntry.COLUMN_SUPPLIER_NAME);
+        String phoneNumber = contentValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        if (name == null || name.isEmpty()) {
+            if (phoneNumber != null && !phoneNumber.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "Supplier phone number requires a supplier name.");
+            }
+            if (!contentValues.containsKey(BookEntry.COLUMN_SUPPLIER_NAME)) {
+                // The supplier can also be given by its id
+                Long supplierId = contentValues.getAsLong(BookEntry.COLUMN_SUPPLIER_ID);
+                return supplierId == null ? NO_ID : supplierId;
+            }
+            return NO_ID;
+        }
+        if (phoneNumber != null && phoneNumber.isEmpty()) {
+            phoneNumber = null;
+        }
+
+        BookStatements statements = getStatements();
+        long supplierId = statements.findSupplier(name);
+        if (supplierId == NO_ID) {
+            supplierId = statements.insertSupplier(name, phoneNumber);
+            notifyChange(SupplierEntry.CONTENT_URI);
+        } else if (phoneNumber != null) {
+            updateSupplierPhone(supplierId, phoneNumber);
+        }
+        return supplierId;
+    }
+
+    /**
+     * Store the phone number of the values in the current suppliers of the books picked by
+     * the selection, for an update that doesn't name the supplier. A book without a supplier
+     * has nowhere to store it, so it is rejected.
+     * Must be called inside the transaction that writes the books.
+     */
+    private void updateSupplierPhoneOfBooks(SQLiteDatabase db, ContentValues contentValues,
+                                           String selection, String[] selectionArgs) {
+        String phoneNumber = contentValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        Set<Long> supplierIds = new HashSet<>();
+        Cursor cursor = db.query(BookEntry.TABLE_NAME, new String[]{BookEntry.COLUMN_SUPPLIER_ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.isNull(0)) {
+                    throw new IllegalArgumentException(
+                            "Supplier phone number requires a supplier name.");
+                }
+                supplierIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (phoneNumber != null && !phoneNumber.isEmpty()) {
+            for (long supplierId : supplierIds) {
+                updateSupplierPhone(supplierId, phoneNumber);
+            }
+        }
+    }
+
+    /**
+     * Increment the version of the books picked by the selection, without changing their
+     * columns. The change trigger gives them a new change sequence too.
+     *
+     * @return the number of books updated
+     */
+    private static int incrementVersions(SQLiteDatabase db, String selection,
+                                         String[] selectionArgs) {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + BookEntry.TABLE_NAME
+                + " SET " + BookEntry.COLUMN_VERSION + " = " + BookEntry.COLUMN_VERSION + " + 1"
+                + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection));
+        try {
+            statement.bindAllArgsAsStrings(selectionArgs);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void updateSupplierPhone(long supplierId, String phoneNumber) {
+        if (getStatements().updateSupplierPhone(supplierId, phoneNumber) != 0) {
+            // Every book of this supplier shows the new phone number
+            mRowCache.invalidateAll();
+            notifyChange(ContentUris.withAppendedId(SupplierEntry.CONTENT_URI, supplierId));
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+    }
+
+    /**
+     * Return the values to write into the books table: the supplier columns of the values
+     * are replaced by the id of the supplier, and the sort key of the title is added.
+     */
+    private static ContentValues toBookRow(ContentValues contentValues, long supplierId) {
+        ContentValues row = withTitleKey(contentValues);
+        row.remove(BookEntry.COLUMN_SUPPLIER_NAME);
+        row.remove(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        if (supplierId == NO_ID) {
+            row.putNull(BookEntry.COLUMN_SUPPLIER_ID);
+        } else {
+            row.put(BookEntry.COLUMN_SUPPLIER_ID, supplierId);
+        }
+        return row;
+    }
+
+    /**
+     * Return a copy of the values of a book with the sort key of the product name,
+     * if they have a product name.
+     */
+    private static ContentValues withTitleKey(ContentValues contentValues) {
+        ContentValues row = new ContentValues(contentValues);
+        if (contentValues.containsKey(BookEntry.COLUMN_PRODUCT_NAME)) {
+            row.put(BookEntry.COLUMN_TITLE_KEY, SortKeys.normalize(
+                    contentValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME)));
+        }
+        return row;
+    }
+
+    /**
+     * Return a copy of the values of a supplier with the sort key of its name,
+     * if they have a name.
+     */
+    private static ContentValues withSupplierSortKey(ContentValues contentValues) {
+        ContentValues row = new ContentValues(contentValues);
+        if (contentValues.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)) {
+            row.put(SupplierEntry.COLUMN_SORT_KEY, SortKeys.normalize(
+                    contentValues.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME)));
+        }
+        return row;
+    }
+
+    /**
+     * Return true if the values change the supplier of a book, by name or by id.
+     */
+    private static boolean changesSupplier(ContentValues contentValues) {
+        return contentValues.containsKey(BookEntry.COLUMN_SUPPLIER_NAME)
+                || contentValues.containsKey(BookEntry.COLUMN_SUPPLIER_ID);
+    }
+
+    /**
+     * Return a selection of the books table that picks the books matching the given
+     * selection, which can use the supplier columns of the joined view.
+     * The deleted books are never picked.
+     */
+    private static String selectBooks(String selection) {
+        if (selection == null) {
+            return SELECT_LIVE_BOOKS;
+        }
+        return BookEntry._ID + " IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Return the selection of the books that follow a book in the order of the given sort
+     * columns, the last of which is the _ID. The sort keys of that book are either bound,
+     * every key twice and then the id, or read by subqueries of its id, which SQLite runs
+     * once: every parameter is then bound to the id. A book that was purged has no row to
+     * read, so the caller should bind the keys.
+     * Each column is compared with &gt;= before the next ones, so the index scan starts
+     * at the book instead of at the first book.
+     * For the title order: title_key&gt;=K AND (title_key&gt;K OR _id&gt;?), where K
+     * is the title key of the book.
+     */
+    private static String pageSelection(String[] sortColumns, boolean keysBound) {
+        String selection = BookEntry._ID + ">?";
+        for (int i = sortColumns.length - 2; i >= 0; i--) {
+            String key = keysBound ? "?" : "(SELECT " + sortColumns[i] + " FROM "
+                    + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + "=?)";
+            selection = sortColumns[i] + ">=" + key + " AND (" + sortColumns[i] + ">" + key
+                    + " OR " + (i == sortColumns.length - 2 ? selection : "(" + selection + ")")
+                    + ")";
+        }
+        return selection;
+    }
+
+    /**
+     * Validate the content values of a supplier.
+     * When a new supplier is inserted, the name is required.
+     * The sort key is set by the provider.
+     */
+    private static void validateSupplier(ContentValues contentValues, boolean isNew) {
+        if (contentValues.containsKey(SupplierEntry.COLUMN_SORT_KEY)) {
+            throw new IllegalArgumentException(
+                    "The sort key of a supplier is set by the provider.");
+        }
+        if (isNew || contentValues.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)) {
+            String name = contentValues.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME);
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("Supplier requires a name.");
+            }
+        }
+    }
+
+    /**
+     * Validate the content values of a new book before they are written to the database.
+     * Throws an {@link IllegalArgumentException} if a required value is missing or invalid.
+     * {@link BookImporter} uses the same rules to skip the invalid rows of a catalogue.
+     */
+    static void validateBook(ContentValues contentValues) {
+        rejectProviderColumns(contentValues);
         // The product name cannot be null.
         String productName = contentValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME);
-        Log.v(LOG_TAG, "The product name: " + productName);
+        BookLog.v(LOG_TAG, "The product name: {}", productName);
         if (productName == null || productName.isEmpty()) {
-            Log.v(LOG_TAG, "The product name is null!");
+            BookLog.v(LOG_TAG, "The product name is null!");
             throw new IllegalArgumentException("Book requires a name.");
         }
         // The price cannot be null.
         // The price should be a positive value.
-        Float price = contentValues.getAsFloat(BookEntry.COLUMN_PRICE);
-        Log.v(LOG_TAG, "The price: " + price);
+        Long price = contentValues.getAsLong(BookEntry.COLUMN_PRICE_CENTS);
+        BookLog.v(LOG_TAG, "The price: {}", price);
         if (price == null || price < 0) {
-            Log.v(LOG_TAG, "The price is not valid!");
+            BookLog.v(LOG_TAG, "The price is not valid!");
             throw new IllegalArgumentException("Book requires valid a price.");
         }
         // The quantity cannot be null.
         // The quantity should be a positive value.
         Integer quantity = contentValues.getAsInteger(BookEntry.COLUMN_QUANTITY);
-        Log.v(LOG_TAG, "The quantity: " + quantity);
+        BookLog.v(LOG_TAG, "The quantity: {}", quantity);
         if (quantity == null || quantity < 0) {
-            Log.v(LOG_TAG, "The quantity is not valid.");
+            BookLog.v(LOG_TAG, "The quantity is not valid.");
             throw new IllegalArgumentException("Book requires a valid quantity.");
         }
+        // The supplier phone number belongs to a supplier, so it needs the supplier name.
+        String supplierName = contentValues.getAsString(BookEntry.COLUMN_SUPPLIER_NAME);
+        String supplierPhoneNumber =
+                contentValues.getAsString(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        if ((supplierName == null || supplierName.isEmpty())
+                && supplierPhoneNumber != null && !supplierPhoneNumber.isEmpty()) {
+            throw new IllegalArgumentException("Supplier phone number requires a supplier name.");
+        }
+    }
+
+    /**
+     * The version of a book is only written by the provider, so a caller can't hide
+     * its write from the others by setting it; neither are the change sequence and the
+     * sync id, which the sync relies on, nor the sort keys, which follow the names.
+     * A book is deleted through its URI.
+     */
+    private static void rejectProviderColumns(ContentValues contentValues) {
+        if (contentValues.containsKey(BookEntry.COLUMN_VERSION)) {
+            throw new IllegalArgumentException("The version of a book is set by the provider.");
+        }
+        if (contentValues.containsKey(BookEntry.COLUMN_CHANGE_SEQ)
+                || contentValues.containsKey(BookEntry.COLUMN_SYNC_ID)) {
+            throw new IllegalArgumentException(
+                    "The sync columns of a book are set by the provider.");
+        }
+        if (contentValues.containsKey(BookEntry.COLUMN_TITLE_KEY)
+                || contentValues.containsKey(BookEntry.COLUMN_SUPPLIER_KEY)) {
+            throw new IllegalArgumentException("The sort keys of a book are set by the provider.");
+        }
+        if (contentValues.containsKey(BookEntry.COLUMN_DELETED)) {
+            throw new IllegalArgumentException("A book is deleted by deleting its URI.");
+        }
+    }
 
+    /**
+     * Mark the books that match the selection of the books table as deleted, in a single
+     * statement that also increments their version. The triggers remove them from the
+     * summary and the search tables.
+     *
+     * @return the number of books that were marked
+     */
+    private static int markDeleted(SQLiteDatabase db, String selection,
+                                   String[] selectionArgs) {
+        SQLiteStatement statement = db.compileStatement("UPDATE " + BookEntry.TABLE_NAME
+                + " SET " + BookEntry.COLUMN_DELETED + " = 1, " + BookEntry.COLUMN_VERSION
+                + " = " + BookEntry.COLUMN_VERSION + " + 1 WHERE "
+                + DatabaseUtils.concatenateWhere(SELECT_LIVE_BOOKS, selection));
+        try {
+            statement.bindAllArgsAsStrings(selectionArgs);
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Return the change sequence of the last change stored by the back office,
+     * or 0 if nothing was pushed yet.
+     */
+    private static long getPushedSeq(SQLiteDatabase db) {
+        String pushedSeq = BookDbHelper.getSyncState(db, BookDbHelper.SYNC_STATE_PUSHED_SEQ);
+        return pushedSeq == null ? 0 : Long.parseLong(pushedSeq);
+    }
+
+    /**
+     * Record that the back office stored the changes up to the given change sequence.
+     * An older acknowledgement doesn't move it back.
+     */
+    private void acknowledgePush(long changeSeq) {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        long id = db.insert(BookEntry.TABLE_NAME, null, contentValues);
+        db.beginTransaction();
+        try {
+            if (changeSeq > getPushedSeq(db)) {
+                BookDbHelper.putSyncState(db, BookDbHelper.SYNC_STATE_PUSHED_SEQ, changeSeq);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
 
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+    /**
+     * Write the changes received from the back office, and store the token of the last one
+     * in the same transaction, so they are never applied without the token or pulled twice.
+     * A change is a book with its {@link BookEntry#COLUMN_SYNC_ID}, and
+     * {@link BookEntry#COLUMN_DELETED} set to 1 if the book was deleted.
+     * If every change of this device was already pushed, the books written here are marked
+     * as pushed too: they come from the back office, sending them back is useless.
+     *
+     * @return the number of books that changed
+     */
+    private int applyChanges(List<ContentValues> changes, String pullToken) {
+        // Validate every change first, so a bad one doesn't leave a half-written batch behind
+        for (ContentValues change : changes) {
+            validateChange(change);
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int rowsChanged = 0;
+        boolean deleted = false;
+        boolean deferred = deferNotifications();
+        db.beginTransaction();
+        BookSyncApplier applier = new BookSyncApplier(db);
+        try {
+            boolean pushedAll = !hasUnpushedChanges(db);
+            for (ContentValues change : changes) {
+                String syncId = change.getAsString(BookEntry.COLUMN_SYNC_ID);
+                boolean changed;
+                if (isDeletedChange(change)) {
+                    changed = applier.applyDelete(syncId);
+                    deleted |= changed;
+                } else {
+                    changed = applier.applyBook(syncId, change, resolveSupplier(change));
+                }
+                if (changed) {
+                    rowsChanged++;
+                }
+            }
+            if (pushedAll) {
+                BookDbHelper.putSyncState(db, BookDbHelper.SYNC_STATE_PUSHED_SEQ,
+                        Long.parseLong(BookDbHelper.getSyncState(db,
+                                BookDbHelper.SYNC_STATE_CHANGE_SEQ)));
+            }
+            BookDbHelper.putSyncState(db, BookDbHelper.SYNC_STATE_PULL_TOKEN, pullToken);
+            db.setTransactionSuccessful();
+            if (rowsChanged != 0) {
+                notifyChange(BookEntry.CONTENT_URI);
+            }
+        } finally {
+            applier.close();
+            db.endTransaction();
+            if (rowsChanged != 0) {
+                mRowCache.invalidateAll();
+            }
+            if (deferred) {
+                sendDeferredNotifications();
+            }
         }
 
-        // Notify all listeners that the data has changed for the book content URI
-        // uri: content://com.example.android.books/books
-        getContext().getContentResolver().notifyChange(uri, null);
+        mDbHelper.checkpointAfterBatch(rowsChanged);
+        if (deleted) {
+            mCompactor.requestCompaction();
+        }
+        return rowsChanged;
+    }
 
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it.
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Return true if a book changed after the last change stored by the back office.
+     */
+    private static boolean hasUnpushedChanges(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT EXISTS (SELECT 1 FROM "
+                        + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_CHANGE_SEQ + " > ?)",
+                new String[]{String.valueOf(getPushedSeq(db))}) != 0;
+    }
+
+    /**
+     * Validate a change received from the back office. A book that is not deleted
+     * must follow the same rules as a new book.
+     */
+    private static void validateChange(ContentValues change) {
+        String syncId = change.getAsString(BookEntry.COLUMN_SYNC_ID);
+        if (syncId == null || syncId.isEmpty()) {
+            throw new IllegalArgumentException("A change requires a sync id.");
+        }
+        if (change.containsKey(BookEntry.COLUMN_SUPPLIER_ID)) {
+            // The ids of the suppliers are only known to this database
+            throw new IllegalArgumentException("A change gives the name of its supplier.");
+        }
+        if (!isDeletedChange(change)) {
+            ContentValues book = new ContentValues(change);
+            book.remove(BookEntry.COLUMN_SYNC_ID);
+            book.remove(BookEntry.COLUMN_DELETED);
+            validateBook(book);
+        }
+    }
+
+    private static boolean isDeletedChange(ContentValues change) {
+        Integer deleted = change.getAsInteger(BookEntry.COLUMN_DELETED);
+        return deleted != null && deleted != 0;
     }
 
     /**
      * Delete the data at the given selection and selection arguments.
+     * The books are only marked as deleted, which is quick and doesn't fragment the file;
+     * they are purged later by {@link BookCompactor}, in small transactions.
      */
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection,
                       @Nullable String[] selectionArgs) {
+        final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        boolean failed = true;
+        int rowsDeleted = 0;
+        try {
+            rowsDeleted = deleteUri(uri, match, selection, selectionArgs);
+            failed = false;
+            return rowsDeleted;
+        } finally {
+            mMetrics.record(ProviderMetrics.DELETE, match, start, rowsDeleted, failed);
+        }
+    }
 
+    private int deleteUri(Uri uri, int match, String selection, String[] selectionArgs) {
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         // The number of rows that are deleted
         int rowsDeleted;
-        final int match = sUriMatcher.match(uri);
         switch (match) {
             case BOOKS:
                 // Delete all the rows that match the selection and selection arguments
-                rowsDeleted = db.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = markDeleted(db, selectBooks(selection), selectionArgs);
                 break;
             case BOOK_ID:
-                selection = BookEntry._ID + "=?";
                 // Extract the book id from the URI.
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = db.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                long id = ContentUris.parseId(uri);
+                if (selection == null) {
+                    rowsDeleted = getStatements().deleteBook(id);
+                } else {
+                    selection = DatabaseUtils.concatenateWhere(BookEntry._ID + "=?",
+                            selectBooks(selection));
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(
+                            new String[]{String.valueOf(id)}, selectionArgs);
+                    rowsDeleted = markDeleted(db, selection, selectionArgs);
+                }
                 break;
+            case SUPPLIERS:
+            case SUPPLIER_ID:
+                return deleteSuppliers(uri, match, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Deletion is not supported for uri " + uri);
         }
 
         // If one or more rows were deleted, notify all listeners that the data
-        // at the given URI has changed
+        // at the given URI has changed: a single book, or the whole table
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == BOOK_ID) {
+                mRowCache.invalidate(ContentUris.parseId(uri));
+            } else {
+                mRowCache.invalidateAll();
+            }
+            notifyChange(uri);
+            mCompactor.requestCompaction();
         }
         // Return the number of rows deleted
         return rowsDeleted;
@@ -225,28 +1661,142 @@ public class BookProvider extends ContentProvider {
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues,
                       @Nullable String selection, @Nullable String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
+        long start = System.nanoTime();
+        boolean failed = true;
+        int rowsUpdated = 0;
+        try {
+            rowsUpdated = updateUri(uri, match, contentValues, selection, selectionArgs);
+            failed = false;
+            return rowsUpdated;
+        } finally {
+            mMetrics.record(ProviderMetrics.UPDATE, match, start, rowsUpdated, failed);
+        }
+    }
+
+    private int updateUri(Uri uri, int match, ContentValues contentValues, String selection,
+                          String[] selectionArgs) {
         switch (match) {
             case BOOKS:
-                return updateBook(uri, contentValues, selection, selectionArgs);
+                return updateBook(uri, contentValues, NO_ID, selectBooks(selection),
+                        selectionArgs);
             case BOOK_ID:
                 // For the BOOK_ID code, extract out the ID from the URI,
                 // so we know which row to update.
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateBook(uri, contentValues, selection, selectionArgs);
+                long bookId = ContentUris.parseId(uri);
+                selection = DatabaseUtils.concatenateWhere(BookEntry._ID + "=?",
+                        SELECT_LIVE_BOOKS);
+                selectionArgs = new String[]{String.valueOf(bookId)};
+                return updateBook(uri, contentValues, bookId, selection, selectionArgs);
+            case BOOK_QUANTITY:
+                // The ID is the second to last segment: books/#/quantity
+                long id = Long.parseLong(uri.getPathSegments().get(1));
+                return adjustQuantity(id, contentValues);
+            case SUPPLIERS:
+                return updateSuppliers(uri, contentValues, selection, selectionArgs);
+            case SUPPLIER_ID:
+                selection = DatabaseUtils.concatenateWhere(SupplierEntry._ID + "=?", selection);
+                selectionArgs = DatabaseUtils.appendSelectionArgs(
+                        new String[]{String.valueOf(ContentUris.parseId(uri))}, selectionArgs);
+                return updateSuppliers(uri, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
+    /**
+     * Update the suppliers that match the selection. The books of these suppliers
+     * change too, so the listeners of the books are notified as well.
+     */
+    private int updateSuppliers(Uri uri, ContentValues contentValues, String selection,
+                                String[] selectionArgs) {
+        validateSupplier(contentValues, false);
+        if (contentValues.size() == 0) {
+            return 0;
+        }
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        // The triggers copy a new sort key to the books of the suppliers
+        int rowsUpdated = db.update(SupplierEntry.TABLE_NAME,
+                withSupplierSortKey(contentValues), selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            mRowCache.invalidateAll();
+            notifyChange(uri);
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the suppliers at the given URI. Their books are kept, without a supplier.
+     */
+    private int deleteSuppliers(Uri uri, int match, String selection, String[] selectionArgs) {
+        if (match == SUPPLIER_ID) {
+            selection = DatabaseUtils.concatenateWhere(SupplierEntry._ID + "=?", selection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(
+                    new String[]{String.valueOf(ContentUris.parseId(uri))}, selectionArgs);
+        }
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        // The foreign key clears the supplier_id of their books
+        int rowsDeleted = db.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+        if (rowsDeleted != 0) {
+            mRowCache.invalidateAll();
+            notifyChange(uri);
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Add the signed {@link BookEntry#QUANTITY_DELTA} to the quantity of the given book
+     * in a single statement, without reading the row first.
+     * Return 0 if the book doesn't exist or the quantity would become negative.
+     */
+    private int adjustQuantity(long id, ContentValues contentValues) {
+        Integer delta = contentValues == null
+                ? null : contentValues.getAsInteger(BookEntry.QUANTITY_DELTA);
+        if (delta == null) {
+            throw new IllegalArgumentException("Quantity update requires a delta.");
+        }
+
+        int rowsUpdated = getStatements().adjustQuantity(id, delta);
+        mRowCache.invalidate(id);
+
+        if (rowsUpdated != 0) {
+            // uri: content://com.example.android.books/books/#
+            notifyChange(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id));
+        }
+        return rowsUpdated;
+    }
+
     /**
      * Update books in the database with the given content values.
      * Apply the changes to the rows specified in the selection and selection arguments.
+     * When a single book is updated, its id is passed too, so a full row can be written
+     * with the cached update statement. Otherwise the id is {@link #NO_ID}.
+     * The update of a single book can carry the {@link BookEntry#EXPECTED_VERSION}: the row
+     * is only written if it still has that version, checked by the same statement, so a
+     * conflicting write costs no lock and no read. Inside a batch, use
+     * {@link ContentProviderOperation.Builder#withExpectedCount(int)} to roll back on conflicts.
      * Return the number of rows that were successfully updated.
      */
-    private int updateBook(Uri uri, ContentValues contentValues, String selection,
+    private int updateBook(Uri uri, ContentValues contentValues, long id, String selection,
                            String[] selectionArgs) {
         // Data validation.
+        rejectProviderColumns(contentValues);
+        long expectedVersion = ANY_VERSION;
+        if (contentValues.containsKey(BookEntry.EXPECTED_VERSION)) {
+            if (id == NO_ID) {
+                throw new IllegalArgumentException(
+                        "An expected version requires the URI of a single book.");
+            }
+            Long version = contentValues.getAsLong(BookEntry.EXPECTED_VERSION);
+            if (version == null || version < 1) {
+                throw new IllegalArgumentException("Invalid expected version " + version);
+            }
+            expectedVersion = version;
+            // Don't change the values of the caller
+            contentValues = new ContentValues(contentValues);
+            contentValues.remove(BookEntry.EXPECTED_VERSION);
+        }
         // The product name cannot be null.
         if (contentValues.containsKey(BookEntry.COLUMN_PRODUCT_NAME)) {
             String productName = contentValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME);
@@ -256,8 +1806,8 @@ public class BookProvider extends ContentProvider {
         }
         // The price cannot be null.
         // The price should be a positive value.
-        if (contentValues.containsKey(BookEntry.COLUMN_PRICE)) {
-            Float price = contentValues.getAsFloat(BookEntry.COLUMN_PRICE);
+        if (contentValues.containsKey(BookEntry.COLUMN_PRICE_CENTS)) {
+            Long price = contentValues.getAsLong(BookEntry.COLUMN_PRICE_CENTS);
             if (price == null || price < 0) {
                 throw new IllegalArgumentException("Book requires valid a price.");
             }
@@ -276,15 +1826,63 @@ public class BookProvider extends ContentProvider {
             return 0;
         }
 
+        // Perform the update on the database and get the number of rows affected.
+        // The supplier and the books are written together.
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = db.update(BookEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+        int rowsUpdated;
+        boolean deferred = deferNotifications();
+        db.beginTransaction();
+        try {
+            if (id != NO_ID && BookStatements.isFullRow(contentValues)) {
+                rowsUpdated = getStatements().updateBook(id, contentValues,
+                        resolveSupplier(contentValues), expectedVersion);
+            } else {
+                if (expectedVersion != ANY_VERSION) {
+                    selection = DatabaseUtils.concatenateWhere(selection,
+                            BookEntry.COLUMN_VERSION + "=?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[]{String.valueOf(expectedVersion)});
+                }
+                ContentValues row;
+                if (changesSupplier(contentValues)) {
+                    row = toBookRow(contentValues, resolveSupplier(contentValues));
+                } else if (contentValues.containsKey(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER)) {
+                    // The phone number belongs to the supplier the books already have
+                    updateSupplierPhoneOfBooks(db, contentValues, selection, selectionArgs);
+                    row = withTitleKey(contentValues);
+                    row.remove(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+                } else {
+                    row = withTitleKey(contentValues);
+                }
+                if (row.size() == 0) {
+                    // Only the supplier was written: the books still get a new version and
+                    // change sequence, so an editor holding the old version sees the change
+                    rowsUpdated = incrementVersions(db, selection, selectionArgs);
+                } else {
+                    // The versions of the rows are incremented by a trigger
+                    rowsUpdated = db.update(BookEntry.TABLE_NAME, row, selection,
+                            selectionArgs);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            if (deferred) {
+                sendDeferredNotifications();
+            }
+        }
         // If one or more rows were updated, then notify all listeners
         // that the data at the URI has changed.
         if (rowsUpdated != 0) {
-            // Notify all listeners that the data has changed for the book content URI
-            // uri: content://com.example.android.books/#
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (id != NO_ID) {
+                mRowCache.invalidate(id);
+            } else {
+                mRowCache.invalidateAll();
+            }
+            // Notify all listeners that the data has changed for the book content URI.
+            // Single book updates only notify the URI of that book.
+            // uri: content://com.example.android.books/books/# or content://com.example.android.books/books
+            notifyChange(uri);
         }
         // Return the number of rows updated
         return rowsUpdated;
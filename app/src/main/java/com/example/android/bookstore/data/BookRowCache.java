@@ -0,0 +1,187 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.LruCache;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+/**
+ * {@link BookRowCache} is a read-through cache of single book rows, used by
+ * {@link BookProvider} for the queries of a single book by its _ID.
+ * The rows are kept in a {@link LruCache} bounded by their approximate size in bytes.
+ * The provider invalidates the cache on its own insert, update and delete paths.
+ */
+final class BookRowCache {
+
+    /**
+     * Maximum approximate size of the cached rows, in bytes
+     */
+    private static final int MAX_SIZE_BYTES = 256 * 1024;
+
+    /**
+     * Approximate size of a cached row without its values, in bytes
+     */
+    private static final int ROW_OVERHEAD_BYTES = 64;
+
+    /**
+     * The columns of a book row, in the order in which the values are cached
+     */
+    private static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRICE_CENTS,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER,
+            BookEntry.COLUMN_VERSION
+    };
+
+    private final LruCache<Long, Object[]> mRows = new LruCache<Long, Object[]>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(Long id, Object[] row) {
+            int size = ROW_OVERHEAD_BYTES;
+            for (Object value : row) {
+                size += value instanceof String ? 2 * ((String) value).length() : 8;
+            }
+            return size;
+        }
+    };
+
+    /**
+     * Incremented on every invalidation, so a row read before a write is never cached after it
+     */
+    private long mGeneration;
+
+    /**
+     * Return a cursor over the book with the given id, containing the requested columns.
+     * The row is read from the database only if it isn't cached yet.
+     * Return null if the projection asks for columns that are not cached,
+     * in which case the caller should query the database itself.
+     */
+    Cursor query(SQLiteDatabase database, long id, String[] projection) {
+        int[] columnIndexes = getColumnIndexes(projection);
+        if (columnIndexes == null) {
+            return null;
+        }
+
+        Object[] row = mRows.get(id);
+        if (row == null) {
+            long generation;
+            synchronized (this) {
+                generation = mGeneration;
+            }
+            row = readRow(database, id);
+            if (row != null) {
+                synchronized (this) {
+                    // Don't cache the row if it was changed while it was being read
+                    if (generation == mGeneration) {
+                        mRows.put(id, row);
+                    }
+                }
+            }
+        }
+
+        String[] columns = projection != null ? projection : COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columnIndexes.length];
+            for (int i = 0; i < columnIndexes.length; i++) {
+                values[i] = row[columnIndexes[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Forget the cached row of the book with the given id.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Forget all the cached rows.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.evictAll();
+    }
+
+    int hitCount() {
+        return mRows.hitCount();
+    }
+
+    int missCount() {
+        return mRows.missCount();
+    }
+
+    int evictionCount() {
+        return mRows.evictionCount();
+    }
+
+    /**
+     * Return the index in {@link #COLUMNS} of every column of the projection,
+     * or null if one of them isn't cached.
+     */
+    private static int[] getColumnIndexes(String[] projection) {
+        if (projection == null) {
+            int[] indexes = new int[COLUMNS.length];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            return indexes;
+        }
+        int[] indexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indexes[i] = -1;
+            for (int j = 0; j < COLUMNS.length; j++) {
+                if (COLUMNS[j].equals(projection[i])) {
+                    indexes[i] = j;
+                    break;
+                }
+            }
+            if (indexes[i] == -1) {
+                return null;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Read all the cached columns of the book from the database, or return null if
+     * the book doesn't exist.
+     */
+    private static Object[] readRow(SQLiteDatabase database, long id) {
+        Cursor cursor = database.query(BookEntry.VIEW_NAME, COLUMNS, BookEntry._ID + "=?",
+                new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Object[] row = new Object[COLUMNS.length];
+            for (int i = 0; i < COLUMNS.length; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_NULL:
+                        row[i] = null;
+                        break;
+                    default:
+                        row[i] = cursor.getString(i);
+                        break;
+                }
+            }
+            return row;
+        } finally {
+            cursor.close();
+        }
+    }
+}
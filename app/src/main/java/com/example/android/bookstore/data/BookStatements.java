@@ -0,0 +1,400 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+/**
+ * {@link BookStatements} keeps the compiled statements of the fixed-shape operations that
+ * {@link BookProvider} runs most often, so their SQL is parsed and prepared only once
+ * per database connection instead of on every call.
+ * Each statement is locked while it is being bound and executed, because the provider
+ * can be called from several threads at the same time. Every method joins or starts a
+ * transaction before it takes any lock, so the thread already holds the primary connection:
+ * a thread holding the lock of a statement never waits for the connection, and can't
+ * deadlock with a batch that holds the connection and waits for that lock.
+ * Operations with an arbitrary selection still go through the generic SQLiteDatabase methods.
+ */
+final class BookStatements {
+
+    /**
+     * The columns of a full book row as written by the callers.
+     * The supplier columns are stored in the suppliers table.
+     */
+    private static final String[] BOOK_COLUMNS = {
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRICE_CENTS,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+    };
+
+    private static final String SQL_INSERT_BOOK = "INSERT INTO " + BookEntry.TABLE_NAME + " ("
+            + BookEntry.COLUMN_PRODUCT_NAME + ", "
+            + BookEntry.COLUMN_PRICE_CENTS + ", "
+            + BookEntry.COLUMN_QUANTITY + ", "
+            + BookEntry.COLUMN_SUPPLIER_ID + ", "
+            + BookEntry.COLUMN_TITLE_KEY + ") VALUES (?, ?, ?, ?, ?)";
+
+    /**
+     * Replaces a book row that is not deleted and increments its version. The last parameter
+     * is the version the row must have, or null for any version.
+     */
+    private static final String SQL_UPDATE_BOOK = "UPDATE " + BookEntry.TABLE_NAME + " SET "
+            + BookEntry.COLUMN_PRODUCT_NAME + " = ?, "
+            + BookEntry.COLUMN_PRICE_CENTS + " = ?, "
+            + BookEntry.COLUMN_QUANTITY + " = ?, "
+            + BookEntry.COLUMN_SUPPLIER_ID + " = ?, "
+            + BookEntry.COLUMN_TITLE_KEY + " = ?, "
+            + BookEntry.COLUMN_VERSION + " = " + BookEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + BookEntry._ID + " = ? AND " + BookEntry.COLUMN_DELETED + " = 0 AND "
+            + BookEntry.COLUMN_VERSION + " = IFNULL(?, " + BookEntry.COLUMN_VERSION + ")";
+
+    /**
+     * The number of parameters bound by {@link #bindBook(SQLiteStatement, ContentValues, long)}
+     */
+    private static final int BOOK_PARAMETERS = 5;
+
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID
+            + " FROM " + SupplierEntry.TABLE_NAME
+            + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = ?";
+
+    private static final String SQL_INSERT_SUPPLIER = "INSERT INTO " + SupplierEntry.TABLE_NAME
+            + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ", "
+            + SupplierEntry.COLUMN_SORT_KEY + ") VALUES (?, ?, ?)";
+
+    /**
+     * Changes the phone number of a supplier, only if it is different.
+     */
+    private static final String SQL_UPDATE_SUPPLIER_PHONE = "UPDATE " + SupplierEntry.TABLE_NAME
+            + " SET " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " = ?"
+            + " WHERE " + SupplierEntry._ID + " = ? AND "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " IS NOT ?";
+
+    /**
+     * Marks a book as deleted and increments its version. The row is purged later.
+     */
+    private static final String SQL_DELETE_BOOK = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_DELETED + " = 1, "
+            + BookEntry.COLUMN_VERSION + " = " + BookEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + BookEntry._ID + " = ? AND " + BookEntry.COLUMN_DELETED + " = 0";
+
+    /**
+     * Adds a signed delta to the quantity of a single book and increments its version.
+     * The quantity is never allowed to drop below 0. Deleted books are left as they are.
+     */
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_QUANTITY + " = " + BookEntry.COLUMN_QUANTITY + " + ?, "
+            + BookEntry.COLUMN_VERSION + " = " + BookEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + BookEntry._ID + " = ? AND " + BookEntry.COLUMN_DELETED + " = 0 AND "
+            + BookEntry.COLUMN_QUANTITY + " + ? >= 0";
+
+    private final SQLiteDatabase mDatabase;
+
+    private SQLiteStatement mInsertBook;
+    private SQLiteStatement mUpdateBook;
+    private SQLiteStatement mDeleteBook;
+    private SQLiteStatement mAdjustQuantity;
+    private SQLiteStatement mFindSupplier;
+    private SQLiteStatement mInsertSupplier;
+    private SQLiteStatement mUpdateSupplierPhone;
+
+    BookStatements(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Return true if these statements were compiled for the given database
+     */
+    boolean isFor(SQLiteDatabase database) {
+        return mDatabase == database;
+    }
+
+    /**
+     * Return true if the values contain only columns of a book row,
+     * so they can be written by {@link #insertBook(ContentValues, long)}.
+     */
+    static boolean hasOnlyBookColumns(ContentValues contentValues) {
+        for (String key : contentValues.keySet()) {
+            if (!isBookColumn(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBookColumn(String key) {
+        for (String column : BOOK_COLUMNS) {
+            if (column.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the values contain exactly the columns of a full book row,
+     * so they can be written by {@link #updateBook(long, ContentValues, long, long)}.
+     */
+    static boolean isFullRow(ContentValues contentValues) {
+        if (contentValues.size() != BOOK_COLUMNS.length) {
+            return false;
+        }
+        for (String column : BOOK_COLUMNS) {
+            if (!contentValues.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Insert a full book row. Missing optional columns are inserted as null.
+     *
+     * @param supplierId represents the id of the supplier of the book, or -1 for none
+     * @return the id of the new row, or -1 if an error occurred
+     */
+    long insertBook(ContentValues contentValues, long supplierId) {
+        mDatabase.beginTransaction();
+        try {
+            long id;
+            synchronized (this) {
+                if (mInsertBook == null) {
+                    mInsertBook = mDatabase.compileStatement(SQL_INSERT_BOOK);
+                }
+            }
+            synchronized (mInsertBook) {
+                bindBook(mInsertBook, contentValues, supplierId);
+                id = mInsertBook.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+            return id;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Replace every column of the book with the given id, if it still has the expected version.
+     *
+     * @param supplierId      represents the id of the supplier of the book, or -1 for none
+     * @param expectedVersion represents the version the book must have, or -1 for any version
+     * @return the number of rows updated, 0 if the book doesn't exist or has another version
+     */
+    int updateBook(long id, ContentValues contentValues, long supplierId, long expectedVersion) {
+        mDatabase.beginTransaction();
+        try {
+            int rowsUpdated;
+            synchronized (this) {
+                if (mUpdateBook == null) {
+                    mUpdateBook = mDatabase.compileStatement(SQL_UPDATE_BOOK);
+                }
+            }
+            synchronized (mUpdateBook) {
+                bindBook(mUpdateBook, contentValues, supplierId);
+                mUpdateBook.bindLong(BOOK_PARAMETERS + 1, id);
+                if (expectedVersion != -1) {
+                    mUpdateBook.bindLong(BOOK_PARAMETERS + 2, expectedVersion);
+                }
+                rowsUpdated = mUpdateBook.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Mark the book with the given id as deleted.
+     *
+     * @return the number of rows marked, 0 if the book doesn't exist or was already deleted
+     */
+    int deleteBook(long id) {
+        mDatabase.beginTransaction();
+        try {
+            int rowsDeleted;
+            synchronized (this) {
+                if (mDeleteBook == null) {
+                    mDeleteBook = mDatabase.compileStatement(SQL_DELETE_BOOK);
+                }
+            }
+            synchronized (mDeleteBook) {
+                mDeleteBook.bindLong(1, id);
+                rowsDeleted = mDeleteBook.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+            return rowsDeleted;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Add the signed delta to the quantity of the book with the given id.
+     *
+     * @return the number of rows updated, 0 if the quantity would become negative
+     */
+    int adjustQuantity(long id, int delta) {
+        mDatabase.beginTransaction();
+        try {
+            int rowsUpdated;
+            synchronized (this) {
+                if (mAdjustQuantity == null) {
+                    mAdjustQuantity = mDatabase.compileStatement(SQL_ADJUST_QUANTITY);
+                }
+            }
+            synchronized (mAdjustQuantity) {
+                mAdjustQuantity.bindLong(1, delta);
+                mAdjustQuantity.bindLong(2, id);
+                mAdjustQuantity.bindLong(3, delta);
+                rowsUpdated = mAdjustQuantity.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Return the id of the supplier with the given name, or -1 if there is none.
+     */
+    long findSupplier(String name) {
+        mDatabase.beginTransaction();
+        try {
+            long id;
+            synchronized (this) {
+                if (mFindSupplier == null) {
+                    mFindSupplier = mDatabase.compileStatement(SQL_FIND_SUPPLIER);
+                }
+            }
+            synchronized (mFindSupplier) {
+                mFindSupplier.bindString(1, name);
+                try {
+                    id = mFindSupplier.simpleQueryForLong();
+                } catch (SQLiteDoneException e) {
+                    id = -1;
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+            return id;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Insert a new supplier.
+     *
+     * @return the id of the new row, or -1 if an error occurred
+     */
+    long insertSupplier(String name, String phoneNumber) {
+        mDatabase.beginTransaction();
+        try {
+            long id;
+            synchronized (this) {
+                if (mInsertSupplier == null) {
+                    mInsertSupplier = mDatabase.compileStatement(SQL_INSERT_SUPPLIER);
+                }
+            }
+            synchronized (mInsertSupplier) {
+                mInsertSupplier.clearBindings();
+                mInsertSupplier.bindString(1, name);
+                bindStringOrNull(mInsertSupplier, 2, phoneNumber);
+                mInsertSupplier.bindString(3, SortKeys.normalize(name));
+                id = mInsertSupplier.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+            return id;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Change the phone number of the supplier with the given id.
+     *
+     * @return the number of rows updated, 0 if the phone number didn't change
+     */
+    int updateSupplierPhone(long id, String phoneNumber) {
+        mDatabase.beginTransaction();
+        try {
+            int rowsUpdated;
+            synchronized (this) {
+                if (mUpdateSupplierPhone == null) {
+                    mUpdateSupplierPhone = mDatabase.compileStatement(SQL_UPDATE_SUPPLIER_PHONE);
+                }
+            }
+            synchronized (mUpdateSupplierPhone) {
+                mUpdateSupplierPhone.bindString(1, phoneNumber);
+                mUpdateSupplierPhone.bindLong(2, id);
+                mUpdateSupplierPhone.bindString(3, phoneNumber);
+                rowsUpdated = mUpdateSupplierPhone.executeUpdateDelete();
+            }
+            mDatabase.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Release all the compiled statements.
+     */
+    synchronized void close() {
+        closeStatement(mInsertBook);
+        closeStatement(mUpdateBook);
+        closeStatement(mDeleteBook);
+        closeStatement(mAdjustQuantity);
+        closeStatement(mFindSupplier);
+        closeStatement(mInsertSupplier);
+        closeStatement(mUpdateSupplierPhone);
+        mInsertBook = null;
+        mUpdateBook = null;
+        mDeleteBook = null;
+        mAdjustQuantity = null;
+        mFindSupplier = null;
+        mInsertSupplier = null;
+        mUpdateSupplierPhone = null;
+    }
+
+    private static void closeStatement(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+
+    /**
+     * Bind the values of a book to the first {@link #BOOK_PARAMETERS} parameters
+     * of the statement. The supplier columns were already resolved to the supplier id,
+     * and the sort key of the title follows them.
+     */
+    private static void bindBook(SQLiteStatement statement, ContentValues contentValues,
+                                 long supplierId) {
+        statement.clearBindings();
+        statement.bindString(1, contentValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME));
+        statement.bindLong(2, contentValues.getAsLong(BookEntry.COLUMN_PRICE_CENTS));
+        statement.bindLong(3, contentValues.getAsInteger(BookEntry.COLUMN_QUANTITY));
+        if (supplierId == -1) {
+            statement.bindNull(4);
+        } else {
+            statement.bindLong(4, supplierId);
+        }
+        statement.bindString(5, SortKeys.normalize(
+                contentValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME)));
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
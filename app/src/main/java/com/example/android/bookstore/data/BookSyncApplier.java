@@ -0,0 +1,144 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+/**
+ * {@link BookSyncApplier} writes the changes received from the back office into the books
+ * table. It is used for a single batch of changes, inside its transaction: the statements
+ * are compiled once for the batch and released by {@link #close()}.
+ * <p>
+ * A book is found by its sync id, and is only written if the change differs from it.
+ * The back office also sends back the changes this device pushed; they leave the books
+ * as they are, so they don't become new changes to push.
+ */
+final class BookSyncApplier {
+
+    /**
+     * Writes a book that is not deleted, only if one of its columns is different
+     */
+    private static final String SQL_UPDATE_BOOK = "UPDATE " + BookEntry.TABLE_NAME + " SET "
+            + BookEntry.COLUMN_PRODUCT_NAME + " = ?1, "
+            + BookEntry.COLUMN_PRICE_CENTS + " = ?2, "
+            + BookEntry.COLUMN_QUANTITY + " = ?3, "
+            + BookEntry.COLUMN_SUPPLIER_ID + " = ?4, "
+            + BookEntry.COLUMN_TITLE_KEY + " = ?6"
+            + " WHERE " + BookEntry.COLUMN_SYNC_ID + " = ?5 AND "
+            + BookEntry.COLUMN_DELETED + " = 0 AND ("
+            + BookEntry.COLUMN_PRODUCT_NAME + " IS NOT ?1 OR "
+            + BookEntry.COLUMN_PRICE_CENTS + " IS NOT ?2 OR "
+            + BookEntry.COLUMN_QUANTITY + " IS NOT ?3 OR "
+            + BookEntry.COLUMN_SUPPLIER_ID + " IS NOT ?4)";
+
+    private static final String SQL_COUNT_LIVE_BOOKS = "SELECT COUNT(*) FROM "
+            + BookEntry.TABLE_NAME + " WHERE " + BookEntry.COLUMN_SYNC_ID + " = ? AND "
+            + BookEntry.COLUMN_DELETED + " = 0";
+
+    private static final String SQL_PURGE_TOMBSTONE = "DELETE FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry.COLUMN_SYNC_ID + " = ? AND "
+            + BookEntry.COLUMN_DELETED + " = 1";
+
+    private static final String SQL_INSERT_BOOK = "INSERT INTO " + BookEntry.TABLE_NAME + " ("
+            + BookEntry.COLUMN_PRODUCT_NAME + ", "
+            + BookEntry.COLUMN_PRICE_CENTS + ", "
+            + BookEntry.COLUMN_QUANTITY + ", "
+            + BookEntry.COLUMN_SUPPLIER_ID + ", "
+            + BookEntry.COLUMN_SYNC_ID + ", "
+            + BookEntry.COLUMN_TITLE_KEY + ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_DELETE_BOOK = "UPDATE " + BookEntry.TABLE_NAME
+            + " SET " + BookEntry.COLUMN_DELETED + " = 1, "
+            + BookEntry.COLUMN_VERSION + " = " + BookEntry.COLUMN_VERSION + " + 1"
+            + " WHERE " + BookEntry.COLUMN_SYNC_ID + " = ? AND "
+            + BookEntry.COLUMN_DELETED + " = 0";
+
+    private final SQLiteStatement mUpdateBook;
+    private final SQLiteStatement mCountLiveBooks;
+    private final SQLiteStatement mPurgeTombstone;
+    private final SQLiteStatement mInsertBook;
+    private final SQLiteStatement mDeleteBook;
+
+    BookSyncApplier(SQLiteDatabase database) {
+        mUpdateBook = database.compileStatement(SQL_UPDATE_BOOK);
+        mCountLiveBooks = database.compileStatement(SQL_COUNT_LIVE_BOOKS);
+        mPurgeTombstone = database.compileStatement(SQL_PURGE_TOMBSTONE);
+        mInsertBook = database.compileStatement(SQL_INSERT_BOOK);
+        mDeleteBook = database.compileStatement(SQL_DELETE_BOOK);
+    }
+
+    /**
+     * Write the book with the given sync id, adding it if it doesn't exist.
+     * A book that was deleted on this device is added again: the tombstone is replaced
+     * by a new row, so the summary and the search tables get it back through the insert.
+     *
+     * @param contentValues represents the product name, price and quantity of the book
+     * @param supplierId    represents the id of the supplier of the book, or -1 for none
+     * @return true if the book was written, false if it already had these values
+     */
+    boolean applyBook(String syncId, ContentValues contentValues, long supplierId) {
+        bindBook(mUpdateBook, contentValues, supplierId);
+        mUpdateBook.bindString(5, syncId);
+        bindTitleKey(mUpdateBook, contentValues);
+        if (mUpdateBook.executeUpdateDelete() != 0) {
+            return true;
+        }
+        mCountLiveBooks.bindString(1, syncId);
+        if (mCountLiveBooks.simpleQueryForLong() != 0) {
+            return false;
+        }
+        mPurgeTombstone.bindString(1, syncId);
+        mPurgeTombstone.executeUpdateDelete();
+        bindBook(mInsertBook, contentValues, supplierId);
+        mInsertBook.bindString(5, syncId);
+        bindTitleKey(mInsertBook, contentValues);
+        return mInsertBook.executeInsert() != -1;
+    }
+
+    /**
+     * Mark the book with the given sync id as deleted.
+     *
+     * @return true if the book was marked, false if it doesn't exist or was already deleted
+     */
+    boolean applyDelete(String syncId) {
+        mDeleteBook.bindString(1, syncId);
+        return mDeleteBook.executeUpdateDelete() != 0;
+    }
+
+    /**
+     * Release the statements.
+     */
+    void close() {
+        mUpdateBook.close();
+        mCountLiveBooks.close();
+        mPurgeTombstone.close();
+        mInsertBook.close();
+        mDeleteBook.close();
+    }
+
+    /**
+     * Bind the product name, price, quantity and supplier id to the first four parameters.
+     */
+    private static void bindBook(SQLiteStatement statement, ContentValues contentValues,
+                                 long supplierId) {
+        statement.clearBindings();
+        statement.bindString(1, contentValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME));
+        statement.bindLong(2, contentValues.getAsLong(BookEntry.COLUMN_PRICE_CENTS));
+        statement.bindLong(3, contentValues.getAsInteger(BookEntry.COLUMN_QUANTITY));
+        if (supplierId == -1) {
+            statement.bindNull(4);
+        } else {
+            statement.bindLong(4, supplierId);
+        }
+    }
+
+    /**
+     * Bind the sort key of the product name to the sixth parameter.
+     */
+    private static void bindTitleKey(SQLiteStatement statement, ContentValues contentValues) {
+        statement.bindString(6, SortKeys.normalize(
+                contentValues.getAsString(BookEntry.COLUMN_PRODUCT_NAME)));
+    }
+}
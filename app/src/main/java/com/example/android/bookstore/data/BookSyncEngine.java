@@ -0,0 +1,167 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.bookstore.BookLog;
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link BookSyncEngine} reconciles the books of this device with the back office by
+ * exchanging only the changes made since the last sync, through a {@link SyncTransport}.
+ * <p>
+ * The changes of this device are read from {@link BookEntry#CHANGES_URI} in batches of
+ * {@link #BATCH_SIZE}, in the order they were made, deleted books included. After the back
+ * office stored a batch, its last change sequence is acknowledged to the provider, so the
+ * next sync starts after it. Then the changes of the back office are pulled in batches too;
+ * every batch is written with its token in a single transaction, so the pull resumes after
+ * the last written batch. A sync that fails halfway sends or receives at most one batch
+ * again, and writing a change twice leaves the book as it is.
+ * <p>
+ * The changes of the back office are applied over the local ones: the local changes were
+ * pushed first, so the back office already had the chance to merge them.
+ * <p>
+ * The sync runs on the calling thread, which must not be the main thread.
+ */
+public class BookSyncEngine {
+
+    /**
+     * The outcome of a sync
+     */
+    public static final class Result {
+        /* The number of changes sent to the back office */
+        public final int changesPushed;
+        /* The number of changes received from the back office */
+        public final int changesPulled;
+        /* The number of books that the received changes wrote */
+        public final int rowsApplied;
+
+        Result(int changesPushed, int changesPulled, int rowsApplied) {
+            this.changesPushed = changesPushed;
+            this.changesPulled = changesPulled;
+            this.rowsApplied = rowsApplied;
+        }
+    }
+
+    private static final String LOG_TAG = BookSyncEngine.class.getSimpleName();
+
+    /**
+     * The number of changes sent or received at once
+     */
+    static final int BATCH_SIZE = 200;
+
+    /**
+     * The columns read for a change: its change sequence, then the columns sent
+     */
+    private static final String[] CHANGE_COLUMNS = {
+            BookEntry.COLUMN_CHANGE_SEQ,
+            BookEntry.COLUMN_SYNC_ID,
+            BookEntry.COLUMN_DELETED,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRICE_CENTS,
+            BookEntry.COLUMN_QUANTITY,
+            BookEntry.COLUMN_SUPPLIER_NAME,
+            BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+    };
+
+    private final ContentResolver mContentResolver;
+    private final SyncTransport mTransport;
+
+    public BookSyncEngine(Context context, SyncTransport transport) {
+        mContentResolver = context.getContentResolver();
+        mTransport = transport;
+    }
+
+    /**
+     * Push the changes of this device, then pull the changes of the back office.
+     */
+    public Result sync() throws IOException {
+        Bundle state = mContentResolver.call(BookEntry.CONTENT_URI,
+                BookContract.METHOD_GET_SYNC_STATE, null, null);
+        int changesPushed = push(state.getLong(BookContract.SYNC_PUSHED_SEQ));
+
+        String token = state.getString(BookContract.SYNC_PULL_TOKEN);
+        int changesPulled = 0;
+        int rowsApplied = 0;
+        SyncTransport.Page page;
+        do {
+            page = mTransport.pull(token, BATCH_SIZE);
+            Bundle extras = new Bundle();
+            extras.putParcelableArrayList(BookContract.SYNC_CHANGES,
+                    new ArrayList<>(page.changes));
+            Bundle result = mContentResolver.call(BookEntry.CONTENT_URI,
+                    BookContract.METHOD_APPLY_CHANGES, page.nextToken, extras);
+            changesPulled += page.changes.size();
+            rowsApplied += result.getInt(BookContract.SYNC_APPLIED_ROWS);
+            token = page.nextToken;
+        } while (page.hasMore);
+
+        BookLog.i(LOG_TAG, "Pushed {} changes, pulled {} changes", changesPushed, changesPulled);
+        return new Result(changesPushed, changesPulled, rowsApplied);
+    }
+
+    /**
+     * Send the changes made after the given change sequence, one batch at a time.
+     *
+     * @return the number of changes sent
+     */
+    private int push(long pushedSeq) throws IOException {
+        int changesPushed = 0;
+        while (true) {
+            List<ContentValues> changes = new ArrayList<>(BATCH_SIZE);
+            long lastChangeSeq = readChanges(pushedSeq, changes);
+            if (changes.isEmpty()) {
+                return changesPushed;
+            }
+            mTransport.push(changes);
+            mContentResolver.call(BookEntry.CONTENT_URI, BookContract.METHOD_ACKNOWLEDGE_PUSH,
+                    String.valueOf(lastChangeSeq), null);
+            changesPushed += changes.size();
+            pushedSeq = lastChangeSeq;
+            if (changes.size() < BATCH_SIZE) {
+                return changesPushed;
+            }
+        }
+    }
+
+    /**
+     * Read the next batch of changes after the given change sequence into the list.
+     *
+     * @return the change sequence of the last change read
+     */
+    private long readChanges(long since, List<ContentValues> changes) {
+        Cursor cursor = mContentResolver.query(BookEntry.buildChangesUri(since, BATCH_SIZE),
+                CHANGE_COLUMNS, null, null, null);
+        if (cursor == null) {
+            throw new IllegalStateException("The changes of the books can't be read");
+        }
+        try {
+            long lastChangeSeq = since;
+            while (cursor.moveToNext()) {
+                lastChangeSeq = cursor.getLong(0);
+                ContentValues change = new ContentValues();
+                change.put(BookEntry.COLUMN_SYNC_ID, cursor.getString(1));
+                boolean deleted = cursor.getInt(2) != 0;
+                change.put(BookEntry.COLUMN_DELETED, deleted ? 1 : 0);
+                if (!deleted) {
+                    change.put(BookEntry.COLUMN_PRODUCT_NAME, cursor.getString(3));
+                    change.put(BookEntry.COLUMN_PRICE_CENTS, cursor.getLong(4));
+                    change.put(BookEntry.COLUMN_QUANTITY, cursor.getInt(5));
+                    change.put(BookEntry.COLUMN_SUPPLIER_NAME, cursor.getString(6));
+                    change.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, cursor.getString(7));
+                }
+                changes.add(change);
+            }
+            return lastChangeSeq;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.SparseArray;
+
+import com.example.android.bookstore.data.BookContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProviderMetrics} counts the calls made to {@link BookProvider}, per operation and
+ * URI pattern: the number of calls and errors, the rows touched, the size of the cursors
+ * and a histogram of the latencies. It also keeps the latest queries that took longer than
+ * a threshold, with their query plan.
+ * <p>
+ * Recording a call takes a short lock on the counters of its operation and URI pattern,
+ * so the provider can be called from any thread.
+ */
+final class ProviderMetrics {
+
+    /* The operations of the provider */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int APPLY_BATCH = 5;
+
+    /**
+     * The URI code of the calls that are not made on a single URI, like a batch.
+     * The codes of the URI matcher start at 1.
+     */
+    static final int NO_URI = 0;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "apply_batch"
+    };
+
+    /**
+     * The upper bounds of the latency buckets, in milliseconds.
+     * The last bucket holds the calls slower than the last bound.
+     */
+    private static final long[] LATENCY_BUCKETS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000};
+
+    /**
+     * The slow query threshold used until another one is set
+     */
+    static final long DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS = 100;
+
+    /**
+     * The number of slow queries that are kept, the oldest ones are dropped first
+     */
+    private static final int MAX_SLOW_QUERIES = 32;
+
+    private static final String[] METRICS_COLUMNS = {
+            MetricsEntry.COLUMN_OPERATION,
+            MetricsEntry.COLUMN_URI_PATTERN,
+            MetricsEntry.COLUMN_CALL_COUNT,
+            MetricsEntry.COLUMN_ERROR_COUNT,
+            MetricsEntry.COLUMN_ROW_COUNT,
+            MetricsEntry.COLUMN_MAX_CURSOR_SIZE,
+            MetricsEntry.COLUMN_TOTAL_MILLIS,
+            MetricsEntry.COLUMN_MAX_MILLIS,
+            MetricsEntry.COLUMN_LATENCY_HISTOGRAM
+    };
+
+    private static final String[] SLOW_QUERY_COLUMNS = {
+            MetricsEntry.COLUMN_URI,
+            MetricsEntry.COLUMN_SQL,
+            MetricsEntry.COLUMN_QUERY_PLAN,
+            MetricsEntry.COLUMN_DURATION_MILLIS,
+            MetricsEntry.COLUMN_TIMESTAMP
+    };
+
+    /**
+     * The URI patterns of the provider, by URI matcher code
+     */
+    private final SparseArray<String> mUriPatterns;
+
+    /**
+     * The counters, by operation and URI matcher code. Guarded by itself.
+     */
+    private final SparseArray<Counters> mCounters = new SparseArray<>();
+
+    /**
+     * The latest slow queries, the most recent first. Guarded by itself.
+     */
+    private final ArrayDeque<SlowQuery> mSlowQueries = new ArrayDeque<>(MAX_SLOW_QUERIES);
+
+    private volatile long mSlowQueryThresholdNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_THRESHOLD_MILLIS);
+
+    /**
+     * @param uriPatterns represents the URI patterns of the provider, by URI matcher code.
+     *                    {@link #NO_URI} is shown as "batch".
+     */
+    ProviderMetrics(SparseArray<String> uriPatterns) {
+        mUriPatterns = uriPatterns;
+    }
+
+    /**
+     * Record a call to the provider.
+     *
+     * @param operation  represents one of the operation constants of this class
+     * @param uriCode    represents the URI matcher code of the URI of the call
+     * @param startNanos represents {@link System#nanoTime()} when the call started
+     * @param rows       represents the rows returned or changed, ignored if the call failed
+     * @param failed     represents true if the call threw an exception
+     */
+    void record(int operation, int uriCode, long startNanos, int rows, boolean failed) {
+        long nanos = System.nanoTime() - startNanos;
+        Counters counters = getCounters(operation, uriCode);
+        synchronized (counters) {
+            counters.mCalls++;
+            counters.mTotalNanos += nanos;
+            counters.mMaxNanos = Math.max(counters.mMaxNanos, nanos);
+            counters.mLatencyBuckets[getLatencyBucket(nanos)]++;
+            if (failed) {
+                counters.mErrors++;
+            } else {
+                counters.mRows += rows;
+                if (operation == QUERY) {
+                    counters.mMaxCursorSize = Math.max(counters.mMaxCursorSize, rows);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if a query that took that long must be logged as slow.
+     */
+    boolean isSlow(long nanos) {
+        return nanos >= mSlowQueryThresholdNanos;
+    }
+
+    /**
+     * Keep a slow query, dropping the oldest one if there are too many.
+     */
+    void addSlowQuery(String uri, String sql, String queryPlan, long nanos) {
+        SlowQuery slowQuery = new SlowQuery(uri, sql, queryPlan, nanos,
+                System.currentTimeMillis());
+        synchronized (mSlowQueries) {
+            if (mSlowQueries.size() == MAX_SLOW_QUERIES) {
+                mSlowQueries.removeLast();
+            }
+            mSlowQueries.addFirst(slowQuery);
+        }
+    }
+
+    void setSlowQueryThresholdMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The slow query threshold cannot be negative");
+        }
+        mSlowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Forget all the counters and the slow queries.
+     */
+    void reset() {
+        synchronized (mCounters) {
+            mCounters.clear();
+        }
+        synchronized (mSlowQueries) {
+            mSlowQueries.clear();
+        }
+    }
+
+    /**
+     * Return a snapshot of the counters, with the columns of {@link MetricsEntry}.
+     */
+    Cursor queryMetrics() {
+        MatrixCursor cursor = new MatrixCursor(METRICS_COLUMNS);
+        for (Counters counters : snapshotCounters()) {
+            synchronized (counters) {
+                cursor.addRow(new Object[]{
+                        OPERATION_NAMES[counters.mOperation],
+                        getUriPattern(counters.mUriCode),
+                        counters.mCalls,
+                        counters.mErrors,
+                        counters.mRows,
+                        counters.mMaxCursorSize,
+                        toMillis(counters.mTotalNanos),
+                        toMillis(counters.mMaxNanos),
+                        formatHistogram(counters.mLatencyBuckets)
+                });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Return the latest slow queries, the most recent first.
+     */
+    Cursor querySlowQueries() {
+        MatrixCursor cursor = new MatrixCursor(SLOW_QUERY_COLUMNS);
+        synchronized (mSlowQueries) {
+            for (SlowQuery slowQuery : mSlowQueries) {
+                cursor.addRow(new Object[]{
+                        slowQuery.mUri,
+                        slowQuery.mSql,
+                        slowQuery.mQueryPlan,
+                        toMillis(slowQuery.mNanos),
+                        slowQuery.mTimestamp
+                });
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Write the counters and the slow queries as text, for dumpsys.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Provider metrics:");
+        for (Counters counters : snapshotCounters()) {
+            synchronized (counters) {
+                writer.print("  ");
+                writer.print(OPERATION_NAMES[counters.mOperation]);
+                writer.print(' ');
+                writer.print(getUriPattern(counters.mUriCode));
+                writer.print(": calls=" + counters.mCalls);
+                writer.print(" errors=" + counters.mErrors);
+                writer.print(" rows=" + counters.mRows);
+                writer.print(" maxCursor=" + counters.mMaxCursorSize);
+                writer.print(" totalMs=" + toMillis(counters.mTotalNanos));
+                writer.print(" maxMs=" + toMillis(counters.mMaxNanos));
+                writer.println(" latency=[" + formatHistogram(counters.mLatencyBuckets) + "]");
+            }
+        }
+        writer.println("Slow queries (threshold "
+                + toMillis(mSlowQueryThresholdNanos) + " ms):");
+        synchronized (mSlowQueries) {
+            for (SlowQuery slowQuery : mSlowQueries) {
+                writer.println("  " + toMillis(slowQuery.mNanos) + " ms " + slowQuery.mUri);
+                writer.println("    " + slowQuery.mSql);
+                writer.println("    " + slowQuery.mQueryPlan.replace("\n", "\n    "));
+            }
+        }
+    }
+
+    private Counters getCounters(int operation, int uriCode) {
+        // The URI matcher codes are small, they fit below the operation.
+        // NO_MATCH (-1) is kept apart from the other codes.
+        int key = operation << 16 | (uriCode & 0xffff);
+        synchronized (mCounters) {
+            Counters counters = mCounters.get(key);
+            if (counters == null) {
+                counters = new Counters(operation, uriCode);
+                mCounters.put(key, counters);
+            }
+            return counters;
+        }
+    }
+
+    private Counters[] snapshotCounters() {
+        synchronized (mCounters) {
+            Counters[] counters = new Counters[mCounters.size()];
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = mCounters.valueAt(i);
+            }
+            return counters;
+        }
+    }
+
+    private String getUriPattern(int uriCode) {
+        if (uriCode == NO_URI) {
+            return "batch";
+        }
+        String pattern = mUriPatterns.get(uriCode);
+        return pattern != null ? pattern : "unknown";
+    }
+
+    private static int getLatencyBucket(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        for (int i = 0; i < LATENCY_BUCKETS_MILLIS.length; i++) {
+            if (millis < LATENCY_BUCKETS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return LATENCY_BUCKETS_MILLIS.length;
+    }
+
+    private static String formatHistogram(long[] buckets) {
+        StringBuilder histogram = new StringBuilder();
+        for (int i = 0; i < buckets.length; i++) {
+            if (i > 0) {
+                histogram.append(' ');
+            }
+            if (i < LATENCY_BUCKETS_MILLIS.length) {
+                histogram.append(LATENCY_BUCKETS_MILLIS[i]);
+            } else {
+                histogram.append('>').append(LATENCY_BUCKETS_MILLIS[i - 1]);
+            }
+            histogram.append("ms:").append(buckets[i]);
+        }
+        return histogram.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * The counters of an operation on a URI pattern. Guarded by itself.
+     */
+    private static class Counters {
+        private final int mOperation;
+        private final int mUriCode;
+        private final long[] mLatencyBuckets = new long[LATENCY_BUCKETS_MILLIS.length + 1];
+        private long mCalls;
+        private long mErrors;
+        private long mRows;
+        private long mMaxCursorSize;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        Counters(int operation, int uriCode) {
+            mOperation = operation;
+            mUriCode = uriCode;
+        }
+    }
+
+    /**
+     * A query that took longer than the threshold
+     */
+    private static class SlowQuery {
+        private final String mUri;
+        private final String mSql;
+        private final String mQueryPlan;
+        private final long mNanos;
+        private final long mTimestamp;
+
+        SlowQuery(String uri, String sql, String queryPlan, long nanos, long timestamp) {
+            mUri = uri;
+            mSql = sql;
+            mQueryPlan = queryPlan;
+            mNanos = nanos;
+            mTimestamp = timestamp;
+        }
+    }
+}
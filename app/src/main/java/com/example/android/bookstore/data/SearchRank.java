@@ -0,0 +1,54 @@
+package com.example.android.bookstore.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link SearchRank} scores a search result from the matchinfo() of the full-text search
+ * table, because SQLite on Android can't register a rank function.
+ * The blob is requested with the format string {@link #MATCHINFO_FORMAT}: the number of
+ * phrases and of columns, then for every phrase and column the hits in this row, the hits
+ * in all the rows and the number of rows with a hit.
+ * <p>
+ * Every hit of a term counts in proportion to how rare the term is in the column,
+ * so a book matching an unusual word ranks above one matching a word that every book has,
+ * and a hit in the title counts more than a hit in the supplier name.
+ */
+final class SearchRank {
+
+    /**
+     * The argument of matchinfo() that {@link #score(byte[])} reads
+     */
+    static final String MATCHINFO_FORMAT = "pcx";
+
+    /**
+     * The weights of the columns of the full-text search table, in their order:
+     * the product name, then the supplier name
+     */
+    private static final double[] COLUMN_WEIGHTS = {1.0, 0.5};
+
+    private SearchRank() {
+    }
+
+    /**
+     * Return the score of the row with the given matchinfo, higher is more relevant.
+     */
+    static double score(byte[] matchinfo) {
+        // The integers are 32-bit unsigned, in the byte order of the device
+        ByteBuffer buffer = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+        int phrases = buffer.getInt(0);
+        int columns = buffer.getInt(4);
+        double score = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < COLUMN_WEIGHTS.length; column++) {
+                int offset = (2 + 3 * (phrase * columns + column)) * 4;
+                long hitsInRow = buffer.getInt(offset) & 0xFFFFFFFFL;
+                long hitsInAllRows = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+                if (hitsInRow > 0) {
+                    score += COLUMN_WEIGHTS[column] * hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+        return score;
+    }
+}
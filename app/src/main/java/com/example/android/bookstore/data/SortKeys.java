@@ -0,0 +1,70 @@
+package com.example.android.bookstore.data;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * {@link SortKeys} turns the names shown in the list into the keys they are sorted by.
+ * The keys are stored next to the names and indexed with the default BINARY collation,
+ * so SQLite sorts them by reading the index, in the order a reader expects: the case and
+ * the accents are ignored, and "Émile" sorts with "emile" instead of after "zoo".
+ */
+final class SortKeys {
+
+    /**
+     * The accents and the other marks that follow a letter once it is decomposed
+     */
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private SortKeys() {
+    }
+
+    /**
+     * Return the sort key of the given name: compatibility-decomposed, without the marks,
+     * in lower case. A null name has the empty key, which sorts first.
+     */
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        return fold(name.trim());
+    }
+
+    /**
+     * Return the key that the keys of the names starting with the given prefix start with.
+     * Unlike a name, the prefix keeps its trailing spaces.
+     */
+    static String normalizePrefix(String prefix) {
+        return fold(prefix);
+    }
+
+    /**
+     * Return the smallest key that is greater than every key starting with the given one,
+     * or null if there is none. The keys starting with a prefix are then the single range
+     * [prefix, end) of an index, which a LIKE can't be turned into on Android.
+     * The last code point is incremented: SQLite compares the UTF-8 bytes of the keys,
+     * which are in the order of the code points.
+     */
+    static String prefixEnd(String key) {
+        int end = key.length();
+        while (end > 0) {
+            int last = key.codePointBefore(end);
+            end -= Character.charCount(last);
+            if (last < Character.MAX_CODE_POINT) {
+                int next = last + 1;
+                if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+                    // The surrogates are not characters, skip over them
+                    next = Character.MAX_SURROGATE + 1;
+                }
+                return key.substring(0, end) + new String(Character.toChars(next));
+            }
+        }
+        return null;
+    }
+
+    private static String fold(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * {@link SyncTransport} carries the changes of the books between this device and the back
+ * office, for {@link BookSyncEngine}. It hides how the back office is reached.
+ * <p>
+ * A change is a ContentValues with the {@link BookContract.BookEntry#COLUMN_SYNC_ID} of the
+ * book and {@link BookContract.BookEntry#COLUMN_DELETED}, and when the book is not deleted,
+ * its product name, price in cents, quantity, supplier name and supplier phone number.
+ * The methods are called on the syncing thread and may block.
+ */
+public interface SyncTransport {
+
+    /**
+     * Send a batch of changes of this device, in the order they were made.
+     * Returns once the back office stored all of them; a batch that failed is sent again.
+     */
+    void push(List<ContentValues> changes) throws IOException;
+
+    /**
+     * Return the changes of the back office that follow the given token, at most limit.
+     *
+     * @param token represents the {@link Page#nextToken} of the last page applied,
+     *              or null to get all the changes
+     */
+    Page pull(@Nullable String token, int limit) throws IOException;
+
+    /**
+     * A page of the changes of the back office
+     */
+    final class Page {
+        /* The changes, in the order the back office stored them */
+        public final List<ContentValues> changes;
+        /* The token to pass to get the changes that follow this page */
+        public final String nextToken;
+        /* Whether more changes follow this page */
+        public final boolean hasMore;
+
+        public Page(List<ContentValues> changes, String nextToken, boolean hasMore) {
+            this.changes = changes;
+            this.nextToken = nextToken;
+            this.hasMore = hasMore;
+        }
+    }
+}
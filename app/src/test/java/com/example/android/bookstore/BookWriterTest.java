@@ -0,0 +1,153 @@
+package com.example.android.bookstore;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookProviderTestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the merging of the queued writes of {@link BookWriter}, run on the JVM with
+ * Robolectric.
+ */
+public class BookWriterTest extends BookProviderTestCase {
+
+    private final CountDownLatch mHold = new CountDownLatch(1);
+    private final List<Integer> mResults = new ArrayList<>();
+    /* Records the results of the writes, in the order they are delivered */
+    private final BookWriter.Callback<Integer> mRecorder = new BookWriter.Callback<Integer>() {
+        @Override
+        public void onComplete(Integer result) {
+            mResults.add(result);
+        }
+    };
+
+    private ExecutorService mExecutor;
+    private BookWriter mWriter;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newSingleThreadExecutor();
+        mWriter = new BookWriter(RuntimeEnvironment.application.getContentResolver(), mExecutor);
+        // Hold the writer back, so the writes wait in the queue and can be merged
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mHold.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void quantityChangesAreMergedIntoOneWrite() throws Exception {
+        Uri emma = insertBook("Emma", 450, 10);
+
+        for (int i = 0; i < 4; i++) {
+            mWriter.adjustQuantity(ContentUris.parseId(emma), -1, mRecorder);
+        }
+        runQueuedWrites();
+
+        assertEquals(Arrays.asList(1, 1, 1, 1), mResults);
+        assertEquals(6, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        // A single write changed the book
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_VERSION));
+    }
+
+    @Test
+    public void refusedSumIsWrittenOneByOne() throws Exception {
+        Uri emma = insertBook("Emma", 450, 5);
+
+        for (int i = 0; i < 10; i++) {
+            mWriter.adjustQuantity(ContentUris.parseId(emma), -1, mRecorder);
+        }
+        runQueuedWrites();
+
+        // The sales that fit in the stock are kept, in the order they were made
+        assertEquals(Arrays.asList(1, 1, 1, 1, 1, 0, 0, 0, 0, 0), mResults);
+        assertEquals(0, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(6, getLong(emma, BookEntry.COLUMN_VERSION));
+    }
+
+    @Test
+    public void valuesAreMergedIntoOneWrite() throws Exception {
+        Uri emma = insertBook("Emma", 450, 2);
+
+        ContentValues price = new ContentValues();
+        price.put(BookEntry.COLUMN_PRICE_CENTS, 500);
+        mWriter.update(emma, price, mRecorder);
+        ContentValues quantity = new ContentValues();
+        quantity.put(BookEntry.COLUMN_QUANTITY, 7);
+        mWriter.update(emma, quantity, mRecorder);
+        runQueuedWrites();
+
+        assertEquals(Arrays.asList(1, 1), mResults);
+        assertEquals(500, getLong(emma, BookEntry.COLUMN_PRICE_CENTS));
+        assertEquals(7, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_VERSION));
+    }
+
+    @Test
+    public void versionedUpdatesAreNeverMerged() throws Exception {
+        Uri emma = insertBook("Emma", 450, 2);
+
+        ContentValues first = new ContentValues();
+        first.put(BookEntry.COLUMN_PRICE_CENTS, 500);
+        first.put(BookEntry.EXPECTED_VERSION, 1);
+        mWriter.update(emma, first, mRecorder);
+        ContentValues second = new ContentValues();
+        second.put(BookEntry.COLUMN_QUANTITY, 7);
+        second.put(BookEntry.EXPECTED_VERSION, 1);
+        mWriter.update(emma, second, mRecorder);
+        runQueuedWrites();
+
+        // The second update was checked on its own, against the version of the first
+        assertEquals(Arrays.asList(1, 0), mResults);
+        assertEquals(500, getLong(emma, BookEntry.COLUMN_PRICE_CENTS));
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void bulkInsertWritesEveryBook() throws Exception {
+        ContentValues[] books = {book("Emma", 450, 2, "Ace"), book("Dune", 300, 1, "Ace")};
+
+        mWriter.bulkInsert(BookEntry.CONTENT_URI, books, mRecorder);
+        runQueuedWrites();
+
+        assertEquals(Arrays.asList(2), mResults);
+        assertEquals(2, count(BookEntry.CONTENT_URI));
+    }
+
+    /**
+     * Let the writer run the queued writes, then deliver their results on the main thread.
+     */
+    private void runQueuedWrites() throws InterruptedException {
+        mHold.countDown();
+        mWriter.flush();
+        ShadowLooper.idleMainLooper();
+    }
+}
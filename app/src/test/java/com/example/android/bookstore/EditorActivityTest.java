@@ -0,0 +1,115 @@
+package com.example.android.bookstore;
+
+import android.app.AlertDialog;
+import android.content.ContentValues;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.widget.EditText;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookProviderTestCase;
+
+import org.junit.Test;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowAlertDialog;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Tests of the saving of a book by {@link EditorActivity}, run on the JVM with Robolectric.
+ */
+public class EditorActivityTest extends BookProviderTestCase {
+
+    @Test
+    public void saveClosesTheEditor() throws Exception {
+        Uri uri = insertBook("Emma", 450, 2, "Ace");
+        EditorActivity activity = startEditor(uri);
+
+        edit(activity, R.id.edit_price, "5.00");
+        edit(activity, R.id.edit_supplier_phone_number, "+40711");
+        shadowOf(activity).clickMenuItem(R.id.action_save);
+        // The editor waits for the update
+        assertFalse(activity.isFinishing());
+        idle();
+
+        assertTrue(activity.isFinishing());
+        assertEquals(500, getLong(uri, BookEntry.COLUMN_PRICE_CENTS));
+    }
+
+    @Test
+    public void conflictKeepsTheInput() throws Exception {
+        Uri uri = insertBook("Emma", 450, 2, "Ace");
+        EditorActivity activity = startEditor(uri);
+        edit(activity, R.id.edit_price, "5.00");
+        edit(activity, R.id.edit_supplier_phone_number, "+40711");
+
+        // Someone else changes the book between the load and the save
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_QUANTITY, 9);
+        assertEquals(1, mProvider.update(uri, values, null, null));
+        idle();
+
+        shadowOf(activity).clickMenuItem(R.id.action_save);
+        idle();
+
+        assertFalse(activity.isFinishing());
+        AlertDialog dialog = ShadowAlertDialog.getLatestAlertDialog();
+        assertNotNull(dialog);
+        assertTrue(dialog.isShowing());
+        assertEquals("5.00", getText(activity, R.id.edit_price));
+        // The other change was kept
+        assertEquals(450, getLong(uri, BookEntry.COLUMN_PRICE_CENTS));
+        assertEquals(9, getLong(uri, BookEntry.COLUMN_QUANTITY));
+
+        // The user has seen the stored book and overwrites it
+        dialog.getButton(DialogInterface.BUTTON_POSITIVE).performClick();
+        idle();
+
+        assertTrue(activity.isFinishing());
+        assertEquals(500, getLong(uri, BookEntry.COLUMN_PRICE_CENTS));
+        assertEquals(2, getLong(uri, BookEntry.COLUMN_QUANTITY));
+        assertEquals(3, getLong(uri, BookEntry.COLUMN_VERSION));
+    }
+
+    private EditorActivity startEditor(Uri uri) throws InterruptedException {
+        EditorActivity activity = Robolectric.buildActivity(EditorActivity.class,
+                new Intent(Intent.ACTION_EDIT, uri)).setup().get();
+        idle();
+        assertEquals("Emma", getText(activity, R.id.edit_product_name));
+        return activity;
+    }
+
+    /**
+     * Change a field of the form the way the user does, touching it first.
+     */
+    private static void edit(EditorActivity activity, int id, String text) {
+        EditText field = activity.findViewById(id);
+        long now = SystemClock.uptimeMillis();
+        MotionEvent touch = MotionEvent.obtain(now, now, MotionEvent.ACTION_DOWN, 0, 0, 0);
+        field.dispatchTouchEvent(touch);
+        touch.recycle();
+        field.setText(text);
+    }
+
+    private static String getText(EditorActivity activity, int id) {
+        return ((EditText) activity.findViewById(id)).getText().toString();
+    }
+
+    /**
+     * Run the writes, the loads and their results, which hop between the threads,
+     * until none is left.
+     */
+    private static void idle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            BookWriter.getInstance(RuntimeEnvironment.application).flush();
+            Robolectric.flushBackgroundThreadScheduler();
+            ShadowLooper.idleMainLooper();
+        }
+    }
+}
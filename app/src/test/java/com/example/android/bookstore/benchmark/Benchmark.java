@@ -0,0 +1,142 @@
+package com.example.android.bookstore.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small JMH-style harness for the data layer benchmarks.
+ * Every benchmark is warmed up first, then each measured invocation is timed on its own,
+ * so the throughput and the latency percentiles can be reported together.
+ * The results are written as a JSON array to the file named by the
+ * {@code benchmark.resultsFile} system property, so they can be compared between builds.
+ * The benchmarks only run when the {@code benchmark} system property is true, so they
+ * don't slow down every run of the unit tests.
+ */
+final class Benchmark {
+
+    /**
+     * A single invocation of the code that is measured.
+     */
+    interface Operation {
+        void run(int invocation) throws Exception;
+    }
+
+    /**
+     * The summary of a benchmark run.
+     */
+    static final class Result {
+        final String name;
+        final int invocations;
+        final int rowsPerInvocation;
+        final double throughputRowsPerSecond;
+        final long p50Micros;
+        final long p90Micros;
+        final long p99Micros;
+        final long maxMicros;
+
+        Result(String name, int rowsPerInvocation, long[] latenciesNanos, long totalNanos) {
+            this.name = name;
+            this.invocations = latenciesNanos.length;
+            this.rowsPerInvocation = rowsPerInvocation;
+            this.throughputRowsPerSecond =
+                    (double) invocations * rowsPerInvocation * 1e9 / Math.max(1, totalNanos);
+            long[] sorted = latenciesNanos.clone();
+            Arrays.sort(sorted);
+            this.p50Micros = percentile(sorted, 50) / 1000;
+            this.p90Micros = percentile(sorted, 90) / 1000;
+            this.p99Micros = percentile(sorted, 99) / 1000;
+            this.maxMicros = sorted[sorted.length - 1] / 1000;
+        }
+
+        String toJson() {
+            return String.format(Locale.US, "{\"benchmark\":\"%s\",\"invocations\":%d,"
+                            + "\"rowsPerInvocation\":%d,\"throughputRowsPerSecond\":%.1f,"
+                            + "\"p50Micros\":%d,\"p90Micros\":%d,\"p99Micros\":%d,"
+                            + "\"maxMicros\":%d}",
+                    name, invocations, rowsPerInvocation, throughputRowsPerSecond,
+                    p50Micros, p90Micros, p99Micros, maxMicros);
+        }
+    }
+
+    private static final String RESULTS_FILE_PROPERTY = "benchmark.resultsFile";
+
+    /**
+     * The system property that enables the benchmarks
+     */
+    static final String ENABLED_PROPERTY = "benchmark";
+
+    private static final List<Result> sResults = new ArrayList<>();
+
+    private Benchmark() {
+    }
+
+    /**
+     * Run the operation warmupInvocations times without measuring it,
+     * then measure it measuredInvocations times and record the result.
+     *
+     * @param rowsPerInvocation the number of rows one invocation handles, for the throughput
+     */
+    static Result measure(String name, int warmupInvocations, int measuredInvocations,
+                          int rowsPerInvocation, Operation operation) throws Exception {
+        for (int i = 0; i < warmupInvocations; i++) {
+            operation.run(i);
+        }
+        long[] latencies = new long[measuredInvocations];
+        long totalStart = System.nanoTime();
+        for (int i = 0; i < measuredInvocations; i++) {
+            long start = System.nanoTime();
+            operation.run(warmupInvocations + i);
+            latencies[i] = System.nanoTime() - start;
+        }
+        long totalNanos = System.nanoTime() - totalStart;
+
+        Result result = new Result(name, rowsPerInvocation, latencies, totalNanos);
+        synchronized (sResults) {
+            sResults.add(result);
+        }
+        return result;
+    }
+
+    /**
+     * Write all the results recorded so far to the results file, if one was configured.
+     */
+    static void writeResults() throws IOException {
+        String fileName = System.getProperty(RESULTS_FILE_PROPERTY);
+        synchronized (sResults) {
+            // Nothing to write when the benchmarks didn't run
+            if (fileName == null || sResults.isEmpty()) {
+                return;
+            }
+        }
+        File file = new File(fileName);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("[\n");
+            synchronized (sResults) {
+                for (int i = 0; i < sResults.size(); i++) {
+                    writer.write("  ");
+                    writer.write(sResults.get(i).toJson());
+                    writer.write(i < sResults.size() - 1 ? ",\n" : "\n");
+                }
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static long percentile(long[] sortedValues, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.android.bookstore.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.android.bookstore.BookCursorAdapter;
+import com.example.android.bookstore.BookLog;
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookProvider;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks of the data layer, run on the JVM with Robolectric's host SQLite.
+ * They are skipped unless the {@code benchmark} project property is set: run them with
+ * {@code ./gradlew testDebugUnitTest -Pbenchmark --tests '*DataLayerBenchmark*'};
+ * the results are written to {@code app/build/benchmark-results.json}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class DataLayerBenchmark {
+
+    private static final String[] LIST_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_PRODUCT_NAME,
+            BookEntry.COLUMN_PRICE_CENTS,
+            BookEntry.COLUMN_QUANTITY
+    };
+
+    private static final int BULK_INSERT_ROWS = 1000;
+
+    private static final int LARGE_BULK_INSERT_ROWS = 100000;
+
+    private BookProvider mProvider;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean(Benchmark.ENABLED_PROPERTY));
+        mProvider = Robolectric.buildContentProvider(BookProvider.class).create().get();
+    }
+
+    @AfterClass
+    public static void writeResults() throws Exception {
+        Benchmark.writeResults();
+    }
+
+    @Test
+    public void singleInsert() throws Exception {
+        Benchmark.measure("insert.single", 200, 2000, 1, new Benchmark.Operation() {
+            @Override
+            public void run(int invocation) {
+                assertNotNull(mProvider.insert(BookEntry.CONTENT_URI, createBook(invocation)));
+            }
+        });
+    }
+
+    @Test
+    public void bulkInsert() throws Exception {
+        final ContentValues[] books = createBooks(BULK_INSERT_ROWS);
+        Benchmark.measure("insert.bulk", 3, 20, BULK_INSERT_ROWS, new Benchmark.Operation() {
+            @Override
+            public void run(int invocation) {
+                assertEquals(BULK_INSERT_ROWS, mProvider.bulkInsert(BookEntry.CONTENT_URI, books));
+            }
+        });
+    }
+
+    /**
+     * Inserts 100k books with the default log level, where the validation logging costs
+     * a level check per call.
+     */
+    @Test
+    public void bulkInsert_100k() throws Exception {
+        measureLargeBulkInsert("insert.bulk.100k");
+    }
+
+    /**
+     * The same inserts with every level logged, to compare with {@link #bulkInsert_100k()}.
+     */
+    @Test
+    public void bulkInsert_100k_verboseLogging() throws Exception {
+        BookLog.setMinLevel(Log.VERBOSE);
+        try {
+            measureLargeBulkInsert("insert.bulk.100k.verbose");
+        } finally {
+            BookLog.setMinLevel(Log.INFO);
+        }
+    }
+
+    @Test
+    public void listQuery_1k() throws Exception {
+        measureListQuery(1000);
+    }
+
+    @Test
+    public void listQuery_10k() throws Exception {
+        measureListQuery(10000);
+    }
+
+    @Test
+    public void listQuery_100k() throws Exception {
+        measureListQuery(100000);
+    }
+
+    @Test
+    public void pointLookupById() throws Exception {
+        final int rows = 10000;
+        fill(rows);
+        final Random random = new Random(42);
+        Benchmark.measure("query.byId", 500, 5000, 1, new Benchmark.Operation() {
+            @Override
+            public void run(int invocation) {
+                long id = 1 + random.nextInt(rows);
+                Cursor cursor = mProvider.query(ContentUris.withAppendedId(
+                        BookEntry.CONTENT_URI, id), LIST_PROJECTION, null, null, null);
+                try {
+                    assertTrue(cursor.moveToFirst());
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void adapterBind() throws Exception {
+        final int rows = 1000;
+        fill(rows);
+        Context context = RuntimeEnvironment.application;
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, LIST_PROJECTION,
+                null, null, null);
+        try {
+            final BookCursorAdapter adapter = new BookCursorAdapter(cursor, null);
+            RecyclerView parent = new RecyclerView(context);
+            parent.setLayoutManager(new LinearLayoutManager(context));
+            final BookCursorAdapter.BookViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+            Benchmark.measure("adapter.bindViewHolder", 2, 20, rows, new Benchmark.Operation() {
+                @Override
+                public void run(int invocation) {
+                    for (int position = 0; position < rows; position++) {
+                        adapter.onBindViewHolder(holder, position);
+                    }
+                }
+            });
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Fill the table with the given number of rows and time reading all of them.
+     */
+    private void measureListQuery(final int rows) throws Exception {
+        fill(rows);
+        Benchmark.measure("query.list." + rows, 2, 10, rows, new Benchmark.Operation() {
+            @Override
+            public void run(int invocation) {
+                Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, LIST_PROJECTION,
+                        null, null, null);
+                try {
+                    int count = 0;
+                    while (cursor.moveToNext()) {
+                        cursor.getString(1);
+                        count++;
+                    }
+                    assertEquals(rows, count);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private void measureLargeBulkInsert(String name) throws Exception {
+        final ContentValues[] books = createBooks(LARGE_BULK_INSERT_ROWS);
+        Benchmark.measure(name, 1, 3, LARGE_BULK_INSERT_ROWS, new Benchmark.Operation() {
+            @Override
+            public void run(int invocation) {
+                assertEquals(LARGE_BULK_INSERT_ROWS,
+                        mProvider.bulkInsert(BookEntry.CONTENT_URI, books));
+            }
+        });
+    }
+
+    private void fill(int rows) {
+        for (int inserted = 0; inserted < rows; inserted += BULK_INSERT_ROWS) {
+            mProvider.bulkInsert(BookEntry.CONTENT_URI,
+                    createBooks(Math.min(BULK_INSERT_ROWS, rows - inserted)));
+        }
+    }
+
+    private static ContentValues[] createBooks(int count) {
+        ContentValues[] books = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            books[i] = createBook(i);
+        }
+        return books;
+    }
+
+    private static ContentValues createBook(int i) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, "Book " + i);
+        values.put(BookEntry.COLUMN_PRICE_CENTS, 599 + (i % 30) * 100);
+        values.put(BookEntry.COLUMN_QUANTITY, i % 25);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i % 40);
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+40700" + i);
+        return values;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the batches of {@link BookProvider#applyBatch(ArrayList)}, run on the JVM with
+ * Robolectric's host SQLite.
+ */
+public class BookBatchTest extends BookProviderTestCase {
+
+    @Test
+    public void failedOperationRollsBackTheBatch() throws Exception {
+        Uri emma = insertBook("Emma", 450, 2);
+        Uri missing = ContentUris.withAppendedId(BookEntry.CONTENT_URI,
+                ContentUris.parseId(emma) + 100);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(BookEntry.CONTENT_URI)
+                .withValues(book("Dune", 300, 1, null)).build());
+        operations.add(ContentProviderOperation.newUpdate(emma)
+                .withValue(BookEntry.COLUMN_QUANTITY, 7).build());
+        // Nothing matches, so the expected count fails the batch
+        operations.add(ContentProviderOperation.newUpdate(missing)
+                .withValue(BookEntry.COLUMN_QUANTITY, 1).withExpectedCount(1).build());
+
+        try {
+            mProvider.applyBatch(operations);
+            fail("The batch was applied although an operation failed");
+        } catch (OperationApplicationException e) {
+            // Expected
+        }
+        assertEquals(1, count(BookEntry.CONTENT_URI));
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void largeBatchWithYieldPointsWritesEveryOperation() throws Exception {
+        // More operations than the provider applies between two forced yield points (500),
+        // each of them allowing one
+        int books = 600;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < books; i++) {
+            operations.add(ContentProviderOperation.newInsert(BookEntry.CONTENT_URI)
+                    .withValues(book("Book " + i, 100 + i, 1, null))
+                    .withYieldAllowed(true).build());
+        }
+        // The back reference crosses the yield points
+        operations.add(ContentProviderOperation.newUpdate(BookEntry.CONTENT_URI)
+                .withSelection(BookEntry._ID + "=?", new String[1])
+                .withSelectionBackReference(0, 0)
+                .withValue(BookEntry.COLUMN_QUANTITY, 9)
+                .withYieldAllowed(true).build());
+
+        ContentProviderResult[] results = mProvider.applyBatch(operations);
+
+        assertEquals(books + 1, results.length);
+        assertEquals(Integer.valueOf(1), results[books].count);
+        assertEquals(books, count(BookEntry.CONTENT_URI));
+        assertEquals(9, getLong(results[0].uri, BookEntry.COLUMN_QUANTITY));
+        assertEquals(1, getLong(results[books - 1].uri, BookEntry.COLUMN_QUANTITY));
+    }
+}
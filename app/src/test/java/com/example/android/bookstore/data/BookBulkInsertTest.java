@@ -0,0 +1,75 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the bulk insert of {@link BookProvider}, run on the JVM with Robolectric's host SQLite.
+ */
+public class BookBulkInsertTest extends BookProviderTestCase {
+
+    @Test
+    public void insertsEveryRowWithTheirSuppliers() {
+        ContentValues[] rows = new ContentValues[10];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = book("Book " + i, 100 + i, i, i % 2 == 0 ? "Ace" : null);
+        }
+
+        assertEquals(rows.length, mProvider.bulkInsert(BookEntry.CONTENT_URI, rows));
+        assertEquals(rows.length, count(BookEntry.CONTENT_URI));
+        // The books of the same supplier share its row
+        assertEquals(1, count(SupplierEntry.CONTENT_URI));
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, new String[]{
+                        BookEntry.COLUMN_PRODUCT_NAME, BookEntry.COLUMN_PRICE_CENTS,
+                        BookEntry.COLUMN_SUPPLIER_NAME}, BookEntry.COLUMN_QUANTITY + "=?",
+                new String[]{"4"}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Book 4", cursor.getString(0));
+            assertEquals(104, cursor.getLong(1));
+            assertEquals("Ace", cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void failedRowRollsBackTheWholeBatch() {
+        ContentValues[] rows = new ContentValues[5];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = book("Book " + i, 100, 1, "Ace");
+        }
+        // The books table has no such column, so this row goes through the generic insert
+        // and fails there
+        rows[3].put("color", "red");
+
+        try {
+            mProvider.bulkInsert(BookEntry.CONTENT_URI, rows);
+            fail("A row with an unknown column was inserted");
+        } catch (SQLException e) {
+            // Expected
+        }
+        assertEquals(0, count(BookEntry.CONTENT_URI));
+        assertEquals(0, count(SupplierEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void invalidRowWritesNothing() {
+        ContentValues[] rows = {book("Emma", 450, 2, null), book("Dune", -1, 1, null)};
+        try {
+            mProvider.bulkInsert(BookEntry.CONTENT_URI, rows);
+            fail("A book with a negative price was inserted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(0, count(BookEntry.CONTENT_URI));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the soft delete of the books and of their compaction,
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookCompactionTest extends BookProviderTestCase {
+
+    private static final Uri ALL_BOOKS_URI = BookEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(BookContract.QUERY_PARAMETER_INCLUDE_DELETED, "true")
+            .build();
+
+    @Test
+    public void deletedBooksAreHidden() {
+        Uri emma = insertBook("Emma", 450, 2);
+        insertBook("Dune", 999, 0);
+
+        assertEquals(1, mProvider.delete(emma, null, null));
+        // A tombstone is not deleted twice
+        assertEquals(0, mProvider.delete(emma, null, null));
+
+        assertEquals(1, count(BookEntry.CONTENT_URI));
+        assertEquals(0, count(emma));
+        assertEquals(0, count(BookEntry.buildSearchUri("Emma")));
+
+        Cursor cursor = mProvider.query(ALL_BOOKS_URI, null, BookEntry.COLUMN_DELETED + "=1",
+                null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Emma", cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRODUCT_NAME)));
+            // The delete is a write of the book
+            assertEquals(2, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_VERSION)));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mProvider.query(BookEntry.STATS_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_BOOK_COUNT)));
+            assertEquals(0, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_TOTAL_QUANTITY)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void deletedBooksAreNotUpdated() {
+        Uri emma = insertBook("Emma", 450, 2);
+        mProvider.delete(emma, null, null);
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, "Emma");
+        values.put(BookEntry.COLUMN_PRICE_CENTS, 500);
+        values.put(BookEntry.COLUMN_QUANTITY, 2);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Ace");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+40700");
+        assertEquals(0, mProvider.update(emma, values, null, null));
+
+        values = new ContentValues();
+        values.put(BookEntry.COLUMN_QUANTITY, 7);
+        assertEquals(0, mProvider.update(emma, values, null, null));
+        assertEquals(0, mProvider.update(BookEntry.CONTENT_URI, values, null, null));
+
+        values = new ContentValues();
+        values.put(BookEntry.QUANTITY_DELTA, 1);
+        assertEquals(0, mProvider.update(Uri.withAppendedPath(emma, BookContract.PATH_QUANTITY),
+                values, null, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deletedCannotBeWritten() {
+        Uri emma = insertBook("Emma", 450, 2);
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_DELETED, 1);
+        mProvider.update(emma, values, null, null);
+    }
+
+    @Test
+    public void compactionPurgesTheDeletedBooks() {
+        int books = BookCompactor.PURGE_CHUNK_ROWS * 2 + 10;
+        ContentValues[] rows = new ContentValues[books];
+        for (int i = 0; i < books; i++) {
+            rows[i] = book("Book " + i, 100, 1, null);
+        }
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, rows);
+        Uri kept = insertBook("Emma", 450, 2);
+
+        assertEquals(books, mProvider.delete(BookEntry.CONTENT_URI,
+                BookEntry.COLUMN_PRODUCT_NAME + " LIKE ?", new String[]{"Book %"}));
+        assertEquals(books + 1, count(ALL_BOOKS_URI));
+
+        Bundle result = mProvider.call(BookContract.METHOD_COMPACT, null, null);
+        assertNotNull(result);
+        assertEquals(books, result.getInt(BookContract.COMPACT_PURGED_ROWS));
+        assertEquals(1, count(ALL_BOOKS_URI));
+        assertEquals(1, count(kept));
+
+        // Nothing is left to purge
+        result = mProvider.call(BookContract.METHOD_COMPACT, null, null);
+        assertEquals(0, result.getInt(BookContract.COMPACT_PURGED_ROWS));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.bookstore.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the migrations of {@link BookDbHelper} from a version 2 database to the current
+ * version, run on the JVM with Robolectric's host SQLite.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class BookDbHelperUpgradeTest {
+
+    private static final String TEST_DATABASE_NAME = "books_upgrade_test.db";
+
+    private Context mContext;
+    private BookDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void booksOfASupplierShareItsRow() {
+        SQLiteDatabase db = upgradeFromVersion2(
+                "('Emma', 4.5, 2, 'Ace', '+401')",
+                "('Dune', 3.0, 1, 'Ace', '')",
+                "('Ulysses', 12.0, 5, 'Ace', '+402')",
+                "('Anna', 9.0, 0, 'Ace', NULL)",
+                "('Odyssey', 5.0, 1, 'Bree', NULL)",
+                "('Nameless', 1.0, 1, '', '+999')");
+
+        Cursor cursor = db.query(SupplierEntry.TABLE_NAME, new String[]{
+                        SupplierEntry.COLUMN_SUPPLIER_NAME,
+                        SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER},
+                null, null, null, null, SupplierEntry.COLUMN_SUPPLIER_NAME);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Ace", cursor.getString(0));
+            // The last phone number stored with the supplier, the empty ones skipped
+            assertEquals("+402", cursor.getString(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Bree", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = db.query(BookEntry.VIEW_NAME, new String[]{
+                        BookEntry.COLUMN_PRODUCT_NAME, BookEntry.COLUMN_SUPPLIER_NAME,
+                        BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER},
+                null, null, null, null, BookEntry._ID);
+        try {
+            assertEquals(6, cursor.getCount());
+            assertTrue(cursor.moveToPosition(1));
+            assertEquals("Dune", cursor.getString(0));
+            assertEquals("Ace", cursor.getString(1));
+            assertEquals("+402", cursor.getString(2));
+            // A book without a supplier name has no supplier
+            assertTrue(cursor.moveToLast());
+            assertEquals("Nameless", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void pricesAreRoundedToCents() {
+        // Prices written from floats are not exact in a REAL column: 0.29 * 100 is 28.999...
+        SQLiteDatabase db = upgradeFromVersion2(
+                "('Emma', 7.99, 2, NULL, NULL)",
+                "('Dune', 19.99, 1, NULL, NULL)",
+                "('Ulysses', 0.29, 5, NULL, NULL)",
+                "('Anna', 12, 0, NULL, NULL)");
+
+        Cursor cursor = db.query(BookEntry.VIEW_NAME, new String[]{
+                        BookEntry.COLUMN_PRICE_CENTS}, null, null, null, null, BookEntry._ID);
+        try {
+            assertEquals(4, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(799, cursor.getLong(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals(1999, cursor.getLong(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals(29, cursor.getLong(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals(1200, cursor.getLong(0));
+            assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Create a database exactly as version 2 of the app did, with the given rows of
+     * product_name, price, quantity, supplier_name and supplier_phone_number,
+     * then open it with the current helper, which upgrades it.
+     */
+    private SQLiteDatabase upgradeFromVersion2(String... rows) {
+        SQLiteDatabase v2 = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(TEST_DATABASE_NAME), null);
+        v2.execSQL("CREATE TABLE books (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "product_name TEXT NOT NULL, price REAL NOT NULL, quantity INTEGER NOT NULL, "
+                + "supplier_name TEXT, supplier_phone_number TEXT);");
+        v2.execSQL("CREATE INDEX books_product_name_idx ON books "
+                + "(product_name COLLATE NOCASE, price, quantity);");
+        v2.execSQL("CREATE INDEX books_supplier_name_idx ON books (supplier_name, quantity);");
+        v2.execSQL("CREATE INDEX books_quantity_idx ON books (quantity);");
+        for (String row : rows) {
+            v2.execSQL("INSERT INTO books (product_name, price, quantity, supplier_name, "
+                    + "supplier_phone_number) VALUES " + row + ";");
+        }
+        v2.setVersion(2);
+        v2.close();
+
+        mHelper = new BookDbHelper(mContext, TEST_DATABASE_NAME);
+        return mHelper.getReadableDatabase();
+    }
+}
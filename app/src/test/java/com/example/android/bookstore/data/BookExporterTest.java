@@ -0,0 +1,96 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link BookExporter}, run on the JVM with Robolectric's host SQLite.
+ */
+public class BookExporterTest extends BookProviderTestCase {
+
+    /* More than one page of the exporter */
+    private static final int ROWS = 2500;
+
+    private BookExporter mExporter;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = RuntimeEnvironment.application;
+        ContentValues[] books = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            books[i] = book(i == 0 ? "Dune, \"Part\" One" : "Book " + i, 450, i % 7,
+                    "Supplier\n" + i % 3);
+        }
+        assertEquals(ROWS, mProvider.bulkInsert(BookEntry.CONTENT_URI, books));
+        mExporter = new BookExporter(new BookDbHelper(context));
+        mFile = File.createTempFile("export", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void csvExportCanBeImportedAgain() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            assertEquals(ROWS, mExporter.export(out.getChannel(),
+                    BookContract.EXPORT_FORMAT_CSV, false));
+        } finally {
+            out.close();
+        }
+
+        mProvider.delete(BookEntry.CONTENT_URI, null, null);
+        BookImporter.Result result = new BookImporter(RuntimeEnvironment.application)
+                .importBooks(new FileInputStream(mFile), BookImporter.Format.CSV,
+                        mFile.getPath(), null);
+        assertEquals(ROWS, result.rowsImported);
+        assertEquals(0, result.rowsSkipped);
+    }
+
+    @Test
+    public void gzipNdjsonExportHasOneLinePerBook() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            assertEquals(ROWS, mExporter.export(out.getChannel(),
+                    BookContract.EXPORT_FORMAT_NDJSON, true));
+        } finally {
+            out.close();
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(mFile)), "UTF-8"));
+        try {
+            String first = reader.readLine();
+            assertTrue(first, first.startsWith("{\"_id\":1,\"product_name\":\"Dune, \\\"Part\\\" One\","));
+            assertTrue(first, first.endsWith("\"supplier_name\":\"Supplier\\n0\","
+                    + "\"supplier_phone_number\":null}"));
+            int lines = 1;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            assertEquals(ROWS, lines);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.MetricsEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link BookFilter} and of the filtered books URI,
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookFilterTest extends BookProviderTestCase {
+
+    @Test
+    public void sameConditionsGiveTheSameSelection() {
+        BookFilter filter = new BookFilter().nameStartsWith("Em").quantityBelow(3)
+                .supplierIn(7, 2, 5).priceAtMost(1000);
+        BookFilter other = new BookFilter().priceAtLeast(200).supplierIn(1).supplierIn(9, 4, 9)
+                .quantityBelow(10).nameStartsWith("du");
+
+        assertEquals("supplier_id IN (?,?,?,?) AND price_cents BETWEEN ? AND ? AND quantity<? "
+                + "AND title_key>=? AND title_key<?", filter.getSelection());
+        assertEquals(filter.getSelection(), other.getSelection());
+        // The suppliers are sorted and the last one fills the rest of the IN list
+        assertArrayEquals(new String[]{"2", "5", "7", "7", String.valueOf(Long.MIN_VALUE),
+                "1000", "3", "em", "en"}, filter.getSelectionArgs());
+        assertArrayEquals(new String[]{"1", "4", "9", "9", "200",
+                String.valueOf(Long.MAX_VALUE), "10", "du", "dv"}, other.getSelectionArgs());
+    }
+
+    @Test
+    public void emptyFilterHasNoSelection() {
+        BookFilter filter = new BookFilter().nameStartsWith("");
+        assertTrue(filter.isEmpty());
+        assertNull(filter.getSelection());
+        assertNull(filter.getSelectionArgs());
+        assertEquals(BookEntry.CONTENT_URI, filter.applyTo(BookEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void prefixEndIsTheNextKey() {
+        assertEquals("en", SortKeys.prefixEnd("em"));
+        // The surrogates are skipped
+        assertEquals("e\uE000", SortKeys.prefixEnd("e\uD7FF"));
+        assertEquals("f", SortKeys.prefixEnd("e" + new String(
+                Character.toChars(Character.MAX_CODE_POINT))));
+        assertNull(SortKeys.prefixEnd(""));
+    }
+
+    @Test
+    public void filtersTheBooks() {
+        long ace = getLong(insertBook("Emma", 450, 2, "Ace"), BookEntry.COLUMN_SUPPLIER_ID);
+        insertBook("Émile", 1200, 8, "Ace");
+        long bob = getLong(insertBook("Dune", 999, 0, "Bob"), BookEntry.COLUMN_SUPPLIER_ID);
+        insertBook("Eleven", 300, 5, null);
+        insertBook("Ulysses", 2500, 1, "Cid");
+
+        assertEquals(Arrays.asList("Emma", "Dune", "Eleven"),
+                readNames(new BookFilter().priceAtMost(999)));
+        assertEquals(Arrays.asList("Émile", "Dune", "Ulysses"),
+                readNames(new BookFilter().priceAtLeast(999)));
+        assertEquals(Arrays.asList("Emma", "Dune", "Ulysses"),
+                readNames(new BookFilter().quantityBelow(3)));
+        assertEquals(Arrays.asList("Emma", "Émile", "Dune"),
+                readNames(new BookFilter().supplierIn(bob, ace)));
+        assertEquals(Arrays.asList("Emma", "Émile"),
+                readNames(new BookFilter().nameStartsWith("em")));
+        assertEquals(Arrays.asList("Émile"),
+                readNames(new BookFilter().nameStartsWith("EMI")));
+        assertEquals(Arrays.asList("Emma"), readNames(new BookFilter().nameStartsWith("E")
+                .supplierIn(ace).priceAtMost(1000).quantityBelow(5)));
+    }
+
+    @Test
+    public void filteredPagesFollowTheSortOrder() {
+        for (int i = 0; i < 10; i++) {
+            insertBook("Book " + i, 100 * (10 - i), i, null);
+        }
+        BookFilter filter = new BookFilter().priceAtLeast(300).priceAtMost(800);
+
+        List<String> names = new ArrayList<>();
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = mProvider.query(filter.applyTo(
+                    BookEntry.buildPageUri(BookContract.SORT_PRICE, lastId, 2)),
+                    new String[]{BookEntry._ID, BookEntry.COLUMN_PRODUCT_NAME}, null, null,
+                    null);
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    names.add(cursor.getString(1));
+                }
+                if (cursor.getCount() < 2) {
+                    break;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        assertEquals(Arrays.asList("Book 7", "Book 6", "Book 5", "Book 4", "Book 3", "Book 2"),
+                names);
+    }
+
+    @Test
+    public void filtersAreReadFromTheIndexes() {
+        long ace = getLong(insertBook("Emma", 450, 2, "Ace"), BookEntry.COLUMN_SUPPLIER_ID);
+        mProvider.call(BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+        assertPlanUses(new BookFilter().supplierIn(ace), BookDbHelper.INDEX_SUPPLIER_ID);
+        assertPlanUses(new BookFilter().priceAtLeast(100), BookDbHelper.INDEX_PRICE);
+        assertPlanUses(new BookFilter().quantityBelow(3), BookDbHelper.INDEX_QUANTITY);
+        assertPlanUses(new BookFilter().nameStartsWith("em"), BookDbHelper.INDEX_TITLE_KEY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFilterIsRejected() {
+        mProvider.query(BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookContract.QUERY_PARAMETER_MIN_PRICE, "cheap")
+                .build(), null, null, null, null);
+    }
+
+    private void assertPlanUses(BookFilter filter, String index) {
+        mProvider.query(filter.applyTo(BookEntry.CONTENT_URI), null, null, null, null).close();
+        Cursor cursor = mProvider.query(MetricsEntry.SLOW_QUERIES_URI, null, null, null, null);
+        try {
+            // The most recent query first
+            assertTrue(cursor.moveToFirst());
+            String plan = cursor.getString(
+                    cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_QUERY_PLAN));
+            assertTrue(plan, plan.contains(index));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Read the names of the filtered books, sorted by id.
+     */
+    private List<String> readNames(BookFilter filter) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mProvider.query(filter.applyTo(BookEntry.CONTENT_URI),
+                new String[]{BookEntry.COLUMN_PRODUCT_NAME}, null, null, BookEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
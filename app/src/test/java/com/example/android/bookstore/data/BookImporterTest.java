@@ -0,0 +1,196 @@
+package com.example.android.bookstore.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link BookImporter}, run on the JVM with Robolectric's host SQLite.
+ */
+public class BookImporterTest extends BookProviderTestCase {
+
+    private static final int LARGE_CATALOGUE_ROWS = 100000;
+
+    /**
+     * How much more heap the import may use after the first chunk, in bytes.
+     * The generated catalogue is several times bigger than this.
+     */
+    private static final long MAX_HEAP_GROWTH_BYTES = 2 * 1024 * 1024;
+
+    private Context mContext;
+    private File mCatalogue;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = RuntimeEnvironment.application;
+        mCatalogue = File.createTempFile("catalogue", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        mCatalogue.delete();
+    }
+
+    @Test
+    public void importsLargeCsvInConstantMemory() throws IOException {
+        writeCsv(mCatalogue, LARGE_CATALOGUE_ROWS);
+        assertTrue(mCatalogue.length() > 4 * MAX_HEAP_GROWTH_BYTES);
+
+        final long[] baseline = {-1};
+        final long[] maxGrowth = {0};
+        BookImporter importer = new BookImporter(mContext);
+        BookImporter.Result result = importer.importBooks(new FileInputStream(mCatalogue),
+                BookImporter.Format.CSV, mCatalogue.getPath(),
+                new BookImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(long recordsRead, long bytesRead) {
+                        // Sample the heap every 20 chunks, the first sample is the baseline
+                        if ((recordsRead / BookImporter.CHUNK_SIZE) % 20 != 1) {
+                            return;
+                        }
+                        long used = usedHeap();
+                        if (baseline[0] == -1) {
+                            baseline[0] = used;
+                        } else {
+                            maxGrowth[0] = Math.max(maxGrowth[0], used - baseline[0]);
+                        }
+                    }
+                });
+
+        assertTrue(result.completed);
+        assertEquals(LARGE_CATALOGUE_ROWS, result.rowsImported);
+        assertEquals(0, result.rowsSkipped);
+        assertEquals(LARGE_CATALOGUE_ROWS, countBooks());
+        assertTrue("The heap grew by " + maxGrowth[0] + " bytes",
+                maxGrowth[0] < MAX_HEAP_GROWTH_BYTES);
+    }
+
+    @Test
+    public void resumesAfterCancel() throws IOException {
+        final int rows = 10 * BookImporter.CHUNK_SIZE;
+        writeCsv(mCatalogue, rows);
+
+        final BookImporter importer = new BookImporter(mContext);
+        BookImporter.Result first = importer.importBooks(new FileInputStream(mCatalogue),
+                BookImporter.Format.CSV, mCatalogue.getPath(),
+                new BookImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(long recordsRead, long bytesRead) {
+                        if (recordsRead == 3 * BookImporter.CHUNK_SIZE) {
+                            importer.cancel();
+                        }
+                    }
+                });
+        assertFalse(first.completed);
+        assertEquals(3 * BookImporter.CHUNK_SIZE, first.rowsImported);
+        assertEquals(3 * BookImporter.CHUNK_SIZE, importer.getCheckpoint(mCatalogue.getPath()));
+
+        BookImporter.Result second = importer.importBooks(new FileInputStream(mCatalogue),
+                BookImporter.Format.CSV, mCatalogue.getPath(), null);
+        assertTrue(second.completed);
+        assertEquals(rows - 3 * BookImporter.CHUNK_SIZE, second.rowsImported);
+        assertEquals(rows, countBooks());
+        assertEquals(0, importer.getCheckpoint(mCatalogue.getPath()));
+    }
+
+    @Test
+    public void skipsInvalidRows() throws IOException {
+        String csv = "product_name,price,quantity,supplier_name,supplier_phone_number\n"
+                + "\"Dune, Part One\",9.5,3,Ace,0700\r\n"
+                + ",1,1,Ace,0700\n"
+                + "Emma,-2,1,Ace,0700\n"
+                + "Ulysses,4,many,Ace,0700\n"
+                + "\n"
+                + "\"The \"\"Hobbit\"\"\",7,0,Ace,0700";
+        BookImporter.Result result = new BookImporter(mContext).importBooks(
+                new ByteArrayInputStream(csv.getBytes("UTF-8")), BookImporter.Format.CSV,
+                "inline.csv", null);
+
+        assertEquals(2, result.rowsImported);
+        assertEquals(3, result.rowsSkipped);
+        Cursor cursor = mContext.getContentResolver().query(BookEntry.CONTENT_URI,
+                new String[]{BookEntry.COLUMN_PRODUCT_NAME}, null, null, BookEntry._ID);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Dune, Part One", cursor.getString(0));
+            assertTrue(cursor.moveToNext());
+            assertEquals("The \"Hobbit\"", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void importsJsonArrayAndNdjson() throws IOException {
+        String array = "[{\"product_name\":\"Emma\",\"price\":4.5,\"quantity\":2,"
+                + "\"supplier_name\":\"Ace\",\"supplier_phone_number\":\"0700\",\"tags\":[1]},"
+                + "{\"product_name\":null,\"price\":1,\"quantity\":1}]";
+        String ndjson = "{\"product_name\":\"Dune\",\"price\":\"9\",\"quantity\":1}\n"
+                + "{\"product_name\":\"Ulysses\",\"price\":3,\"quantity\":7}\n";
+
+        BookImporter importer = new BookImporter(mContext);
+        BookImporter.Result fromArray = importer.importBooks(
+                new ByteArrayInputStream(array.getBytes("UTF-8")), BookImporter.Format.JSON,
+                "array.json", null);
+        BookImporter.Result fromLines = importer.importBooks(
+                new ByteArrayInputStream(ndjson.getBytes("UTF-8")), BookImporter.Format.JSON,
+                "lines.json", null);
+
+        assertEquals(1, fromArray.rowsImported);
+        assertEquals(1, fromArray.rowsSkipped);
+        assertEquals(2, fromLines.rowsImported);
+        assertEquals(3, countBooks());
+    }
+
+    private int countBooks() {
+        Cursor cursor = mContext.getContentResolver().query(BookEntry.CONTENT_URI,
+                new String[]{BookEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Write a catalogue with the given number of valid rows, without holding it in memory.
+     */
+    private static void writeCsv(File file, int rows) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        try {
+            writer.write("product_name,price,quantity,supplier_name,supplier_phone_number\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write("\"Book " + i + ", the sequel\"," + (5 + i % 30) + ".99,"
+                        + (i % 25) + ",Supplier " + (i % 40) + ",+40700" + i + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+/**
+ * The fixture shared by the tests of the data layer: a fresh {@link BookProvider} for every
+ * test, run on the JVM with Robolectric's host SQLite, and helpers to write and read books.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public abstract class BookProviderTestCase {
+
+    protected ContentProvider mProvider;
+
+    @Before
+    public void setUpProvider() {
+        mProvider = Robolectric.buildContentProvider(BookProvider.class)
+                .create(BookContract.CONTENT_AUTHORITY).get();
+    }
+
+    @After
+    public void shutDownProvider() {
+        mProvider.shutdown();
+    }
+
+    /**
+     * Return the values of a book, with a supplier if the name isn't null.
+     */
+    protected static ContentValues book(String name, long priceCents, int quantity,
+                                        String supplierName) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(BookEntry.COLUMN_PRICE_CENTS, priceCents);
+        values.put(BookEntry.COLUMN_QUANTITY, quantity);
+        if (supplierName != null) {
+            values.put(BookEntry.COLUMN_SUPPLIER_NAME, supplierName);
+        }
+        return values;
+    }
+
+    /**
+     * Insert a book without a supplier and return its URI.
+     */
+    protected Uri insertBook(String name, long priceCents, int quantity) {
+        return insertBook(name, priceCents, quantity, null);
+    }
+
+    /**
+     * Insert a book and return its URI.
+     */
+    protected Uri insertBook(String name, long priceCents, int quantity, String supplierName) {
+        Uri uri = mProvider.insert(BookEntry.CONTENT_URI,
+                book(name, priceCents, quantity, supplierName));
+        assertNotNull(uri);
+        return uri;
+    }
+
+    /**
+     * Return the number of rows of the URI.
+     */
+    protected int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the column of the first row of the URI, which must have one.
+     */
+    protected long getLong(Uri uri, String column) {
+        Cursor cursor = mProvider.query(uri, new String[]{column}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    protected static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndexOrThrow(column));
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the quantity deltas of {@link BookProvider}, run on the JVM with Robolectric's
+ * host SQLite.
+ */
+public class BookQuantityTest extends BookProviderTestCase {
+
+    private static ContentValues delta(int delta) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.QUANTITY_DELTA, delta);
+        return values;
+    }
+
+    private Uri quantityUri(Uri book) {
+        return BookEntry.buildQuantityUri(ContentUris.parseId(book));
+    }
+
+    @Test
+    public void deltaIsAddedToTheQuantity() {
+        Uri emma = insertBook("Emma", 450, 2);
+
+        assertEquals(1, mProvider.update(quantityUri(emma), delta(3), null, null));
+        assertEquals(5, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(1, mProvider.update(quantityUri(emma), delta(-5), null, null));
+        assertEquals(0, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(3, getLong(emma, BookEntry.COLUMN_VERSION));
+    }
+
+    @Test
+    public void negativeQuantityIsRefused() {
+        Uri emma = insertBook("Emma", 450, 2);
+
+        assertEquals(0, mProvider.update(quantityUri(emma), delta(-3), null, null));
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(1, getLong(emma, BookEntry.COLUMN_VERSION));
+    }
+
+    @Test
+    public void deletedBookIsNotAdjusted() {
+        Uri emma = insertBook("Emma", 450, 2);
+        assertEquals(1, mProvider.delete(emma, null, null));
+
+        assertEquals(0, mProvider.update(quantityUri(emma), delta(1), null, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deltaIsRequired() {
+        Uri emma = insertBook("Emma", 450, 2);
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_QUANTITY, 4);
+
+        mProvider.update(quantityUri(emma), values, null, null);
+    }
+
+    @Test
+    public void quantityUriIsASingleBook() {
+        assertEquals(BookEntry.CONTENT_ITEM_TYPE,
+                mProvider.getType(BookEntry.buildQuantityUri(1)));
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the report URIs of {@link BookProvider} and of the summary table behind them,
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookReportsTest extends BookProviderTestCase {
+
+    @Test
+    public void summaryFollowsEveryWrite() {
+        Uri emma = insertBook("Emma", 450, 2, "Ace");
+        insertBook("Dune", 999, 0, "Ace");
+        Uri ulysses = insertBook("Ulysses", 1200, 5, null);
+        assertStatsMatchBooks();
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.QUANTITY_DELTA, -2);
+        assertEquals(1, mProvider.update(BookEntry.buildQuantityUri(ContentUris.parseId(emma)),
+                values, null, null));
+        values = new ContentValues();
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Bee");
+        // Below the low stock threshold now
+        values.put(BookEntry.COLUMN_QUANTITY, 4);
+        assertEquals(1, mProvider.update(ulysses, values, null, null));
+        assertStatsMatchBooks();
+
+        // Deleting the supplier moves its books to the row without a supplier
+        Cursor cursor = mProvider.query(SupplierEntry.CONTENT_URI,
+                new String[]{SupplierEntry._ID}, SupplierEntry.COLUMN_SUPPLIER_NAME + "=?",
+                new String[]{"Ace"}, null);
+        assertTrue(cursor.moveToFirst());
+        long aceId = cursor.getLong(0);
+        cursor.close();
+        assertEquals(1, mProvider.delete(ContentUris.withAppendedId(
+                SupplierEntry.CONTENT_URI, aceId), null, null));
+        assertStatsMatchBooks();
+
+        mProvider.delete(BookEntry.CONTENT_URI, null, null);
+        cursor = mProvider.query(BookEntry.BY_SUPPLIER_URI, null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertStatsMatchBooks();
+    }
+
+    @Test
+    public void bySupplierGroupsTheBooks() {
+        insertBook("Emma", 450, 2, "Ace");
+        insertBook("Dune", 999, 0, "Ace");
+        insertBook("Ulysses", 1200, 5, null);
+
+        Cursor cursor = mProvider.query(BookEntry.BY_SUPPLIER_URI, null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            // The books without a supplier come first, their supplier name is null
+            assertTrue(cursor.moveToFirst());
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_ID)));
+            assertEquals(1, getLong(cursor, BookEntry.COLUMN_BOOK_COUNT));
+            assertEquals(6000, getLong(cursor, BookEntry.COLUMN_INVENTORY_VALUE_CENTS));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Ace", cursor.getString(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_SUPPLIER_NAME)));
+            assertEquals(2, getLong(cursor, BookEntry.COLUMN_BOOK_COUNT));
+            assertEquals(2, getLong(cursor, BookEntry.COLUMN_TOTAL_QUANTITY));
+            assertEquals(900, getLong(cursor, BookEntry.COLUMN_INVENTORY_VALUE_CENTS));
+            assertEquals(1, getLong(cursor, BookEntry.COLUMN_OUT_OF_STOCK_COUNT));
+            assertEquals(2, getLong(cursor, BookEntry.COLUMN_LOW_STOCK_COUNT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void lowStockAndPriceHistogram() {
+        insertBook("Emma", 450, 2, "Ace");
+        insertBook("Dune", 999, 0, "Ace");
+        insertBook("Ulysses", 1200, 5, null);
+
+        Cursor cursor = mProvider.query(BookEntry.buildLowStockUri(3),
+                new String[]{BookEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Dune", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mProvider.query(BookEntry.buildPriceHistogramUri(1000), null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(0, getLong(cursor, BookEntry.COLUMN_BUCKET_START_CENTS));
+            assertEquals(2, getLong(cursor, BookEntry.COLUMN_BOOK_COUNT));
+            assertTrue(cursor.moveToNext());
+            assertEquals(1000, getLong(cursor, BookEntry.COLUMN_BUCKET_START_CENTS));
+            assertEquals(1, getLong(cursor, BookEntry.COLUMN_BOOK_COUNT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * The totals read from the summary table must equal the sums over the books.
+     */
+    private void assertStatsMatchBooks() {
+        Cursor stats = mProvider.query(BookEntry.STATS_URI, null, null, null, null);
+        Cursor sums = mProvider.query(BookEntry.INVENTORY_VALUE_URI, null, null, null, null);
+        Cursor outOfStock = mProvider.query(BookEntry.CONTENT_URI, new String[]{BookEntry._ID},
+                BookEntry.COLUMN_QUANTITY + "=0", null, null);
+        Cursor lowStock = mProvider.query(BookEntry.buildLowStockUri(
+                BookEntry.DEFAULT_LOW_STOCK_THRESHOLD), new String[]{BookEntry._ID},
+                null, null, null);
+        try {
+            assertTrue(stats.moveToFirst());
+            assertTrue(sums.moveToFirst());
+            assertEquals(getLong(sums, BookEntry.COLUMN_BOOK_COUNT),
+                    getLong(stats, BookEntry.COLUMN_BOOK_COUNT));
+            assertEquals(getLong(sums, BookEntry.COLUMN_TOTAL_QUANTITY),
+                    getLong(stats, BookEntry.COLUMN_TOTAL_QUANTITY));
+            assertEquals(getLong(sums, BookEntry.COLUMN_INVENTORY_VALUE_CENTS),
+                    getLong(stats, BookEntry.COLUMN_INVENTORY_VALUE_CENTS));
+            assertEquals(outOfStock.getCount(), getLong(stats, BookEntry.COLUMN_OUT_OF_STOCK_COUNT));
+            assertEquals(lowStock.getCount(), getLong(stats, BookEntry.COLUMN_LOW_STOCK_COUNT));
+        } finally {
+            stats.close();
+            sums.close();
+            outOfStock.close();
+            lowStock.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the cache of single book rows of {@link BookProvider}, run on the JVM with
+ * Robolectric's host SQLite.
+ */
+public class BookRowCacheTest extends BookProviderTestCase {
+
+    @Test
+    public void secondReadIsAHit() {
+        Uri emma = insertBook("Emma", 450, 2);
+
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_QUANTITY));
+
+        Bundle stats = getCacheStats();
+        assertEquals(1, stats.getInt(BookContract.CACHE_MISS_COUNT));
+        assertEquals(1, stats.getInt(BookContract.CACHE_HIT_COUNT));
+    }
+
+    @Test
+    public void uncachedColumnsAreReadFromTheDatabase() {
+        Uri emma = insertBook("Emma", 450, 2);
+
+        getLong(emma, BookEntry.COLUMN_SUPPLIER_ID);
+
+        Bundle stats = getCacheStats();
+        assertEquals(0, stats.getInt(BookContract.CACHE_MISS_COUNT));
+        assertEquals(0, stats.getInt(BookContract.CACHE_HIT_COUNT));
+    }
+
+    @Test
+    public void updateInvalidatesTheRow() {
+        Uri emma = insertBook("Emma", 450, 2);
+        getLong(emma, BookEntry.COLUMN_QUANTITY);
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_QUANTITY, 7);
+        mProvider.update(emma, values, null, null);
+
+        assertEquals(7, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_VERSION));
+        assertEquals(2, getCacheStats().getInt(BookContract.CACHE_MISS_COUNT));
+    }
+
+    @Test
+    public void batchInvalidatesTheRows() throws Exception {
+        Uri emma = insertBook("Emma", 450, 2);
+        Uri dune = insertBook("Dune", 300, 1);
+        getLong(emma, BookEntry.COLUMN_QUANTITY);
+        getLong(dune, BookEntry.COLUMN_QUANTITY);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        // The selection doesn't name the books, so only a full invalidation covers it
+        operations.add(ContentProviderOperation.newUpdate(BookEntry.CONTENT_URI)
+                .withValue(BookEntry.COLUMN_QUANTITY, 0).build());
+        mProvider.applyBatch(operations);
+
+        assertEquals(0, getLong(emma, BookEntry.COLUMN_QUANTITY));
+        assertEquals(0, getLong(dune, BookEntry.COLUMN_QUANTITY));
+    }
+
+    @Test
+    public void syncInvalidatesTheRows() throws Exception {
+        FakeSyncServer server = new FakeSyncServer();
+        BookSyncEngine engine = new BookSyncEngine(RuntimeEnvironment.application, server);
+        Uri emma = insertBook("Emma", 450, 2);
+        engine.sync();
+        assertEquals(2, getLong(emma, BookEntry.COLUMN_QUANTITY));
+
+        ContentValues change = new ContentValues(server.get(getSyncId(emma)));
+        change.put(BookEntry.COLUMN_QUANTITY, 9);
+        server.store(change);
+        assertEquals(1, engine.sync().rowsApplied);
+
+        assertEquals(9, getLong(emma, BookEntry.COLUMN_QUANTITY));
+    }
+
+    private Bundle getCacheStats() {
+        return mProvider.call(BookContract.METHOD_GET_CACHE_STATS, null, null);
+    }
+
+    private String getSyncId(Uri uri) {
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, new String[]{
+                BookEntry.COLUMN_SYNC_ID}, BookEntry._ID + "=?",
+                new String[]{uri.getLastPathSegment()}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the ranking of the search results,
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookSearchTest extends BookProviderTestCase {
+
+    @Test
+    public void titleHitsRankAboveSupplierHits() {
+        insertBooks();
+
+        assertEquals(Arrays.asList("Emma and Emma", "Emma", "Dune", "Ulysses"),
+                search(BookEntry.buildSearchUri("emm")));
+    }
+
+    @Test
+    public void limitKeepsTheBestMatches() {
+        insertBooks();
+
+        assertEquals(Arrays.asList("Emma and Emma", "Emma"),
+                search(BookEntry.buildSearchUri("emma").buildUpon()
+                        .appendQueryParameter(BookContract.QUERY_PARAMETER_LIMIT, "2").build()));
+    }
+
+    /**
+     * Insert books that match "emma" in the title or in the supplier name.
+     * A hit in a supplier name weighs half as much as a hit in a title.
+     */
+    private void insertBooks() {
+        insertBook("Dune", 100, 1, "Emma Press");
+        insertBook("Ulysses", 100, 1, "Emma Press");
+        insertBook("Emma", 100, 1, null);
+        insertBook("Emma and Emma", 100, 1, null);
+    }
+
+    private List<String> search(Uri uri) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = mProvider.query(uri, new String[]{BookEntry.COLUMN_PRODUCT_NAME,
+                BookEntry.COLUMN_SNIPPET}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+                assertTrue(cursor.getString(1).contains("<b>"));
+            }
+        } finally {
+            cursor.close();
+        }
+        return names;
+    }
+}
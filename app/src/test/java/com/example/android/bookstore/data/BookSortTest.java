@@ -0,0 +1,201 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.MetricsEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the sort orders of the books and of their pages,
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookSortTest extends BookProviderTestCase {
+
+    @Test
+    public void titlesIgnoreCaseAndAccents() {
+        insertBook("zoo", 100, 1, null);
+        insertBook("Émile", 100, 1, null);
+        insertBook("apple", 100, 1, null);
+        insertBook("emma", 100, 1, null);
+        insertBook("Eleven", 100, 1, null);
+
+        assertEquals(Arrays.asList("apple", "Eleven", "Émile", "emma", "zoo"),
+                readTitles(BookContract.SORT_TITLE, BookEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(BookContract.QUERY_PARAMETER_SORT,
+                                BookContract.SORT_TITLE).build()));
+    }
+
+    @Test
+    public void pagesFollowTheSortOrder() {
+        long[] prices = {500, 100, 300, 100, 500, 200, 100, 400};
+        for (int i = 0; i < prices.length; i++) {
+            insertBook("Book " + i, prices[i], prices.length - i, null);
+        }
+
+        // Ties are sorted by id, so the books with the same price keep the order they were added
+        assertEquals(Arrays.asList("Book 1", "Book 3", "Book 6", "Book 5", "Book 2", "Book 7",
+                "Book 0", "Book 4"), readPages(BookContract.SORT_PRICE, 3));
+        assertEquals(Arrays.asList("Book 7", "Book 6", "Book 5", "Book 4", "Book 3", "Book 2",
+                "Book 1", "Book 0"), readPages(BookContract.SORT_QUANTITY, 3));
+    }
+
+    @Test
+    public void supplierOrderFollowsTheSupplierNames() {
+        insertBook("Dune", 100, 1, "Bob");
+        insertBook("Emma", 100, 1, "ace");
+        insertBook("Ulysses", 100, 1, null);
+        insertBook("Beloved", 100, 1, "Bob");
+
+        // The books without a supplier come first, then by supplier and title
+        assertEquals(Arrays.asList("Ulysses", "Emma", "Beloved", "Dune"),
+                readPages(BookContract.SORT_SUPPLIER, 2));
+
+        ContentValues values = new ContentValues();
+        values.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Zed");
+        assertEquals(1, mProvider.update(SupplierEntry.CONTENT_URI, values,
+                SupplierEntry.COLUMN_SUPPLIER_NAME + "=?", new String[]{"ace"}));
+        assertEquals(Arrays.asList("Ulysses", "Beloved", "Dune", "Emma"),
+                readPages(BookContract.SORT_SUPPLIER, 2));
+    }
+
+    @Test
+    public void renamedBookMovesInTheTitleOrder() {
+        Uri dune = insertBook("Dune", 100, 1, null);
+        insertBook("Emma", 100, 1, null);
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, "Ulysses");
+        assertEquals(1, mProvider.update(dune, values, null, null));
+        assertEquals(Arrays.asList("Emma", "Ulysses"), readPages(BookContract.SORT_TITLE, 1));
+    }
+
+    @Test
+    public void pageFollowsTheKeysOfAPurgedBook() {
+        insertBook("Dune", 300, 1, null);
+        Uri emma = insertBook("Emma", 450, 1, null);
+        insertBook("Ulysses", 900, 1, null);
+        insertBook("Anna", 1200, 1, null);
+        long emmaId = ContentUris.parseId(emma);
+
+        // The last book of the previous page is gone, with its row
+        assertEquals(1, mProvider.delete(emma, null, null));
+        mProvider.call(BookContract.METHOD_COMPACT, null, null);
+
+        List<String> titles = new ArrayList<>();
+        Cursor cursor = mProvider.query(BookEntry.buildPageUri(BookContract.SORT_PRICE, emmaId,
+                new String[]{"450"}, 10), new String[]{BookEntry.COLUMN_PRODUCT_NAME}, null,
+                null, null);
+        try {
+            while (cursor.moveToNext()) {
+                titles.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(Arrays.asList("Ulysses", "Anna"), titles);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageKeysMustMatchTheSortOrder() {
+        mProvider.query(BookEntry.buildPageUri(BookContract.SORT_SUPPLIER, 1,
+                new String[]{"ace"}, 10), null, null, null, null);
+    }
+
+    @Test
+    public void pagesAreReadFromTheIndex() {
+        insertBook("Emma", 100, 1, "Ace");
+        mProvider.call(BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+        Uri lastPage = null;
+        String[] sorts = {BookContract.SORT_TITLE, BookContract.SORT_PRICE,
+                BookContract.SORT_QUANTITY, BookContract.SORT_SUPPLIER};
+        for (String sort : sorts) {
+            lastPage = BookEntry.buildPageUri(sort, 1, 10);
+            mProvider.query(lastPage, null, null, null, null).close();
+        }
+
+        Cursor cursor = mProvider.query(MetricsEntry.SLOW_QUERIES_URI, null, null, null, null);
+        try {
+            assertEquals(sorts.length, cursor.getCount());
+            while (cursor.moveToNext()) {
+                String plan = cursor.getString(
+                        cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_QUERY_PLAN));
+                assertFalse(plan, plan.contains("TEMP B-TREE"));
+            }
+            // The most recent query first
+            assertTrue(cursor.moveToFirst());
+            assertEquals(lastPage.toString(), cursor.getString(
+                    cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_URI)));
+            String plan = cursor.getString(
+                    cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_QUERY_PLAN));
+            assertTrue(plan, plan.contains(BookDbHelper.INDEX_SUPPLIER_KEY));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sortKeysCannotBeWritten() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, "Emma");
+        values.put(BookEntry.COLUMN_PRICE_CENTS, 450);
+        values.put(BookEntry.COLUMN_QUANTITY, 2);
+        values.put(BookEntry.COLUMN_TITLE_KEY, "a");
+        mProvider.insert(BookEntry.CONTENT_URI, values);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSortOrderIsRejected() {
+        mProvider.query(BookEntry.buildPageUri("color", -1, 10), null, null, null, null);
+    }
+
+    /**
+     * Read all the books in the given sort order, one page at a time, like the list does.
+     */
+    private List<String> readPages(String sort, int pageSize) {
+        List<String> titles = new ArrayList<>();
+        long lastId = -1;
+        while (true) {
+            Cursor cursor = mProvider.query(BookEntry.buildPageUri(sort, lastId, pageSize),
+                    new String[]{BookEntry._ID, BookEntry.COLUMN_PRODUCT_NAME}, null, null,
+                    null);
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    titles.add(cursor.getString(1));
+                }
+                if (cursor.getCount() < pageSize) {
+                    return titles;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private List<String> readTitles(String sort, Uri uri) {
+        List<String> titles = new ArrayList<>();
+        Cursor cursor = mProvider.query(uri, new String[]{BookEntry.COLUMN_PRODUCT_NAME},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                titles.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(titles, readPages(sort, 2));
+        return titles;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the statements that {@link BookProvider} compiles once and shares between threads,
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookStatementsTest extends BookProviderTestCase {
+
+    private static final int WRITERS = 4;
+    private static final int BOOKS_PER_WRITER = 25;
+
+    @Test
+    public void concurrentWritersShareTheStatements() throws Exception {
+        final Uri shared = insertBook("Emma", 450, 0, "Ace");
+        final Uri quantity = BookEntry.buildQuantityUri(ContentUris.parseId(shared));
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] writers = new Thread[WRITERS];
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ContentValues delta = new ContentValues();
+                        delta.put(BookEntry.QUANTITY_DELTA, 1);
+                        for (int i = 0; i < BOOKS_PER_WRITER; i++) {
+                            // Every statement is used by every writer, in a different order
+                            Uri book = mProvider.insert(BookEntry.CONTENT_URI, book(
+                                    "Book " + writer + "-" + i, 100, 1, "Supplier " + i));
+                            mProvider.update(quantity, delta, null, null);
+                            ContentValues values = book("Book " + writer + "-" + i, 200, 2,
+                                    "Ace");
+                            mProvider.update(book, values, null, null);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join(30000);
+            assertFalse("The writers are deadlocked", writer.isAlive());
+        }
+
+        assertNull(failure.get());
+        assertEquals(WRITERS * BOOKS_PER_WRITER + 1, count(BookEntry.CONTENT_URI));
+        assertEquals(WRITERS * BOOKS_PER_WRITER, getLong(shared, BookEntry.COLUMN_QUANTITY));
+        assertEquals(BOOKS_PER_WRITER + 1, count(SupplierEntry.CONTENT_URI));
+    }
+}
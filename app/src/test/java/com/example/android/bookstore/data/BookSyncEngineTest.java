@@ -0,0 +1,217 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the changes URI and of {@link BookSyncEngine} against {@link FakeSyncServer},
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookSyncEngineTest extends BookProviderTestCase {
+
+    private FakeSyncServer mServer;
+    private BookSyncEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mServer = new FakeSyncServer();
+        mEngine = new BookSyncEngine(RuntimeEnvironment.application, mServer);
+    }
+
+    @Test
+    public void changesFollowTheOrderOfTheWrites() {
+        Uri emma = insertBook("Emma", 450, 2);
+        Uri dune = insertBook("Dune", 999, 0);
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_QUANTITY, 3);
+        mProvider.update(emma, values, null, null);
+        mProvider.delete(dune, null, null);
+
+        Cursor cursor = mProvider.query(BookEntry.buildChangesUri(0, 10), null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Emma", getString(cursor, BookEntry.COLUMN_PRODUCT_NAME));
+            long emmaSeq = getLong(cursor, BookEntry.COLUMN_CHANGE_SEQ);
+            assertTrue(cursor.moveToNext());
+            assertEquals("Dune", getString(cursor, BookEntry.COLUMN_PRODUCT_NAME));
+            assertEquals(1, getLong(cursor, BookEntry.COLUMN_DELETED));
+            assertTrue(getLong(cursor, BookEntry.COLUMN_CHANGE_SEQ) > emmaSeq);
+
+            cursor.close();
+            cursor = mProvider.query(BookEntry.buildChangesUri(emmaSeq, 10), null, null, null,
+                    null);
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void syncIdCannotBeWritten() {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, "Emma");
+        values.put(BookEntry.COLUMN_PRICE_CENTS, 450);
+        values.put(BookEntry.COLUMN_QUANTITY, 2);
+        values.put(BookEntry.COLUMN_SYNC_ID, "emma");
+        mProvider.insert(BookEntry.CONTENT_URI, values);
+    }
+
+    @Test
+    public void pushesOnlyTheChangesSinceTheLastSync() throws IOException {
+        Uri emma = insertBook("Emma", 450, 2);
+        Uri dune = insertBook("Dune", 999, 0);
+        insertBook("Ulysses", 1200, 5);
+
+        BookSyncEngine.Result result = mEngine.sync();
+        assertEquals(3, result.changesPushed);
+        assertEquals(3, mServer.size());
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRICE_CENTS, 500);
+        mProvider.update(emma, values, null, null);
+        mProvider.delete(dune, null, null);
+
+        result = mEngine.sync();
+        assertEquals(2, result.changesPushed);
+        assertEquals(500, (long) mServer.get(getSyncId(emma)).getAsLong(
+                BookEntry.COLUMN_PRICE_CENTS));
+        assertEquals(1, (int) mServer.get(getSyncId(dune)).getAsInteger(
+                BookEntry.COLUMN_DELETED));
+
+        // Nothing changed since
+        assertEquals(0, mEngine.sync().changesPushed);
+    }
+
+    @Test
+    public void pullsTheChangesOfTheBackOffice() throws IOException {
+        Uri emma = insertBook("Emma", 450, 2);
+        Uri dune = insertBook("Dune", 999, 0);
+        mEngine.sync();
+        String emmaSyncId = getSyncId(emma);
+
+        ContentValues change = new ContentValues(mServer.get(emmaSyncId));
+        change.put(BookEntry.COLUMN_QUANTITY, 7);
+        change.put(BookEntry.COLUMN_SUPPLIER_NAME, "Ace");
+        mServer.store(change);
+        change = new ContentValues();
+        change.put(BookEntry.COLUMN_SYNC_ID, getSyncId(dune));
+        change.put(BookEntry.COLUMN_DELETED, 1);
+        mServer.store(change);
+        change = new ContentValues();
+        change.put(BookEntry.COLUMN_SYNC_ID, "head-office-1");
+        change.put(BookEntry.COLUMN_DELETED, 0);
+        change.put(BookEntry.COLUMN_PRODUCT_NAME, "Ulysses");
+        change.put(BookEntry.COLUMN_PRICE_CENTS, 1200);
+        change.put(BookEntry.COLUMN_QUANTITY, 5);
+        mServer.store(change);
+
+        BookSyncEngine.Result result = mEngine.sync();
+        assertEquals(0, result.changesPushed);
+        assertEquals(3, result.changesPulled);
+        assertEquals(3, result.rowsApplied);
+
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI, null, null, null,
+                BookEntry.COLUMN_PRODUCT_NAME);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Emma", getString(cursor, BookEntry.COLUMN_PRODUCT_NAME));
+            assertEquals(7, getLong(cursor, BookEntry.COLUMN_QUANTITY));
+            assertEquals("Ace", getString(cursor, BookEntry.COLUMN_SUPPLIER_NAME));
+            assertTrue(cursor.moveToNext());
+            assertEquals("Ulysses", getString(cursor, BookEntry.COLUMN_PRODUCT_NAME));
+            assertEquals("head-office-1", getString(cursor, BookEntry.COLUMN_SYNC_ID));
+        } finally {
+            cursor.close();
+        }
+
+        // The changes that came from the back office are not sent back
+        result = mEngine.sync();
+        assertEquals(0, result.changesPushed);
+        assertEquals(0, result.changesPulled);
+    }
+
+    @Test
+    public void ownChangesComingBackAreNotWritten() throws IOException {
+        Uri emma = insertBook("Emma", 450, 2);
+        long version = getLong(emma, BookEntry.COLUMN_VERSION);
+
+        // The first pull gets the books this device just pushed
+        BookSyncEngine.Result result = mEngine.sync();
+        assertEquals(1, result.changesPulled);
+        assertEquals(0, result.rowsApplied);
+        assertEquals(version, getLong(emma, BookEntry.COLUMN_VERSION));
+        assertEquals(0, mEngine.sync().changesPushed);
+    }
+
+    @Test
+    public void interruptedPushResumesAfterTheLastBatch() throws IOException {
+        int books = BookSyncEngine.BATCH_SIZE * 2 + 50;
+        ContentValues[] rows = new ContentValues[books];
+        for (int i = 0; i < books; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(BookEntry.COLUMN_PRODUCT_NAME, "Book " + i);
+            rows[i].put(BookEntry.COLUMN_PRICE_CENTS, 100);
+            rows[i].put(BookEntry.COLUMN_QUANTITY, 1);
+        }
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, rows);
+
+        mServer.failPushAfter(1);
+        try {
+            mEngine.sync();
+            fail("The push didn't fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(BookSyncEngine.BATCH_SIZE, mServer.size());
+
+        BookSyncEngine.Result result = mEngine.sync();
+        assertEquals(books - BookSyncEngine.BATCH_SIZE, result.changesPushed);
+        assertEquals(books, mServer.size());
+        assertEquals(3, mServer.pushedBatches);
+    }
+
+    @Test
+    public void deletesAreKeptUntilPushed() throws IOException {
+        Uri emma = insertBook("Emma", 450, 2);
+        mEngine.sync();
+
+        mProvider.delete(emma, null, null);
+        Bundle result = mProvider.call(BookContract.METHOD_COMPACT, null, null);
+        assertEquals(0, result.getInt(BookContract.COMPACT_PURGED_ROWS));
+
+        mEngine.sync();
+        result = mProvider.call(BookContract.METHOD_COMPACT, null, null);
+        assertEquals(1, result.getInt(BookContract.COMPACT_PURGED_ROWS));
+    }
+
+    private String getSyncId(Uri uri) {
+        Cursor cursor = mProvider.query(BookEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(BookContract.QUERY_PARAMETER_INCLUDE_DELETED, "true")
+                        .build(), new String[]{BookEntry.COLUMN_SYNC_ID},
+                BookEntry._ID + "=?", new String[]{uri.getLastPathSegment()}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        return cursor.getString(cursor.getColumnIndexOrThrow(column));
+    }
+}
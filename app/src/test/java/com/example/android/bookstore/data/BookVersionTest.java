@@ -0,0 +1,171 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the versions of the books and of the updates that expect a version,
+ * run on the JVM with Robolectric's host SQLite.
+ */
+public class BookVersionTest extends BookProviderTestCase {
+
+    @Test
+    public void everyWriteIncrementsTheVersion() {
+        Uri uri = insertBook("Emma", 450, 2);
+        assertEquals(1, getVersion(uri));
+
+        // A full row, written by the compiled statement
+        assertEquals(1, mProvider.update(uri, fullRow("Emma", 500, 2), null, null));
+        assertEquals(2, getVersion(uri));
+
+        // A single column, written by the generic update
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRICE_CENTS, 550);
+        assertEquals(1, mProvider.update(uri, values, null, null));
+        assertEquals(3, getVersion(uri));
+
+        values = new ContentValues();
+        values.put(BookEntry.QUANTITY_DELTA, -1);
+        assertEquals(1, mProvider.update(Uri.withAppendedPath(uri, BookContract.PATH_QUANTITY),
+                values, null, null));
+        assertEquals(4, getVersion(uri));
+    }
+
+    @Test
+    public void staleVersionIsNotWritten() {
+        Uri uri = insertBook("Emma", 450, 2);
+
+        ContentValues first = fullRow("Emma", 500, 2);
+        first.put(BookEntry.EXPECTED_VERSION, 1);
+        assertEquals(1, mProvider.update(uri, first, null, null));
+        // The values of the caller are left as they were
+        assertTrue(first.containsKey(BookEntry.EXPECTED_VERSION));
+
+        // Another editor loaded version 1 too
+        ContentValues second = fullRow("Emma", 600, 2);
+        second.put(BookEntry.EXPECTED_VERSION, 1);
+        assertEquals(0, mProvider.update(uri, second, null, null));
+
+        ContentValues partial = new ContentValues();
+        partial.put(BookEntry.COLUMN_QUANTITY, 9);
+        partial.put(BookEntry.EXPECTED_VERSION, 1);
+        assertEquals(0, mProvider.update(uri, partial, null, null));
+
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(500, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_PRICE_CENTS)));
+            assertEquals(2, cursor.getInt(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_QUANTITY)));
+            assertEquals(2, cursor.getLong(
+                    cursor.getColumnIndexOrThrow(BookEntry.COLUMN_VERSION)));
+        } finally {
+            cursor.close();
+        }
+
+        partial.put(BookEntry.EXPECTED_VERSION, 2);
+        assertEquals(1, mProvider.update(uri, partial, null, null));
+        assertEquals(3, getVersion(uri));
+    }
+
+    @Test
+    public void phoneOnlyUpdateIncrementsTheVersion() {
+        Uri uri = mProvider.insert(BookEntry.CONTENT_URI, fullRow("Emma", 450, 2));
+        assertNotNull(uri);
+
+        ContentValues phone = new ContentValues();
+        phone.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+40711");
+        phone.put(BookEntry.EXPECTED_VERSION, 1);
+        assertEquals(1, mProvider.update(uri, phone, null, null));
+        assertEquals(2, getVersion(uri));
+
+        // An editor that still holds version 1 doesn't overwrite the new phone number
+        phone.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+40722");
+        assertEquals(0, mProvider.update(uri, phone, null, null));
+        Cursor cursor = mProvider.query(uri, new String[]{
+                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("+40711", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(2, getVersion(uri));
+    }
+
+    @Test
+    public void phoneOnlyUpdateReachesEveryBookOfTheSupplier() {
+        Uri emma = insertBook("Emma", 450, 2, "Ace");
+        Uri dune = insertBook("Dune", 300, 1, "Ace");
+
+        ContentValues phone = new ContentValues();
+        phone.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+40733");
+        assertEquals(1, mProvider.update(emma, phone, null, null));
+
+        // The number belongs to the supplier, which the other book shares
+        Cursor cursor = mProvider.query(dune, new String[]{
+                BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("+40733", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(2, getVersion(emma));
+        assertEquals(1, getVersion(dune));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void phoneNeedsASupplier() {
+        Uri uri = insertBook("Emma", 450, 2);
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+40711");
+        mProvider.update(uri, values, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void versionCannotBeWritten() {
+        Uri uri = insertBook("Emma", 450, 2);
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_VERSION, 10);
+        mProvider.update(uri, values, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expectedVersionNeedsASingleBook() {
+        insertBook("Emma", 450, 2);
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_QUANTITY, 1);
+        values.put(BookEntry.EXPECTED_VERSION, 1);
+        mProvider.update(BookEntry.CONTENT_URI, values, null, null);
+    }
+
+    private static ContentValues fullRow(String name, long priceCents, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(BookEntry.COLUMN_PRICE_CENTS, priceCents);
+        values.put(BookEntry.COLUMN_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_SUPPLIER_NAME, "Ace");
+        values.put(BookEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "+40700");
+        return values;
+    }
+
+    private long getVersion(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[]{BookEntry.COLUMN_VERSION},
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
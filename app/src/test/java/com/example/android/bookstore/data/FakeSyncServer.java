@@ -0,0 +1,96 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-process back office for the tests of {@link BookSyncEngine}. It keeps the last
+ * change of every book, by sync id, numbered in the order it was stored; the number of
+ * the last change of a page is its token.
+ */
+class FakeSyncServer implements SyncTransport {
+
+    private final TreeMap<Long, ContentValues> mChanges = new TreeMap<>();
+    private final Map<String, Long> mSeqBySyncId = new HashMap<>();
+    private long mLastSeq;
+
+    /* The number of pushes that succeed before the next one fails, or -1 to never fail */
+    private int mPushesBeforeFailure = -1;
+
+    int pushedBatches;
+    int pushedChanges;
+
+    @Override
+    public void push(List<ContentValues> changes) throws IOException {
+        if (mPushesBeforeFailure == 0) {
+            mPushesBeforeFailure = -1;
+            throw new IOException("The back office can't be reached");
+        }
+        if (mPushesBeforeFailure > 0) {
+            mPushesBeforeFailure--;
+        }
+        for (ContentValues change : changes) {
+            store(change);
+        }
+        pushedBatches++;
+        pushedChanges += changes.size();
+    }
+
+    @Override
+    public Page pull(String token, int limit) {
+        long after = token == null ? 0 : Long.parseLong(token);
+        List<ContentValues> changes = new ArrayList<>();
+        long last = after;
+        for (Map.Entry<Long, ContentValues> entry : mChanges.tailMap(after, false).entrySet()) {
+            if (changes.size() == limit) {
+                return new Page(changes, String.valueOf(last), true);
+            }
+            changes.add(new ContentValues(entry.getValue()));
+            last = entry.getKey();
+        }
+        return new Page(changes, String.valueOf(last), false);
+    }
+
+    /**
+     * Store a change, as if it was made in the back office.
+     */
+    void store(ContentValues change) {
+        String syncId = change.getAsString(BookEntry.COLUMN_SYNC_ID);
+        Long previousSeq = mSeqBySyncId.remove(syncId);
+        if (previousSeq != null) {
+            mChanges.remove(previousSeq);
+        }
+        mChanges.put(++mLastSeq, new ContentValues(change));
+        mSeqBySyncId.put(syncId, mLastSeq);
+    }
+
+    /**
+     * Return the last change of the book with the given sync id, or null if there is none.
+     */
+    ContentValues get(String syncId) {
+        Long seq = mSeqBySyncId.get(syncId);
+        return seq == null ? null : mChanges.get(seq);
+    }
+
+    /**
+     * Return the number of books known to the back office, deleted books included.
+     */
+    int size() {
+        return mChanges.size();
+    }
+
+    /**
+     * Let the given number of pushes succeed, then fail the next one.
+     */
+    void failPushAfter(int pushes) {
+        mPushesBeforeFailure = pushes;
+    }
+}
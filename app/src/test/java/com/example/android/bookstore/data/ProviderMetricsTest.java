@@ -0,0 +1,90 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.MetricsEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the metrics of {@link BookProvider}, run on the JVM with Robolectric's host SQLite.
+ */
+public class ProviderMetricsTest extends BookProviderTestCase {
+
+    @Test
+    public void countsCallsRowsAndErrors() {
+        ContentValues[] books = new ContentValues[3];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = book("Book " + i, 100, i, null);
+        }
+        mProvider.bulkInsert(BookEntry.CONTENT_URI, books);
+        mProvider.query(BookEntry.CONTENT_URI, null, null, null, null).close();
+        mProvider.query(BookEntry.CONTENT_URI, null, null, null, null).close();
+        try {
+            mProvider.insert(BookEntry.CONTENT_URI, new ContentValues());
+            fail("A book without a name was inserted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        Cursor cursor = mProvider.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertTrue(moveTo(cursor, "query", BookContract.PATH_BOOKS));
+            assertEquals(2, getLong(cursor, MetricsEntry.COLUMN_CALL_COUNT));
+            assertEquals(6, getLong(cursor, MetricsEntry.COLUMN_ROW_COUNT));
+            assertEquals(3, getLong(cursor, MetricsEntry.COLUMN_MAX_CURSOR_SIZE));
+
+            assertTrue(moveTo(cursor, "bulk_insert", BookContract.PATH_BOOKS));
+            assertEquals(1, getLong(cursor, MetricsEntry.COLUMN_CALL_COUNT));
+            assertEquals(3, getLong(cursor, MetricsEntry.COLUMN_ROW_COUNT));
+
+            assertTrue(moveTo(cursor, "insert", BookContract.PATH_BOOKS));
+            assertEquals(1, getLong(cursor, MetricsEntry.COLUMN_ERROR_COUNT));
+            assertEquals(0, getLong(cursor, MetricsEntry.COLUMN_ROW_COUNT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void logsSlowQueriesWithTheirPlan() {
+        mProvider.call(BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+        mProvider.query(BookEntry.buildLowStockUri(3), null, null, null, null).close();
+
+        Cursor cursor = mProvider.query(MetricsEntry.SLOW_QUERIES_URI, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(BookEntry.buildLowStockUri(3).toString(), cursor.getString(
+                    cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_URI)));
+            String plan = cursor.getString(
+                    cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_QUERY_PLAN));
+            assertTrue(plan, plan.contains(BookDbHelper.INDEX_QUANTITY));
+        } finally {
+            cursor.close();
+        }
+
+        mProvider.call(BookContract.METHOD_RESET_METRICS, null, null);
+        cursor = mProvider.query(MetricsEntry.SLOW_QUERIES_URI, null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean moveTo(Cursor cursor, String operation, String uriPattern) {
+        int operationColumnIndex = cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_OPERATION);
+        int uriPatternColumnIndex = cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_URI_PATTERN);
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            if (operation.equals(cursor.getString(operationColumnIndex))
+                    && uriPattern.equals(cursor.getString(uriPatternColumnIndex))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}